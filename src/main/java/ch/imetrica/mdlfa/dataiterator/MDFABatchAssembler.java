@@ -0,0 +1,306 @@
+package ch.imetrica.mdlfa.dataiterator;
+
+import java.util.Arrays;
+
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * Assembles minibatches for the MDFA iterators from primitive,
+ * column-oriented buffers. Every feature (and label) is held as one
+ * contiguous double[] over all observations, so a window of
+ * timeStepLength observations is a single System.arraycopy instead of
+ * timeStepLength calls into the MultivariateFXSeries and one putScalar
+ * per element. Each INDArray is then created with one bulk copy.
+ *
+ * Observations without a label are written as zeros in both the
+ * features and the labels, exactly as the original iterators did.
+ *
+ * The assembler holds no cursor and, apart from zeroing the features
+ * of unlabelled observations on construction, never modifies its
+ * buffers, so any number of threads may assemble batches from it
+ * concurrently.
+ *
+ */
+public class MDFABatchAssembler {
+
+	private final double[][] featureColumns;
+	private final double[][] labelColumns;
+	private final boolean[] labelled;
+
+	/**
+	 * Instantiates an assembler over the given columns. All columns
+	 * must have the same length as the labelled array. The features of
+	 * unlabelled observations are set to 0 here, once, so the batches
+	 * are plain copies of the columns.
+	 *
+	 * @param featureColumns One double[] for each input column of the network
+	 * @param labelColumns One double[] for each output column of the network
+	 * @param labelled true if the observation at this index has a label
+	 */
+	public MDFABatchAssembler(double[][] featureColumns,
+			                  double[][] labelColumns,
+			                  boolean[] labelled) {
+
+		for(double[] column : featureColumns) {
+			if(column.length != labelled.length) {
+				throw new IllegalArgumentException("Feature column length " + column.length
+						+ " does not match number of observations " + labelled.length);
+			}
+		}
+		for(double[] column : labelColumns) {
+			if(column.length != labelled.length) {
+				throw new IllegalArgumentException("Label column length " + column.length
+						+ " does not match number of observations " + labelled.length);
+			}
+		}
+
+		for(int j = 0; j < labelled.length; j++) {
+			if(!labelled[j]) {
+				for(double[] column : featureColumns) {
+					column[j] = 0;
+				}
+			}
+		}
+
+		this.featureColumns = featureColumns;
+		this.labelColumns = labelColumns;
+		this.labelled = labelled;
+	}
+
+	/**
+	 * Builds a classification minibatch of miniBatchSize consecutive windows,
+	 * the first of which starts at observation start. The layout
+	 * matches MDFADataSetIterator: c-ordered input [miniBatch, features, time],
+	 * labels [miniBatch, outcomes, time], a unit input mask and a label
+	 * mask which only uses the final time step of every window.
+	 *
+	 * @param start Index of the first observation of the first window
+	 * @param miniBatchSize Number of windows
+	 * @param timeStepLength Length of each window
+	 * @return DataSet with features, labels and masks
+	 */
+	public DataSet classificationBatch(int start, int miniBatchSize, int timeStepLength) {
+
+		int[] starts = new int[miniBatchSize];
+		for(int i = 0; i < miniBatchSize; i++) {
+			starts[i] = start + i;
+		}
+		return classificationBatch(starts, 0, miniBatchSize, timeStepLength);
+	}
+
+	/**
+	 * Builds a classification minibatch from arbitrary windows, the i-th
+	 * of which starts at observation starts[offset + i]. The layout is
+	 * the same as for consecutive windows.
+	 *
+	 * @param starts Window start positions, as built by an MDFAWindowSampler
+	 * @param offset Position in starts of the first window of the minibatch
+	 * @param miniBatchSize Number of windows
+	 * @param timeStepLength Length of each window
+	 * @return DataSet with features, labels and masks
+	 */
+	public DataSet classificationBatch(int[] starts, int offset, int miniBatchSize, int timeStepLength) {
+
+		int nFeatures = featureColumns.length;
+		int nOutcomes = labelColumns.length;
+
+		double[] input = new double[miniBatchSize * nFeatures * timeStepLength];
+		double[] labels = new double[miniBatchSize * nOutcomes * timeStepLength];
+
+		fillClassificationBatch(starts, offset, miniBatchSize, timeStepLength, input, labels);
+		return classificationDataSet(input, labels, miniBatchSize, nFeatures, nOutcomes, timeStepLength);
+	}
+
+	/*
+	 * Writes a classification minibatch into existing arrays. Every
+	 * element is overwritten, so the arrays may be reused.
+	 */
+	void fillClassificationBatch(int[] starts, int offset, int miniBatchSize, int timeStepLength,
+			                     double[] input, double[] labels) {
+
+		for(int i = 0; i < miniBatchSize; i++) {
+			copyClassificationWindow(starts[offset + i], i, timeStepLength, input, labels);
+		}
+	}
+
+	/**
+	 * Builds a classification minibatch from windows of several stores,
+	 * for example one store per symbol. The i-th window starts at
+	 * observation starts[offset + i] of assemblers[sources[offset + i]].
+	 * All assemblers must have the same number of feature and label columns.
+	 *
+	 * @param assemblers One assembler per store
+	 * @param sources Index into assemblers of each window
+	 * @param starts Window start positions within their store
+	 * @param offset Position in sources and starts of the first window of the minibatch
+	 * @param miniBatchSize Number of windows
+	 * @param timeStepLength Length of each window
+	 * @return DataSet with features, labels and masks
+	 */
+	public static DataSet classificationBatch(MDFABatchAssembler[] assemblers, int[] sources, int[] starts,
+			                                  int offset, int miniBatchSize, int timeStepLength) {
+
+		int nFeatures = assemblers[0].getNumberOfFeatureColumns();
+		int nOutcomes = assemblers[0].getNumberOfLabelColumns();
+
+		double[] input = new double[miniBatchSize * nFeatures * timeStepLength];
+		double[] labels = new double[miniBatchSize * nOutcomes * timeStepLength];
+
+		for(int i = 0; i < miniBatchSize; i++) {
+			assemblers[sources[offset + i]].copyClassificationWindow(starts[offset + i], i, timeStepLength, input, labels);
+		}
+		return classificationDataSet(input, labels, miniBatchSize, nFeatures, nOutcomes, timeStepLength);
+	}
+
+	/* Writes the window starting at start as the i-th example of a c-ordered minibatch */
+	private void copyClassificationWindow(int start, int i, int timeStepLength, double[] input, double[] labels) {
+
+		int nFeatures = featureColumns.length;
+		int nOutcomes = labelColumns.length;
+
+		for(int k = 0; k < nFeatures; k++) {
+			System.arraycopy(featureColumns[k], start, input, (i * nFeatures + k) * timeStepLength, timeStepLength);
+		}
+		for(int j = 0; j < nOutcomes; j++) {
+			System.arraycopy(labelColumns[j], start, labels, (i * nOutcomes + j) * timeStepLength, timeStepLength);
+		}
+	}
+
+	private static DataSet classificationDataSet(double[] input, double[] labels, int miniBatchSize,
+			                                     int nFeatures, int nOutcomes, int timeStepLength) {
+
+		double[] inputMask = new double[miniBatchSize * timeStepLength];
+		double[] labelsMask = new double[miniBatchSize * timeStepLength];
+
+		Arrays.fill(inputMask, 1.0);
+		for(int i = 0; i < miniBatchSize; i++) {
+			labelsMask[i * timeStepLength + timeStepLength - 1] = 1.0;
+		}
+
+		return new DataSet(Nd4j.create(input, new int[]{ miniBatchSize, nFeatures, timeStepLength }, 'c'),
+				           Nd4j.create(labels, new int[]{ miniBatchSize, nOutcomes, timeStepLength }, 'c'),
+				           Nd4j.create(inputMask, new int[]{ miniBatchSize, timeStepLength }, 'c'),
+				           Nd4j.create(labelsMask, new int[]{ miniBatchSize, timeStepLength }, 'c'));
+	}
+
+	/**
+	 * Builds a regression minibatch of miniBatchSize consecutive windows,
+	 * the first of which starts at observation start. The layout
+	 * matches MDFARegressionDataSetIterator: f-ordered input
+	 * [miniBatch, features, time] and labels [miniBatch, outcomes, time]
+	 * without masks.
+	 *
+	 * In f-order the miniBatch dimension is the contiguous one, so
+	 * for a fixed column and time step the whole minibatch is one
+	 * contiguous run of the underlying column.
+	 *
+	 * @param start Index of the first observation of the first window
+	 * @param miniBatchSize Number of windows
+	 * @param timeStepLength Length of each window
+	 * @return DataSet with features and labels
+	 */
+	public DataSet regressionBatch(int start, int miniBatchSize, int timeStepLength) {
+
+		int nFeatures = featureColumns.length;
+		int nOutcomes = labelColumns.length;
+
+		double[] input = new double[miniBatchSize * nFeatures * timeStepLength];
+		double[] labels = new double[miniBatchSize * nOutcomes * timeStepLength];
+
+		fillRegressionBatch(start, miniBatchSize, timeStepLength, input, labels);
+		return new DataSet(Nd4j.create(input, new int[]{ miniBatchSize, nFeatures, timeStepLength }, 'f'),
+				           Nd4j.create(labels, new int[]{ miniBatchSize, nOutcomes, timeStepLength }, 'f'));
+	}
+
+	/* Writes a regression minibatch of consecutive windows into existing arrays */
+	void fillRegressionBatch(int start, int miniBatchSize, int timeStepLength, double[] input, double[] labels) {
+
+		int nFeatures = featureColumns.length;
+		int nOutcomes = labelColumns.length;
+
+		for(int t = 0; t < timeStepLength; t++) {
+
+			for(int k = 0; k < nFeatures; k++) {
+				System.arraycopy(featureColumns[k], start + t, input, miniBatchSize * (k + nFeatures * t), miniBatchSize);
+			}
+			for(int j = 0; j < nOutcomes; j++) {
+				System.arraycopy(labelColumns[j], start + t, labels, miniBatchSize * (j + nOutcomes * t), miniBatchSize);
+			}
+		}
+	}
+
+	/**
+	 * Builds a regression minibatch from arbitrary windows, the i-th
+	 * of which starts at observation starts[offset + i]. The layout is
+	 * the same as for consecutive windows.
+	 *
+	 * @param starts Window start positions, as built by an MDFAWindowSampler
+	 * @param offset Position in starts of the first window of the minibatch
+	 * @param miniBatchSize Number of windows
+	 * @param timeStepLength Length of each window
+	 * @return DataSet with features and labels
+	 */
+	public DataSet regressionBatch(int[] starts, int offset, int miniBatchSize, int timeStepLength) {
+
+		int nFeatures = featureColumns.length;
+		int nOutcomes = labelColumns.length;
+
+		double[] input = new double[miniBatchSize * nFeatures * timeStepLength];
+		double[] labels = new double[miniBatchSize * nOutcomes * timeStepLength];
+
+		fillRegressionBatch(starts, offset, miniBatchSize, timeStepLength, input, labels);
+		return new DataSet(Nd4j.create(input, new int[]{ miniBatchSize, nFeatures, timeStepLength }, 'f'),
+				           Nd4j.create(labels, new int[]{ miniBatchSize, nOutcomes, timeStepLength }, 'f'));
+	}
+
+	/* Writes a regression minibatch of arbitrary windows into existing arrays */
+	void fillRegressionBatch(int[] starts, int offset, int miniBatchSize, int timeStepLength,
+			                 double[] input, double[] labels) {
+
+		int nFeatures = featureColumns.length;
+		int nOutcomes = labelColumns.length;
+
+		for(int i = 0; i < miniBatchSize; i++) {
+
+			int start = starts[offset + i];
+			for(int t = 0; t < timeStepLength; t++) {
+
+				for(int k = 0; k < nFeatures; k++) {
+					input[i + miniBatchSize * (k + nFeatures * t)] = featureColumns[k][start + t];
+				}
+				for(int j = 0; j < nOutcomes; j++) {
+					labels[i + miniBatchSize * (j + nOutcomes * t)] = labelColumns[j][start + t];
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return Number of observations held by the assembler
+	 */
+	public int size() {
+		return labelled.length;
+	}
+
+	public int getNumberOfFeatureColumns() {
+		return featureColumns.length;
+	}
+
+	public int getNumberOfLabelColumns() {
+		return labelColumns.length;
+	}
+
+	/* The columns are shared, not copied, and must not be modified */
+	double[][] getFeatureColumns() {
+		return featureColumns;
+	}
+
+	double[][] getLabelColumns() {
+		return labelColumns;
+	}
+
+	boolean[] getLabelled() {
+		return labelled;
+	}
+}
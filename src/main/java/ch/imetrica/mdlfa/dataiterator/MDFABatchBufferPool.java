@@ -0,0 +1,217 @@
+package ch.imetrica.mdlfa.dataiterator;
+
+import java.util.Arrays;
+
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * Fixed ring of preallocated minibatch buffers for the MDFA
+ * iterators. Without a pool every minibatch allocates new
+ * off-heap arrays for the input, the labels and both masks. With
+ * a pool, the arrays of each buffer are allocated once for a given
+ * shape and then overwritten by every later minibatch assigned to
+ * that buffer, so the allocations of an epoch no longer grow with
+ * the number of epochs.
+ *
+ * Each buffer keeps an on-heap staging array per INDArray, filled by
+ * the MDFABatchAssembler and written to the off-heap array through
+ * its NIO view, one bulk put per array. For float arrays, the default
+ * data type of ND4J, the staging values are first narrowed into an on-heap
+ * float array of the buffer. The masks only depend on the shape and
+ * are written once when a buffer is (re)allocated.
+ *
+ * A minibatch returned by the pool is only valid until its buffer
+ * comes round again, that is for numberOfBuffers - 1 further
+ * minibatches. The pool must therefore have more buffers than
+ * minibatches alive at the same time, see buffersForPrefetch.
+ *
+ */
+public class MDFABatchBufferPool {
+
+	private final Buffer[] buffers;
+	private int next = 0;
+
+	/**
+	 * @param numberOfBuffers Number of minibatches held by the pool
+	 */
+	public MDFABatchBufferPool(int numberOfBuffers) {
+
+		if(numberOfBuffers < 2) {
+			throw new IllegalArgumentException("A buffer pool needs at least 2 buffers");
+		}
+		buffers = new Buffer[numberOfBuffers];
+		for(int i = 0; i < numberOfBuffers; i++) {
+			buffers[i] = new Buffer();
+		}
+	}
+
+	/**
+	 * Number of buffers for an iterator wrapped in an MDFAPrefetchIterator.
+	 * At most prefetchBufferSize minibatches wait in its queue, one is
+	 * held by hasNext() ahead of next(), one is being fitted and one is
+	 * being assembled by the producer, so none of them may share a
+	 * buffer. Without prefetching (a size of 0) only the fitted
+	 * minibatch is alive besides the one being assembled.
+	 *
+	 * @param prefetchBufferSize Queue capacity of the MDFAPrefetchIterator, 0 without prefetching
+	 * @return Number of buffers of the pool
+	 */
+	public static int buffersForPrefetch(int prefetchBufferSize) {
+
+		if(prefetchBufferSize < 0) {
+			throw new IllegalArgumentException("Prefetch buffer size must not be negative");
+		}
+		return (prefetchBufferSize == 0) ? 2 : prefetchBufferSize + 3;
+	}
+
+	/**
+	 * Classification minibatch of consecutive windows in the next
+	 * buffer, see MDFABatchAssembler.classificationBatch
+	 */
+	public DataSet classificationBatch(MDFABatchAssembler assembler, int start, int miniBatchSize, int timeStepLength) {
+
+		Buffer buffer = acquire(assembler, miniBatchSize, timeStepLength, 'c');
+		for(int i = 0; i < miniBatchSize; i++) {
+			buffer.starts[i] = start + i;
+		}
+		assembler.fillClassificationBatch(buffer.starts, 0, miniBatchSize, timeStepLength, buffer.input, buffer.labels);
+		return buffer.publish();
+	}
+
+	/**
+	 * Classification minibatch of arbitrary windows in the next
+	 * buffer, see MDFABatchAssembler.classificationBatch
+	 */
+	public DataSet classificationBatch(MDFABatchAssembler assembler, int[] starts, int offset,
+			                           int miniBatchSize, int timeStepLength) {
+
+		Buffer buffer = acquire(assembler, miniBatchSize, timeStepLength, 'c');
+		assembler.fillClassificationBatch(starts, offset, miniBatchSize, timeStepLength, buffer.input, buffer.labels);
+		return buffer.publish();
+	}
+
+	/**
+	 * Regression minibatch of consecutive windows in the next
+	 * buffer, see MDFABatchAssembler.regressionBatch
+	 */
+	public DataSet regressionBatch(MDFABatchAssembler assembler, int start, int miniBatchSize, int timeStepLength) {
+
+		Buffer buffer = acquire(assembler, miniBatchSize, timeStepLength, 'f');
+		assembler.fillRegressionBatch(start, miniBatchSize, timeStepLength, buffer.input, buffer.labels);
+		return buffer.publish();
+	}
+
+	/**
+	 * Regression minibatch of arbitrary windows in the next
+	 * buffer, see MDFABatchAssembler.regressionBatch
+	 */
+	public DataSet regressionBatch(MDFABatchAssembler assembler, int[] starts, int offset,
+			                       int miniBatchSize, int timeStepLength) {
+
+		Buffer buffer = acquire(assembler, miniBatchSize, timeStepLength, 'f');
+		assembler.fillRegressionBatch(starts, offset, miniBatchSize, timeStepLength, buffer.input, buffer.labels);
+		return buffer.publish();
+	}
+
+	/**
+	 * Takes the next buffer of the ring and reallocates it
+	 * only if its shape does not match
+	 */
+	private synchronized Buffer acquire(MDFABatchAssembler assembler, int miniBatchSize,
+			                            int timeStepLength, char ordering) {
+
+		Buffer buffer = buffers[next];
+		next = (next + 1) % buffers.length;
+
+		int[] shape = { miniBatchSize, assembler.getNumberOfFeatureColumns(),
+				        assembler.getNumberOfLabelColumns(), timeStepLength };
+		if(buffer.ordering != ordering || !Arrays.equals(buffer.shape, shape)) {
+			buffer.allocate(shape, ordering);
+		}
+		return buffer;
+	}
+
+	/**
+	 * @return Number of minibatches held by the pool
+	 */
+	public int getNumberOfBuffers() {
+		return buffers.length;
+	}
+
+	/* One minibatch: staging arrays and the INDArrays they are copied to */
+	private static class Buffer {
+
+		int[] shape;
+		char ordering;
+
+		int[] starts;
+		double[] input;
+		double[] labels;
+		DataSet dataSet;
+
+		/* narrowed staging values for float arrays */
+		float[] narrowed;
+
+		void allocate(int[] shape, char ordering) {
+
+			int miniBatchSize = shape[0];
+			int nFeatures = shape[1];
+			int nOutcomes = shape[2];
+			int timeStepLength = shape[3];
+
+			this.shape = shape;
+			this.ordering = ordering;
+			this.starts = new int[miniBatchSize];
+			this.input = new double[miniBatchSize * nFeatures * timeStepLength];
+			this.labels = new double[miniBatchSize * nOutcomes * timeStepLength];
+
+			INDArray inputArray = Nd4j.create(new int[]{ miniBatchSize, nFeatures, timeStepLength }, ordering);
+			INDArray labelArray = Nd4j.create(new int[]{ miniBatchSize, nOutcomes, timeStepLength }, ordering);
+
+			if(ordering == 'c') {
+
+				/* masks of MDFADataSetIterator, see MDFABatchAssembler.classificationBatch */
+				INDArray inputMask = Nd4j.ones(new int[]{ miniBatchSize, timeStepLength });
+				INDArray labelsMask = Nd4j.zeros(new int[]{ miniBatchSize, timeStepLength });
+				for(int i = 0; i < miniBatchSize; i++) {
+					labelsMask.putScalar(new int[]{ i, timeStepLength - 1 }, 1);
+				}
+				dataSet = new DataSet(inputArray, labelArray, inputMask, labelsMask);
+			}
+			else {
+				dataSet = new DataSet(inputArray, labelArray);
+			}
+			this.narrowed = (inputArray.data().dataType() == DataBuffer.Type.FLOAT)
+					? new float[Math.max(input.length, labels.length)] : null;
+		}
+
+		DataSet publish() {
+
+			copy(input, dataSet.getFeatures().data());
+			copy(labels, dataSet.getLabels().data());
+			return dataSet;
+		}
+
+		/* the arrays were created by allocate, so their data starts at offset 0 */
+		void copy(double[] staging, DataBuffer target) {
+
+			if(target.dataType() == DataBuffer.Type.DOUBLE) {
+				target.asNioDouble().put(staging);
+			}
+			else if(narrowed != null) {
+				for(int i = 0; i < staging.length; i++) {
+					narrowed[i] = (float)staging[i];
+				}
+				target.asNioFloat().put(narrowed, 0, staging.length);
+			}
+			else {
+				/* half precision has no NIO view, fall back to element-wise puts */
+				target.setData(staging);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,35 @@
+package ch.imetrica.mdlfa.dataiterator;
+
+import org.nd4j.linalg.dataset.DataSet;
+
+/**
+ * Random access to the minibatches of an MDFA iterator. 
+ * 
+ * Unlike DataSetIterator.next, a batch is addressed by an explicit 
+ * cursor, so implementations must not read or modify any iterator 
+ * state when building it. This allows a producer thread to assemble 
+ * batches while the consumer owns the iterator itself.
+ *
+ */
+public interface MDFABatchSource {
+
+	/**
+	 * Returns true if a full minibatch can be built at the given cursor
+	 * 
+	 * @param cursor Cursor of the first example in the minibatch
+	 * @param miniBatchSize Number of examples in the minibatch
+	 * @return true if batch(cursor, miniBatchSize) is valid
+	 */
+	public boolean hasBatch(int cursor, int miniBatchSize);
+	
+	/**
+	 * Builds the minibatch at the given cursor without changing
+	 * the state of the source
+	 * 
+	 * @param cursor Cursor of the first example in the minibatch
+	 * @param miniBatchSize Number of examples in the minibatch
+	 * @return A new DataSet
+	 */
+	public DataSet batch(int cursor, int miniBatchSize);
+	
+}
@@ -0,0 +1,153 @@
+package ch.imetrica.mdlfa.dataiterator;
+
+/**
+ * Running mean and variance of a set of columns, accumulated in a
+ * single pass with Welford's algorithm. MDFAFeatureStore.standardize
+ * fits the statistics with fit on the labelled observations of a
+ * training range of its primitive columns, without walking an
+ * iterator, and applies them to the whole store, so the test range is
+ * standardized with the statistics of the training range only.
+ *
+ * Values are standardized to (x - mean) / std with the population
+ * standard deviation. Columns with (near) zero variance are only
+ * centered.
+ *
+ */
+public class MDFAColumnStatistics {
+
+	/* Smallest standard deviation used for scaling, as in NormalizerStandardize */
+	private static final double MIN_STD = 1e-5;
+
+	private final long[] count;
+	private final double[] mean;
+	private final double[] m2;
+
+	/**
+	 * @param nColumns Number of columns
+	 */
+	public MDFAColumnStatistics(int nColumns) {
+
+		this.count = new long[nColumns];
+		this.mean = new double[nColumns];
+		this.m2 = new double[nColumns];
+	}
+
+	/* Restores statistics written to a snapshot */
+	MDFAColumnStatistics(long[] count, double[] mean, double[] m2) {
+
+		this.count = count;
+		this.mean = mean;
+		this.m2 = m2;
+	}
+
+	/**
+	 * Adds one value of a column
+	 *
+	 * @param column Index of the column
+	 * @param value Observed value
+	 */
+	public void add(int column, double value) {
+
+		count[column]++;
+		double delta = value - mean[column];
+		mean[column] += delta / count[column];
+		m2[column] += delta * (value - mean[column]);
+	}
+
+	/**
+	 * Fits the statistics of the given columns on the labelled
+	 * observations in [fromIndex, toIndex)
+	 *
+	 * @param columns Columns of equal length
+	 * @param labelled true if the observation at this index has a label
+	 * @param fromIndex First observation of the range
+	 * @param toIndex End of the range
+	 * @return Statistics of the range, one per column
+	 */
+	public static MDFAColumnStatistics fit(double[][] columns, boolean[] labelled, int fromIndex, int toIndex) {
+
+		MDFAColumnStatistics statistics = new MDFAColumnStatistics(columns.length);
+		for(int k = 0; k < columns.length; k++) {
+
+			double[] column = columns[k];
+			for(int j = fromIndex; j < toIndex; j++) {
+				if(labelled[j]) {
+					statistics.add(k, column[j]);
+				}
+			}
+		}
+		return statistics;
+	}
+
+	/**
+	 * Standardizes the given columns into new columns, leaving the given
+	 * ones unchanged. Observations without a label stay zero, as the
+	 * batch assemblers write them as zeros anyway.
+	 *
+	 * @param columns Columns in the same order as the statistics
+	 * @param labelled true if the observation at this index has a label
+	 * @return The standardized columns
+	 */
+	public double[][] standardize(double[][] columns, boolean[] labelled) {
+
+		double[][] standardized = new double[columns.length][];
+		for(int k = 0; k < columns.length; k++) {
+
+			double m = mean[k];
+			double s = getStd(k);
+			double[] column = columns[k];
+			double[] target = new double[column.length];
+			for(int j = 0; j < column.length; j++) {
+				target[j] = labelled[j] ? (column[j] - m) / s : 0;
+			}
+			standardized[k] = target;
+		}
+		return standardized;
+	}
+
+	/**
+	 * Maps a standardized value back to the original scale,
+	 * for example a predicted regression label
+	 *
+	 * @param column Index of the column
+	 * @param value Standardized value
+	 * @return Value on the original scale
+	 */
+	public double revert(int column, double value) {
+		return value * getStd(column) + mean[column];
+	}
+
+	public int getNumberOfColumns() {
+		return mean.length;
+	}
+
+	public long getCount(int column) {
+		return count[column];
+	}
+
+	public double getMean(int column) {
+		return mean[column];
+	}
+
+	/* Sum of squared deviations from the mean */
+	double getM2(int column) {
+		return m2[column];
+	}
+
+	/**
+	 * @param column Index of the column
+	 * @return Population variance of the column
+	 */
+	public double getVariance(int column) {
+		return count[column] > 0 ? m2[column] / count[column] : 0;
+	}
+
+	/**
+	 * @param column Index of the column
+	 * @return Standard deviation used for scaling, at least MIN_STD
+	 */
+	public double getStd(int column) {
+		return Math.max(Math.sqrt(getVariance(column)), MIN_STD);
+	}
+
+}
@@ -2,19 +2,13 @@ package ch.imetrica.mdlfa.dataiterator;
 
 import java.util.List;
 
-import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.DataSet;
 import org.nd4j.linalg.dataset.api.DataSetPreProcessor;
 import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
-import org.nd4j.linalg.factory.Nd4j;
 
-import ch.imetrica.mdfa.datafeeds.CsvFeed;
 import ch.imetrica.mdfa.mdfa.MDFABase;
 import ch.imetrica.mdfa.series.MultivariateFXSeries;
-import ch.imetrica.mdfa.series.TargetSeries;
 import ch.imetrica.mdfa.series.TimeSeries;
-import ch.imetrica.mdfa.series.TimeSeriesEntry;
-import ch.imetrica.mdlfa.labeling.SymmetricLabelizer;
 import ch.imetrica.mdlfa.util.TimeSeriesFile;
 
 
@@ -28,23 +22,22 @@ import ch.imetrica.mdlfa.util.TimeSeriesFile;
  * @author lisztian
  *
  */
-public class MDFADataSetIterator implements DataSetIterator {
+public class MDFADataSetIterator implements DataSetIterator, MDFABatchSource {
 
 	/**
 	 * 
 	 */
 	private static final long serialVersionUID = 1L;
 
+	private MDFAFeatureStore<int[]> featureStore;
 	private MultivariateFXSeries fxSeries;
 	
 	private int miniBatchSize;
 	private int currentFileListIndex = 0;
 	private int totalExamples = 0;
-	private String[] datasetInputPaths;
 	private TimeSeries<int[]> myLabels;
 	
 	private int timeStepLength;
-	private CsvFeed marketFeed; //;  = new CsvFeed(dataFiles, "Index", "Open");
 	
 	private int numberOfFeatures;
 	private TimeSeriesFile fileInfo;
@@ -53,6 +46,28 @@ public class MDFADataSetIterator implements DataSetIterator {
 
 	private DataSetPreProcessor myPreprocessor;
 	
+	private MDFABatchAssembler batchAssembler;
+	private int fromIndex;
+	private int toIndex;
+	private boolean zeroCopyWindows = false;
+	private MDFABatchBufferPool batchBufferPool;
+	
+	private MDFAWindowSampler windowSampler;
+	private int[] validWindowStarts;
+	private int[] epochWindowStarts;
+	
+	/**
+	 * Instantiates an MDFA DataSet Iterator over all observations 
+	 * of the given csv files. 
+	 * 
+	 * @param dataInputPaths A collection of csv files
+	 * @param fileInfo Metadata info for the files
+	 * @param anyMDFAs A collection of feature extractors
+	 * @param miniBatchSize MiniBatchSize
+	 * @param totalExamples 
+	 * @param timeStepLength Length of the time series
+	 * @throws Exception
+	 */
 	public MDFADataSetIterator(String[] dataInputPaths,
 			                   TimeSeriesFile fileInfo,
 			                   MDFABase[] anyMDFAs,
@@ -60,66 +75,107 @@ public class MDFADataSetIterator implements DataSetIterator {
 			                   int totalExamples, 
 			                   int timeStepLength) throws Exception {
 
+		this(MDFAFeatureStore.buildClassificationStore(dataInputPaths, fileInfo, anyMDFAs), 
+				miniBatchSize, totalExamples, timeStepLength);
 		this.fileInfo = fileInfo;
-		this.datasetInputPaths = dataInputPaths;	
-		
-		this.setMiniBatchSize(miniBatchSize);
-		this.setTotalExamples(totalExamples);
-		this.setAnyMDFAs(anyMDFAs);
-		this.setNumberOfFeatures(anyMDFAs.length);
-		this.setTimeStepLength(timeStepLength);
-		
-		CsvFeed marketFeed = new CsvFeed(datasetInputPaths, 
-				                         fileInfo.getDateTimeIndexName(),
-				                         fileInfo.getPriceColumnName());
-		
-		fxSeries = new MultivariateFXSeries(anyMDFAs, fileInfo.getDateTimeFormat());
-		fxSeries.addSeries(new TargetSeries(1.0, true, "TargetSeries"));
-		fxSeries.setWhiteNoisePrefilters(36);
-		
+	}
+	
+	/**
+	 * Instantiates an MDFA DataSet Iterator over all observations 
+	 * of an existing feature store
+	 * 
+	 * @param featureStore A classification feature store
+	 * @param miniBatchSize MiniBatchSize
+	 * @param totalExamples 
+	 * @param timeStepLength Length of the time series
+	 */
+	public MDFADataSetIterator(MDFAFeatureStore<int[]> featureStore,
+			                   int miniBatchSize, 
+			                   int totalExamples, 
+			                   int timeStepLength) {
 		
-		int initializeLength = anyMDFAs[0].getSeriesLength();
+		this(featureStore, 0, featureStore.getUsableLength(), miniBatchSize, totalExamples, timeStepLength);
+	}
+	
+	/**
+	 * Instantiates an MDFA DataSet Iterator as a view on the 
+	 * observations [fromIndex, toIndex) of an existing feature store. 
+	 * No features or labels are copied, so any number of iterators 
+	 * may share one store. 
+	 * 
+	 * @param featureStore A classification feature store
+	 * @param fromIndex First observation of the view
+	 * @param toIndex End of the view, at most featureStore.getUsableLength()
+	 * @param miniBatchSize MiniBatchSize
+	 * @param totalExamples 
+	 * @param timeStepLength Length of the time series
+	 */
+	public MDFADataSetIterator(MDFAFeatureStore<int[]> featureStore,
+			                   int fromIndex,
+			                   int toIndex,
+			                   int miniBatchSize, 
+			                   int totalExamples, 
+			                   int timeStepLength) {
 		
-        for(int i = 0; i < initializeLength; i++) {
-			
-			TimeSeriesEntry<double[]> observation = marketFeed.getNextMultivariateObservation();
-			fxSeries.addValue(observation.getDateTime(), observation.getValue());
+		if(fromIndex < 0 || toIndex > featureStore.getUsableLength() || fromIndex > toIndex) {
+			throw new IllegalArgumentException("Invalid range [" + fromIndex + ", " + toIndex 
+					+ ") for a store of usable length " + featureStore.getUsableLength());
 		}
-        
-        //fxSeries.computeAllFilterCoefficients();	
-        fxSeries.chopFirstObservations(fxSeries.getSeries(0).getCoefficientSet(0).length);	
-        
-        int symmetricLength = fxSeries.getSeries(0).getCoefficientSet(0).length;
-
-		while(true) {
-			
-			TimeSeriesEntry<double[]> observation = marketFeed.getNextMultivariateObservation();
-			
-			if(observation == null) break;
-			
-			fxSeries.addValue(observation.getDateTime(), observation.getValue());
-			
-		}
-		
-		SymmetricLabelizer labeler = new SymmetricLabelizer(anyMDFAs[0].getLowPassCutoff(), 
-															symmetricLength)
-				                                           .computeSymmetricFilter();
 		
-		setMyLabels(labeler.labelTimeSeriesInt(fxSeries.getSeries(0).getTargetSeries()));
-		fxSeries.chopFirstObservations(symmetricLength);
-	
-		for(int i = 0; i < symmetricLength; i++) {
-			myLabels.remove(0);
-		}
+		this.featureStore = featureStore;
+		this.fxSeries = featureStore.getFXSeries();
+		this.batchAssembler = featureStore.getBatchAssembler();
+		this.fromIndex = fromIndex;
+		this.toIndex = toIndex;
 		
+		this.setMyLabels(featureStore.getLabels());
+		this.setMiniBatchSize(miniBatchSize);
+		this.setTotalExamples(totalExamples);
+		this.setAnyMDFAs(featureStore.getAnyMDFAs());
+		/* every feature column, MDFA features and any indicators */
+		this.setNumberOfFeatures(batchAssembler.getNumberOfFeatureColumns());
+		this.setTimeStepLength(timeStepLength);
 	}
 	
 	
 	
 	@Override
 	public boolean hasNext() {		
-		return currentFileListIndex + miniBatchSize + timeStepLength < 
-				 (fxSeries.size() - anyMDFAs[0].getFilterLength()) ;
+		return hasBatch(currentFileListIndex, miniBatchSize);
+	}
+	
+	@Override
+	public boolean hasBatch(int cursor, int miniBatchSize) {
+		
+		if(windowSampler != null) {
+			return cursor < epochWindowStarts.length;
+		}
+		return fromIndex + cursor + miniBatchSize + timeStepLength < toIndex;
+	}
+	
+	@Override
+	public DataSet batch(int cursor, int miniBatchSize) {
+		if(windowSampler != null) {
+			
+			int count = Math.min(miniBatchSize, epochWindowStarts.length - cursor);
+			int first = epochWindowStarts[cursor];
+			
+			/* a run of consecutive windows is still a single view */
+			if(zeroCopyWindows && MDFAWindowSampler.isConsecutive(epochWindowStarts, cursor, count)) {
+				return featureStore.getWindowEngine().classificationBatch(first, count, timeStepLength);
+			}
+			if(batchBufferPool != null) {
+				return batchBufferPool.classificationBatch(batchAssembler, epochWindowStarts, cursor, count, timeStepLength);
+			}
+			return batchAssembler.classificationBatch(epochWindowStarts, cursor, count, timeStepLength);
+		}
+		if(zeroCopyWindows) {
+			return featureStore.getWindowEngine().classificationBatch(fromIndex + cursor, miniBatchSize, timeStepLength);
+		}
+		if(batchBufferPool != null) {
+			return batchBufferPool.classificationBatch(batchAssembler, fromIndex + cursor, miniBatchSize, timeStepLength);
+		}
+		return batchAssembler.classificationBatch(fromIndex + cursor, miniBatchSize, timeStepLength);
 	}
 
 	@Override
@@ -132,52 +188,12 @@ public class MDFADataSetIterator implements DataSetIterator {
 	public DataSet next(int miniBatchSize) {
 		
 		this.miniBatchSize = miniBatchSize;
-		int index;
-		INDArray input = Nd4j.zeros(new int[]{ miniBatchSize, numberOfFeatures, timeStepLength } );
-		INDArray inputMask = Nd4j.ones( new int[]{ miniBatchSize, timeStepLength } );
-		INDArray labels = Nd4j.zeros(new int[]{ miniBatchSize, 2, timeStepLength } );
-		INDArray labelsMask = Nd4j.zeros(new int[]{ miniBatchSize, timeStepLength } ); // labels are always used
-		
-		
-		for(int i = 0; i < miniBatchSize; i++) {
-			
-		  for(int t = 0; t < timeStepLength; t++) {
-			  
-			  index = currentFileListIndex + i;
-			  double[] features = fxSeries.getSignalValue(index + t);
-			  int[] label = myLabels.get(index + t).getValue();
-		  
-			  if(label != null) {
-				  
-				  for(int k = 0; k < features.length; k++) {
-					  input.putScalar(i, k, t, features[k]);
-				  }
-				  labels.putScalar(new int[]{ i, 0, t }, label[0]);
-				  labels.putScalar(new int[]{ i, 1, t }, label[1]);
-				  
-				  labelsMask.putScalar(new int[]{ i, t }, 0);
-				  
-				  if(t == timeStepLength-1) {
-					  
-					  System.out.println(features[0] + ", " + features[1] + ", " + features[2]   
-							  + ", " + label[0] + ", " + label[1]);    
-							 
-				  }
-				  
-			  }
-			  
-
-		  }
-		  labelsMask.putScalar(new int[]{ i, timeStepLength -1 }, 1);
-		}
-		
+		DataSet batch = batch(currentFileListIndex, miniBatchSize);
 		
 		this.currentFileListIndex += miniBatchSize;
-		
-		
-		return new DataSet( input, labels, inputMask, labelsMask );
+		return batch;
 	}
-
+	
 	@Override
 	public int totalExamples() {
 		return this.totalExamples;
@@ -198,14 +214,21 @@ public class MDFADataSetIterator implements DataSetIterator {
 		return true;
 	}
 
+	/**
+	 * Use MDFAPrefetchIterator for background assembly of the minibatches
+	 */
 	@Override
 	public boolean asyncSupported() {
-		return true;
+		return false;
 	}
 
 	@Override
 	public void reset() {
+		
 		this.currentFileListIndex = 0;
+		if(windowSampler != null) {
+			epochWindowStarts = windowSampler.sampleEpoch(validWindowStarts, totalExamples);
+		}
 	}
 
 	@Override
@@ -257,6 +280,20 @@ public class MDFADataSetIterator implements DataSetIterator {
 		return timeStepLength;
 	}
 
+	/**
+	 * @return First observation of the view on the feature store
+	 */
+	public int getFromIndex() {
+		return fromIndex;
+	}
+
+	/**
+	 * @return End of the view on the feature store
+	 */
+	public int getToIndex() {
+		return toIndex;
+	}
+
 
 
 	public void setTimeStepLength(int timeStepLength) {
@@ -320,6 +357,10 @@ public class MDFADataSetIterator implements DataSetIterator {
 	public MultivariateFXSeries getFXSeries() {
 		return fxSeries;
 	}
+	
+	public MDFAFeatureStore<int[]> getFeatureStore() {
+		return featureStore;
+	}
 
 	public void setMyLabels(TimeSeries<int[]> myLabels) {
 		this.myLabels = myLabels;
@@ -327,6 +368,62 @@ public class MDFADataSetIterator implements DataSetIterator {
 
 
 
+	public boolean isZeroCopyWindows() {
+		return zeroCopyWindows;
+	}
+
+	/**
+	 * Serves the minibatches as read-only views on the 
+	 * MDFAWindowEngine of the feature store instead of copying 
+	 * every window. The views must not be modified in place, so 
+	 * no in-place preprocessor should be applied to them. 
+	 * 
+	 * @param zeroCopyWindows true to use views on the feature store
+	 */
+	public void setZeroCopyWindows(boolean zeroCopyWindows) {
+		this.zeroCopyWindows = zeroCopyWindows;
+	}
+	
+	public MDFABatchBufferPool getBatchBufferPool() {
+		return batchBufferPool;
+	}
+
+	/**
+	 * Assembles the minibatches into the recycled buffers of the
+	 * given pool instead of allocating new arrays for every minibatch.
+	 * A minibatch is then only valid until the pool reuses its buffer.
+	 * Views served by setZeroCopyWindows take precedence. 
+	 * 
+	 * @param batchBufferPool A buffer pool, or null to allocate every minibatch
+	 */
+	public void setBatchBufferPool(MDFABatchBufferPool batchBufferPool) {
+		this.batchBufferPool = batchBufferPool;
+	}
+	
+	public MDFAWindowSampler getWindowSampler() {
+		return windowSampler;
+	}
+
+	/**
+	 * Samples the windows of this iterator with the given sampler 
+	 * instead of walking every window in order. The index of valid 
+	 * windows is built here, for the current timeStepLength, and every 
+	 * epoch draws at most totalExamples windows from it. The last 
+	 * minibatch of an epoch may be smaller than miniBatchSize. 
+	 * 
+	 * @param windowSampler A window sampler, or null to walk all windows in order
+	 */
+	public void setWindowSampler(MDFAWindowSampler windowSampler) {
+		
+		this.windowSampler = windowSampler;
+		this.currentFileListIndex = 0;
+		if(windowSampler != null) {
+			validWindowStarts = windowSampler.indexValidWindows(batchAssembler.getLabelled(), 
+					fromIndex, toIndex, timeStepLength);
+			epochWindowStarts = windowSampler.sampleEpoch(validWindowStarts, totalExamples);
+		}
+	}
+	
 	public DataSetPreProcessor getMyPreprocessor() {
 		return myPreprocessor;
 	}
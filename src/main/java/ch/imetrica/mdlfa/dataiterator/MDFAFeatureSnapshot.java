@@ -0,0 +1,454 @@
+package ch.imetrica.mdlfa.dataiterator;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import ch.imetrica.mdfa.mdfa.MDFABase;
+import ch.imetrica.mdlfa.features.MDFAFilterBank;
+import ch.imetrica.mdlfa.features.TALibFeatureStage;
+import ch.imetrica.mdlfa.util.TimeSeriesFile;
+
+/**
+ * Cache of built feature stores as binary snapshot files.
+ *
+ * Building a store means parsing the csv files, solving the MDFA
+ * filters and labeling the target series. A snapshot holds the
+ * result: the primitive feature and label columns, the timestamps,
+ * the labelled flags and, for a standardized store, the column
+ * statistics. Each snapshot is
+ * named after a SHA-256 key over the contents of the csv files, the
+ * TimeSeriesFile metadata, the weight and white-noise prefilters of
+ * the target series, every MDFABase parameter and the names of any
+ * TA-Lib indicators, so a change to any of them builds and writes a
+ * new snapshot. The name of an indicator holds its parameters, as for
+ * TALibFeatureStage.rsi(14), and must be unique for custom indicators.
+ *
+ * Snapshots are written and read through memory-mapped files, with
+ * every column mapped on its own, so only a single column and not the
+ * whole store is limited by the 2 GB of a MappedByteBuffer. Reading is
+ * not zero copy: the assemblers work on double[] columns, so every
+ * column is one bulk copy from its mapping into a heap array, with no
+ * parsing and no per-value decoding. A store read from a snapshot has
+ * no MultivariateFXSeries and no label TimeSeries, which the iterators
+ * do not need.
+ *
+ * <code>new MDFAFeatureSnapshot("target/mdfa-snapshots").regressionStore(files, fileInfo, anyMDFAs)</code>
+ *
+ */
+public class MDFAFeatureSnapshot {
+
+	private static final int MAGIC = 0x4D444641;
+
+	/* Change whenever the layout or the way stores are built changes */
+	private static final int VERSION = 3;
+
+	private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+	private final File directory;
+
+	/**
+	 * @param directory Directory holding the snapshot files, created when needed
+	 */
+	public MDFAFeatureSnapshot(String directory) {
+		this.directory = new File(directory);
+	}
+
+	/**
+	 * Reads the classification store of the given files and feature
+	 * extractors from its snapshot, or builds it and writes the snapshot
+	 *
+	 * @param dataInputPaths A collection of csv files
+	 * @param fileInfo Metadata info for the files
+	 * @param anyMDFAs A collection of feature extractors
+	 * @return The classification store
+	 * @throws Exception
+	 */
+	public MDFAFeatureStore<int[]> classificationStore(String[] dataInputPaths,
+			                                           TimeSeriesFile fileInfo,
+			                                           MDFABase[] anyMDFAs) throws Exception {
+		return classificationStore(dataInputPaths, fileInfo, anyMDFAs, null);
+	}
+
+	/**
+	 * Reads the classification store of the given files, feature
+	 * extractors and TA-Lib indicators from its snapshot, or builds it
+	 * and writes the snapshot
+	 *
+	 * @param dataInputPaths A collection of csv files
+	 * @param fileInfo Metadata info for the files
+	 * @param anyMDFAs A collection of feature extractors
+	 * @param indicators Indicator stage, or null for MDFA features only
+	 * @return The classification store
+	 * @throws Exception
+	 */
+	public MDFAFeatureStore<int[]> classificationStore(String[] dataInputPaths,
+			                                           TimeSeriesFile fileInfo,
+			                                           MDFABase[] anyMDFAs,
+			                                           TALibFeatureStage indicators) throws Exception {
+
+		File file = snapshotFile("classification", dataInputPaths, fileInfo, anyMDFAs, 
+				MDFAFeatureStore.CLASSIFICATION_TARGET_WEIGHT, indicators);
+		if(file.isFile()) {
+			return read(file, anyMDFAs);
+		}
+
+		MDFAFeatureStore<int[]> store = MDFAFeatureStore.buildClassificationStore(dataInputPaths, fileInfo, anyMDFAs, 
+				indicators);
+		write(store, file);
+		return store;
+	}
+
+	/**
+	 * Reads the regression store of the given files and feature
+	 * extractors from its snapshot, or builds it and writes the snapshot
+	 *
+	 * @param dataInputPaths A collection of csv files
+	 * @param fileInfo Metadata info for the files
+	 * @param anyMDFAs A collection of feature extractors
+	 * @return The regression store
+	 * @throws Exception
+	 */
+	public MDFAFeatureStore<Double> regressionStore(String[] dataInputPaths,
+			                                        TimeSeriesFile fileInfo,
+			                                        MDFABase[] anyMDFAs) throws Exception {
+		return regressionStore(dataInputPaths, fileInfo, anyMDFAs, null);
+	}
+
+	/**
+	 * Reads the regression store of the given files, feature extractors
+	 * and TA-Lib indicators from its snapshot, or builds it and writes
+	 * the snapshot
+	 *
+	 * @param dataInputPaths A collection of csv files
+	 * @param fileInfo Metadata info for the files
+	 * @param anyMDFAs A collection of feature extractors
+	 * @param indicators Indicator stage, or null for MDFA features only
+	 * @return The regression store
+	 * @throws Exception
+	 */
+	public MDFAFeatureStore<Double> regressionStore(String[] dataInputPaths,
+			                                        TimeSeriesFile fileInfo,
+			                                        MDFABase[] anyMDFAs,
+			                                        TALibFeatureStage indicators) throws Exception {
+
+		File file = snapshotFile("regression", dataInputPaths, fileInfo, anyMDFAs, 
+				MDFAFeatureStore.REGRESSION_TARGET_WEIGHT, indicators);
+		if(file.isFile()) {
+			return read(file, anyMDFAs);
+		}
+
+		MDFAFeatureStore<Double> store = MDFAFeatureStore.buildRegressionStore(dataInputPaths, fileInfo, anyMDFAs, 
+				null, indicators);
+		write(store, file);
+		return store;
+	}
+
+	private File snapshotFile(String kind, String[] dataInputPaths, TimeSeriesFile fileInfo, 
+			                  MDFABase[] anyMDFAs, double targetWeight, TALibFeatureStage indicators) throws IOException {
+		return new File(directory, kind + "-" + cacheKey(kind, dataInputPaths, fileInfo, anyMDFAs,
+				targetWeight, MDFAFilterBank.WHITE_NOISE_PREFILTERS, indicators) + ".mdfa");
+	}
+
+	/**
+	 * Computes the key of a store as a SHA-256 hash over the kind of
+	 * store, the contents of the csv files, the file metadata, the
+	 * settings of the target series, the parameters of every feature
+	 * extractor and the names of the indicators, in the order of their
+	 * columns
+	 *
+	 * @param kind Kind of store, for example "regression"
+	 * @param dataInputPaths A collection of csv files
+	 * @param fileInfo Metadata info for the files
+	 * @param anyMDFAs A collection of feature extractors
+	 * @param targetWeight Weight of the target series
+	 * @param whiteNoisePrefilters Number of white-noise prefilters of the series
+	 * @param indicators Indicator stage, or null for MDFA features only
+	 * @return Hexadecimal key
+	 * @throws IOException If a csv file can not be read
+	 */
+	public static String cacheKey(String kind, String[] dataInputPaths, TimeSeriesFile fileInfo, 
+			                      MDFABase[] anyMDFAs, double targetWeight, int whiteNoisePrefilters,
+			                      TALibFeatureStage indicators) throws IOException {
+
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+
+		update(digest, kind + "/" + VERSION);
+
+		byte[] chunk = new byte[1 << 16];
+		for(String path : dataInputPaths) {
+
+			try(InputStream in = new FileInputStream(path)) {
+				int read;
+				while((read = in.read(chunk)) > 0) {
+					digest.update(chunk, 0, read);
+				}
+			}
+			update(digest, "/");
+		}
+
+		update(digest, fileInfo.getDateTimeFormat() + "/" + fileInfo.getDateTimeIndexName()
+				+ "/" + fileInfo.getPriceColumnName());
+		update(digest, targetWeight + "/" + whiteNoisePrefilters);
+
+		for(MDFABase mdfa : anyMDFAs) {
+
+			update(digest, mdfa.getLowPassCutoff() + "/" + mdfa.getBandPassCutoff()
+				+ "/" + mdfa.getSmooth() + "/" + mdfa.getDecayStart() + "/" + mdfa.getDecayStrength()
+				+ "/" + mdfa.getLag() + "/" + mdfa.getLambda() + "/" + mdfa.getAlpha()
+				+ "/" + mdfa.getHybridForecast() + "/" + mdfa.getI1()
+				+ "/" + mdfa.getSeriesLength() + "/" + mdfa.getFilterLength());
+		}
+
+		if(indicators != null) {
+			for(TALibFeatureStage.Indicator indicator : indicators.getIndicators()) {
+				update(digest, "/" + indicator.getName() + "/" + indicator.getNumberOfOutputs());
+			}
+		}
+
+		StringBuilder key = new StringBuilder();
+		for(byte b : digest.digest()) {
+			key.append(String.format("%02x", b));
+		}
+		return key.toString();
+	}
+
+	private static void update(MessageDigest digest, String value) {
+		digest.update(value.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Writes a store to a snapshot file. The file is written under a
+	 * temporary name and then moved into place, so a concurrent reader
+	 * never sees a partial snapshot.
+	 *
+	 * @param store A feature store
+	 * @param file Snapshot file
+	 * @throws IOException
+	 */
+	public static void write(MDFAFeatureStore<?> store, File file) throws IOException {
+
+		MDFABatchAssembler assembler = store.getBatchAssembler();
+		double[][] featureColumns = assembler.getFeatureColumns();
+		double[][] labelColumns = assembler.getLabelColumns();
+		boolean[] labelled = assembler.getLabelled();
+		MDFAColumnStatistics featureStatistics = store.getFeatureStatistics();
+		MDFAColumnStatistics labelStatistics = store.getLabelStatistics();
+
+		int n = assembler.size();
+		int nFeatures = featureColumns.length;
+		int nOutcomes = labelColumns.length;
+
+		TimeSeriesFile fileInfo = store.getFileInfo();
+		byte[][] fileInfoStrings = {
+				fileInfo.getDateTimeFormat().getBytes(StandardCharsets.UTF_8),
+				fileInfo.getDateTimeIndexName().getBytes(StandardCharsets.UTF_8),
+				fileInfo.getPriceColumnName().getBytes(StandardCharsets.UTF_8) };
+
+		boolean regression = store.isRegression();
+		boolean standardized = store.isStandardized();
+		long columnsOffset = columnsOffset(nFeatures, nOutcomes, regression, standardized);
+		long tailLength = n;
+		for(byte[] string : fileInfoStrings) {
+			tailLength += 4 + string.length;
+		}
+
+		File parent = file.getAbsoluteFile().getParentFile();
+		if(!parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("Could not create " + parent);
+		}
+		File temporary = File.createTempFile(file.getName(), ".tmp", parent);
+
+		try(RandomAccessFile out = new RandomAccessFile(temporary, "rw")) {
+
+			FileChannel channel = out.getChannel();
+			MappedByteBuffer header = map(channel, FileChannel.MapMode.READ_WRITE, 0, columnsOffset);
+
+			header.putInt(MAGIC);
+			header.putInt(VERSION);
+			header.putInt(n);
+			header.putInt(store.size());
+			header.putInt(store.getUsableLength());
+			header.putInt(nFeatures);
+			header.putInt(nOutcomes);
+			header.putInt(regression ? 1 : 0);
+			header.putInt(standardized ? 1 : 0);
+
+			if(standardized) {
+				putStatistics(header, featureStatistics);
+				if(regression) {
+					putStatistics(header, labelStatistics);
+				}
+			}
+			header.force();
+
+			long position = columnsOffset;
+			for(double[] column : featureColumns) {
+				position = putColumn(channel, position, column);
+			}
+			for(double[] column : labelColumns) {
+				position = putColumn(channel, position, column);
+			}
+			MappedByteBuffer timestamps = map(channel, FileChannel.MapMode.READ_WRITE, position, 8L * n);
+			timestamps.asLongBuffer().put(store.getTimestamps());
+			timestamps.force();
+			position += 8L * n;
+
+			MappedByteBuffer tail = map(channel, FileChannel.MapMode.READ_WRITE, position, tailLength);
+			for(int j = 0; j < n; j++) {
+				tail.put((byte)(labelled[j] ? 1 : 0));
+			}
+			for(byte[] string : fileInfoStrings) {
+				tail.putInt(string.length);
+				tail.put(string);
+			}
+			tail.force();
+		}
+
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Reads a store from a snapshot file
+	 *
+	 * @param file Snapshot file
+	 * @param anyMDFAs The feature extractors the snapshot was built with
+	 * @return A feature store without series
+	 * @throws IOException If the file is not a valid snapshot
+	 */
+	public static <L> MDFAFeatureStore<L> read(File file, MDFABase[] anyMDFAs) throws IOException {
+
+		try(RandomAccessFile in = new RandomAccessFile(file, "r")) {
+
+			FileChannel channel = in.getChannel();
+			MappedByteBuffer header = map(channel, FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), 9 * 4));
+
+			if(header.remaining() < 9 * 4 || header.getInt() != MAGIC || header.getInt() != VERSION) {
+				throw new IOException(file + " is not a snapshot of this version");
+			}
+
+			int n = header.getInt();
+			int size = header.getInt();
+			int usableLength = header.getInt();
+			int nFeatures = header.getInt();
+			int nOutcomes = header.getInt();
+			boolean regression = header.getInt() == 1;
+			boolean standardized = header.getInt() == 1;
+
+			long columnsOffset = columnsOffset(nFeatures, nOutcomes, regression, standardized);
+			MDFAColumnStatistics featureStatistics = null;
+			MDFAColumnStatistics labelStatistics = null;
+			if(standardized) {
+				MappedByteBuffer statistics = map(channel, FileChannel.MapMode.READ_ONLY, 9 * 4, columnsOffset - 9 * 4);
+				featureStatistics = getStatistics(statistics, nFeatures);
+				labelStatistics = regression ? getStatistics(statistics, nOutcomes) : null;
+			}
+
+			long position = columnsOffset;
+			double[][] featureColumns = new double[nFeatures][n];
+			double[][] labelColumns = new double[nOutcomes][n];
+			for(double[] column : featureColumns) {
+				position = getColumn(channel, position, column);
+			}
+			for(double[] column : labelColumns) {
+				position = getColumn(channel, position, column);
+			}
+			long[] timestamps = new long[n];
+			map(channel, FileChannel.MapMode.READ_ONLY, position, 8L * n).asLongBuffer().get(timestamps);
+			position += 8L * n;
+
+			MappedByteBuffer tail = map(channel, FileChannel.MapMode.READ_ONLY, position, channel.size() - position);
+			boolean[] labelled = new boolean[n];
+			for(int j = 0; j < n; j++) {
+				labelled[j] = tail.get() == 1;
+			}
+
+			String[] fileInfoStrings = new String[3];
+			for(int i = 0; i < fileInfoStrings.length; i++) {
+				byte[] string = new byte[tail.getInt()];
+				tail.get(string);
+				fileInfoStrings[i] = new String(string, StandardCharsets.UTF_8);
+			}
+			TimeSeriesFile fileInfo = new TimeSeriesFile(fileInfoStrings[0], fileInfoStrings[1], fileInfoStrings[2]);
+
+			return MDFAFeatureStore.fromColumns(anyMDFAs,
+					new MDFABatchAssembler(featureColumns, labelColumns, labelled),
+					timestamps, fileInfo, size, usableLength, regression, featureStatistics, labelStatistics);
+		}
+	}
+
+	/* A region of the file in the byte order of the snapshots */
+	private static MappedByteBuffer map(FileChannel channel, FileChannel.MapMode mode, 
+			                            long position, long size) throws IOException {
+
+		MappedByteBuffer buffer = channel.map(mode, position, size);
+		buffer.order(ORDER);
+		return buffer;
+	}
+
+	/* Writes a column through its own mapping and returns the position after it */
+	private static long putColumn(FileChannel channel, long position, double[] column) throws IOException {
+
+		MappedByteBuffer buffer = map(channel, FileChannel.MapMode.READ_WRITE, position, 8L * column.length);
+		buffer.asDoubleBuffer().put(column);
+		buffer.force();
+		return position + 8L * column.length;
+	}
+
+	/* Reads a column through its own mapping and returns the position after it */
+	private static long getColumn(FileChannel channel, long position, double[] column) throws IOException {
+
+		map(channel, FileChannel.MapMode.READ_ONLY, position, 8L * column.length).asDoubleBuffer().get(column);
+		return position + 8L * column.length;
+	}
+
+	/* Header and statistics, padded so the columns start on an 8 byte boundary */
+	private static long columnsOffset(int nFeatures, int nOutcomes, boolean regression, boolean standardized) {
+
+		long header = 9 * 4 + (standardized ? 24L * (nFeatures + (regression ? nOutcomes : 0)) : 0);
+		return (header + 7) / 8 * 8;
+	}
+
+	private static void putStatistics(MappedByteBuffer buffer, MDFAColumnStatistics statistics) {
+
+		for(int k = 0; k < statistics.getNumberOfColumns(); k++) {
+			buffer.putLong(statistics.getCount(k));
+			buffer.putDouble(statistics.getMean(k));
+			buffer.putDouble(statistics.getM2(k));
+		}
+	}
+
+	private static MDFAColumnStatistics getStatistics(MappedByteBuffer buffer, int nColumns) {
+
+		long[] count = new long[nColumns];
+		double[] mean = new double[nColumns];
+		double[] m2 = new double[nColumns];
+		for(int k = 0; k < nColumns; k++) {
+			count[k] = buffer.getLong();
+			mean[k] = buffer.getDouble();
+			m2[k] = buffer.getDouble();
+		}
+		return new MDFAColumnStatistics(count, mean, m2);
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+}
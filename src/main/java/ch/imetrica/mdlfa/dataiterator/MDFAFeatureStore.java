@@ -0,0 +1,733 @@
+package ch.imetrica.mdlfa.dataiterator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import ch.imetrica.mdfa.datafeeds.CsvFeed;
+import ch.imetrica.mdfa.mdfa.MDFABase;
+import ch.imetrica.mdfa.series.MultivariateFXSeries;
+import ch.imetrica.mdfa.series.TargetSeries;
+import ch.imetrica.mdfa.series.TimeSeries;
+import ch.imetrica.mdfa.series.TimeSeriesEntry;
+import ch.imetrica.mdlfa.features.MDFAFilterBank;
+import ch.imetrica.mdlfa.features.TALibFeatureStage;
+import ch.imetrica.mdlfa.labeling.SymmetricLabelizer;
+import ch.imetrica.mdlfa.util.MDFATasks;
+import ch.imetrica.mdlfa.util.TimeSeriesFile;
+
+/**
+ * Store of the MDFA features and symmetric labels of a
+ * collection of csv files. The csv files are read, filtered by the
+ * MDFABase feature extractors and labeled exactly once, after which
+ * any number of iterators can be created as index-range views on
+ * the same store, for example a training and a test iterator.
+ *
+ * Two kinds of stores exist, mirroring the two MDFA iterators:
+ * a classification store with one-hot trend labels for the
+ * MDFADataSetIterator and a regression store with the symmetric
+ * signal as label and the target series as first feature for the
+ * MDFARegressionDataSetIterator.
+ *
+ * The store is never modified. standardize returns a copy whose
+ * columns are standardized with the statistics of a training range,
+ * which leaves the store itself free for other ranges and folds.
+ *
+ * @param <L> Value type of the labels, int[] for classification and
+ * Double for regression
+ */
+public class MDFAFeatureStore<L> {
+
+	/* Weight of the target series of a classification store */
+	public static final double CLASSIFICATION_TARGET_WEIGHT = 1.0;
+
+	/* Weight of the target series of a regression store */
+	public static final double REGRESSION_TARGET_WEIGHT = 0.7;
+
+	private final MultivariateFXSeries fxSeries;
+	private final TimeSeries<L> labels;
+	private final MDFABase[] anyMDFAs;
+	private final MDFABatchAssembler batchAssembler;
+	private final long[] timestamps;
+	private final TimeSeriesFile fileInfo;
+	private final int size;
+	private final int usableLength;
+	private final boolean regression;
+	private final MDFAColumnStatistics featureStatistics;
+	private final MDFAColumnStatistics labelStatistics;
+	private MDFAWindowEngine windowEngine;
+
+	private MDFAFeatureStore(MultivariateFXSeries fxSeries,
+			                 TimeSeries<L> labels,
+			                 MDFABase[] anyMDFAs,
+			                 MDFABatchAssembler batchAssembler,
+			                 long[] timestamps,
+			                 TimeSeriesFile fileInfo,
+			                 int size,
+			                 int usableLength,
+			                 boolean regression,
+			                 MDFAColumnStatistics featureStatistics,
+			                 MDFAColumnStatistics labelStatistics) {
+
+		this.fxSeries = fxSeries;
+		this.labels = labels;
+		this.anyMDFAs = anyMDFAs;
+		this.batchAssembler = batchAssembler;
+		this.timestamps = timestamps;
+		this.fileInfo = fileInfo;
+		this.size = size;
+		this.usableLength = usableLength;
+		this.regression = regression;
+		this.featureStatistics = featureStatistics;
+		this.labelStatistics = labelStatistics;
+	}
+
+	/**
+	 * Builds the store for trend classification, where each
+	 * observation is labeled with a one-hot vector (1, 0) for an
+	 * uptrend and (0, 1) for a downtrend of the symmetric signal.
+	 *
+	 * @param dataInputPaths A collection of csv files
+	 * @param fileInfo Metadata info for the files
+	 * @param anyMDFAs A collection of feature extractors
+	 * @return A new store
+	 * @throws Exception
+	 */
+	public static MDFAFeatureStore<int[]> buildClassificationStore(String[] dataInputPaths,
+			                                                       TimeSeriesFile fileInfo,
+			                                                       MDFABase[] anyMDFAs) throws Exception {
+		return buildClassificationStore(dataInputPaths, fileInfo, anyMDFAs, null);
+	}
+
+	/**
+	 * Builds the store for trend classification like
+	 * buildClassificationStore, with the outputs of a TA-Lib indicator
+	 * stage as further feature columns after the MDFA features. A task
+	 * on the common pool reads the price column of the csv files and
+	 * computes the indicators over all prices, while the feature
+	 * extractors are solved and applied. The indicator values are then
+	 * aligned with the observations of the store by date.
+	 *
+	 * @param dataInputPaths A collection of csv files
+	 * @param fileInfo Metadata info for the files
+	 * @param anyMDFAs A collection of feature extractors
+	 * @param indicators Indicator stage, or null for MDFA features only
+	 * @return A new store
+	 * @throws Exception
+	 */
+	public static MDFAFeatureStore<int[]> buildClassificationStore(String[] dataInputPaths,
+			                                                       TimeSeriesFile fileInfo,
+			                                                       MDFABase[] anyMDFAs,
+			                                                       TALibFeatureStage indicators) throws Exception {
+
+		Future<IndicatorHistory> indicatorHistory = null;
+		if(indicators != null) {
+			indicatorHistory = ForkJoinPool.commonPool().submit(readIndicators(dataInputPaths, fileInfo, indicators));
+		}
+
+		MultivariateFXSeries fxSeries = readSeries(dataInputPaths, fileInfo, anyMDFAs, CLASSIFICATION_TARGET_WEIGHT, false);
+		int symmetricLength = fxSeries.getSeries(0).getCoefficientSet(0).length;
+
+		SymmetricLabelizer labeler = new SymmetricLabelizer(anyMDFAs[0].getLowPassCutoff(),
+															symmetricLength)
+				                                           .computeSymmetricFilter();
+
+		TimeSeries<int[]> labels = labeler.labelTimeSeriesInt(fxSeries.getSeries(0).getTargetSeries());
+		chopSymmetricBurnIn(fxSeries, labels, symmetricLength);
+
+		int nFeatures = anyMDFAs.length;
+		int nIndicators = (indicators != null) ? indicators.getNumberOfFeatures() : 0;
+		int n = Math.min(fxSeries.size(), labels.size());
+		double[][] featureColumns = new double[nFeatures + nIndicators][n];
+		double[][] labelColumns = new double[2][n];
+		boolean[] labelled = new boolean[n];
+		long[] timestamps = alignTimestamps(fxSeries, labels, n, fileInfo);
+
+		for(int j = 0; j < n; j++) {
+
+			int[] label = labels.get(j).getValue();
+			if(label != null) {
+
+				double[] features = fxSeries.getSignalValue(j);
+				for(int k = 0; k < nFeatures; k++) {
+					featureColumns[k][j] = features[k];
+				}
+				labelColumns[0][j] = label[0];
+				labelColumns[1][j] = label[1];
+				labelled[j] = true;
+			}
+		}
+
+		if(indicators != null) {
+			putIndicators(MDFATasks.get(indicatorHistory), featureColumns, nFeatures, labelled, timestamps, fileInfo);
+		}
+
+		return new MDFAFeatureStore<int[]>(fxSeries, labels, anyMDFAs,
+				new MDFABatchAssembler(featureColumns, labelColumns, labelled),
+				timestamps, fileInfo, fxSeries.size(),
+				fxSeries.size() - anyMDFAs[0].getFilterLength(),
+				false, null, null);
+	}
+
+	/**
+	 * Builds one classification store per symbol in parallel on the
+	 * given pool. Each csv file is read, filtered and labeled
+	 * independently, so the build scales with the number of cores.
+	 * The feature extractors are shared by all tasks and only read.
+	 *
+	 * @param symbolPaths One csv file per symbol
+	 * @param fileInfo Metadata info for the files, the same for all symbols
+	 * @param anyMDFAs A collection of feature extractors
+	 * @param pool Pool running the builds, for example ForkJoinPool.commonPool()
+	 * @return The stores in the order of symbolPaths
+	 * @throws Exception The first failure of any build
+	 */
+	public static List<MDFAFeatureStore<int[]>> buildClassificationStores(String[] symbolPaths,
+			                                                              final TimeSeriesFile fileInfo,
+			                                                              final MDFABase[] anyMDFAs,
+			                                                              ForkJoinPool pool) throws Exception {
+
+		List<Callable<MDFAFeatureStore<int[]>>> builds = new ArrayList<Callable<MDFAFeatureStore<int[]>>>();
+		for(final String path : symbolPaths) {
+
+			builds.add(new Callable<MDFAFeatureStore<int[]>>() {
+
+				@Override
+				public MDFAFeatureStore<int[]> call() throws Exception {
+					return buildClassificationStore(new String[]{ path }, fileInfo, anyMDFAs);
+				}
+			});
+		}
+
+		return MDFATasks.invokeAll(pool, builds);
+	}
+
+	/**
+	 * Builds the store for regression on the symmetric signal, where
+	 * the first feature is the target series itself followed by
+	 * the MDFA features
+	 *
+	 * @param dataInputPaths A collection of csv files
+	 * @param fileInfo Metadata info for the files
+	 * @param anyMDFAs A collection of feature extractors
+	 * @return A new store
+	 * @throws Exception
+	 */
+	public static MDFAFeatureStore<Double> buildRegressionStore(String[] dataInputPaths,
+			                                                    TimeSeriesFile fileInfo,
+			                                                    MDFABase[] anyMDFAs) throws Exception {
+		return buildRegressionStore(dataInputPaths, fileInfo, anyMDFAs, null);
+	}
+
+	/**
+	 * Builds the store for regression like buildRegressionStore, with
+	 * the filter coefficients of all feature extractors solved and
+	 * applied concurrently by an MDFAFilterBank on the given pool
+	 *
+	 * @param dataInputPaths A collection of csv files
+	 * @param fileInfo Metadata info for the files
+	 * @param anyMDFAs A collection of feature extractors
+	 * @param bankPool Bounded pool of the filter bank, or null to solve the extractors one after another
+	 * @return A new store
+	 * @throws Exception
+	 */
+	public static MDFAFeatureStore<Double> buildRegressionStore(String[] dataInputPaths,
+			                                                    TimeSeriesFile fileInfo,
+			                                                    MDFABase[] anyMDFAs,
+			                                                    ExecutorService bankPool) throws Exception {
+		return buildRegressionStore(dataInputPaths, fileInfo, anyMDFAs, bankPool, null);
+	}
+
+	/**
+	 * Builds the store for regression like buildRegressionStore, with
+	 * the outputs of a TA-Lib indicator stage as further feature
+	 * columns after the MDFA features. A task on the bank pool, or the
+	 * common pool without a bank pool, reads the price column of the
+	 * csv files and computes the indicators over all prices, while the
+	 * feature extractors are solved and applied. The indicator values
+	 * are then aligned with the observations of the store by date.
+	 *
+	 * The csv files hold one price column, so only indicators on close
+	 * prices are available.
+	 *
+	 * @param dataInputPaths A collection of csv files
+	 * @param fileInfo Metadata info for the files
+	 * @param anyMDFAs A collection of feature extractors
+	 * @param bankPool Bounded pool of the filter bank, or null to solve the extractors one after another
+	 * @param indicators Indicator stage, or null for MDFA features only
+	 * @return A new store
+	 * @throws Exception
+	 */
+	public static MDFAFeatureStore<Double> buildRegressionStore(String[] dataInputPaths,
+			                                                    TimeSeriesFile fileInfo,
+			                                                    MDFABase[] anyMDFAs,
+			                                                    ExecutorService bankPool,
+			                                                    TALibFeatureStage indicators) throws Exception {
+
+		Future<IndicatorHistory> indicatorHistory = null;
+		if(indicators != null) {
+			ExecutorService indicatorPool = (bankPool != null) ? bankPool : ForkJoinPool.commonPool();
+			indicatorHistory = indicatorPool.submit(readIndicators(dataInputPaths, fileInfo, indicators));
+		}
+
+		MDFAFilterBank bank = null;
+		MultivariateFXSeries fxSeries;
+		if(bankPool != null) {
+			bank = readFilterBank(dataInputPaths, fileInfo, anyMDFAs, REGRESSION_TARGET_WEIGHT, bankPool);
+			fxSeries = bank.getFilteredSeries(0);
+		}
+		else {
+			fxSeries = readSeries(dataInputPaths, fileInfo, anyMDFAs, REGRESSION_TARGET_WEIGHT, true);
+		}
+		int symmetricLength = fxSeries.getSeries(0).getCoefficientSet(0).length;
+
+		SymmetricLabelizer labeler = new SymmetricLabelizer(anyMDFAs[0].getLowPassCutoff(),
+															symmetricLength)
+				                                           .computeSymmetricFilter();
+
+		TimeSeries<Double> labels = labeler.getSymmetricSignal(fxSeries.getSeries(0).getTargetSeries());
+		if(bank != null) {
+			bank.chopFirstObservations(symmetricLength);
+			chopSymmetricBurnIn(null, labels, symmetricLength);
+		}
+		else {
+			chopSymmetricBurnIn(fxSeries, labels, symmetricLength);
+		}
+
+		int nFeatures = anyMDFAs.length;
+		int nIndicators = (indicators != null) ? indicators.getNumberOfFeatures() : 0;
+		int n = Math.min(fxSeries.size(), labels.size());
+		double[][] featureColumns = new double[nFeatures + 1 + nIndicators][n];
+		double[][] labelColumns = new double[1][n];
+		boolean[] labelled = new boolean[n];
+		long[] timestamps = alignTimestamps(fxSeries, labels, n, fileInfo);
+		double[] bankFeatures = new double[nFeatures];
+
+		for(int j = 0; j < n; j++) {
+
+			Double label = labels.get(j).getValue();
+			if(label != null) {
+
+				double[] features = (bank != null) ? bank.getSignalValue(j, bankFeatures) : fxSeries.getSignalValue(j);
+				featureColumns[0][j] = fxSeries.getTargetValue(j);
+				for(int k = 0; k < nFeatures; k++) {
+					featureColumns[k + 1][j] = features[k];
+				}
+				labelColumns[0][j] = label.doubleValue();
+				labelled[j] = true;
+			}
+		}
+
+		if(indicators != null) {
+			putIndicators(MDFATasks.get(indicatorHistory), featureColumns, nFeatures + 1, labelled, timestamps, fileInfo);
+		}
+
+		return new MDFAFeatureStore<Double>(fxSeries, labels, anyMDFAs,
+				new MDFABatchAssembler(featureColumns, labelColumns, labelled),
+				timestamps, fileInfo, fxSeries.size(),
+				fxSeries.size() - symmetricLength,
+				true, null, null);
+	}
+
+	/* Indicator outputs over all prices of the csv files */
+	private static final class IndicatorHistory {
+
+		private final long[] timestamps;
+		private final double[][] columns;
+
+		private IndicatorHistory(long[] timestamps, double[][] columns) {
+			this.timestamps = timestamps;
+			this.columns = columns;
+		}
+
+		/* Index of the first of the given timestamps, checking that all follow in order */
+		private int indexOf(long[] observations, TimeSeriesFile fileInfo) {
+
+			int offset = 0;
+			if(observations.length > 0) {
+				while(offset < timestamps.length && timestamps[offset] != observations[0]) {
+					offset++;
+				}
+			}
+			for(int j = 0; j < observations.length; j++) {
+				if(offset + j >= timestamps.length || timestamps[offset + j] != observations[j]) {
+					throw new IllegalStateException("No price for the observation at "
+							+ fileInfo.formatEpochMillis(observations[j]));
+				}
+			}
+			return offset;
+		}
+	}
+
+	/**
+	 * Copies the indicator outputs at the observations of a store into
+	 * the feature columns from firstColumn on. Like the MDFA features,
+	 * indicators are only kept on labelled observations.
+	 */
+	private static void putIndicators(IndicatorHistory history, double[][] featureColumns, int firstColumn,
+			                          boolean[] labelled, long[] timestamps, TimeSeriesFile fileInfo) {
+
+		int offset = history.indexOf(timestamps, fileInfo);
+		for(int k = 0; k < history.columns.length; k++) {
+
+			double[] column = featureColumns[firstColumn + k];
+			for(int j = 0; j < timestamps.length; j++) {
+
+				if(labelled[j]) {
+					column[j] = history.columns[k][offset + j];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the price column of the csv files and computes the
+	 * indicators over all prices, independently of the MDFA series
+	 */
+	private static Callable<IndicatorHistory> readIndicators(final String[] dataInputPaths,
+			                                                 final TimeSeriesFile fileInfo,
+			                                                 final TALibFeatureStage indicators) {
+
+		return new Callable<IndicatorHistory>() {
+
+			@Override
+			public IndicatorHistory call() throws Exception {
+
+				CsvFeed priceFeed = new CsvFeed(dataInputPaths,
+						                        fileInfo.getDateTimeIndexName(),
+						                        fileInfo.getPriceColumnName());
+
+				List<TimeSeriesEntry<double[]>> observations = new ArrayList<TimeSeriesEntry<double[]>>();
+				while(true) {
+
+					TimeSeriesEntry<double[]> observation = priceFeed.getNextMultivariateObservation();
+					if(observation == null) break;
+					observations.add(observation);
+				}
+
+				long[] timestamps = new long[observations.size()];
+				double[] close = new double[observations.size()];
+				for(int i = 0; i < close.length; i++) {
+					timestamps[i] = fileInfo.toEpochMillis(observations.get(i).getDateTime());
+					close[i] = observations.get(i).getValue()[0];
+				}
+
+				double[][] columns = new double[indicators.getNumberOfFeatures()][close.length];
+				indicators.compute(close, columns, 0);
+				return new IndicatorHistory(timestamps, columns);
+			}
+		};
+	}
+
+	/**
+	 * Reads all observations of the csv files into a MultivariateFXSeries
+	 * filtered by the given MDFA feature extractors. The first
+	 * seriesLength observations initialize the filters and the burn-in
+	 * of the filter coefficients is removed.
+	 */
+	private static MultivariateFXSeries readSeries(String[] dataInputPaths,
+			                                       TimeSeriesFile fileInfo,
+			                                       MDFABase[] anyMDFAs,
+			                                       double targetWeight,
+			                                       boolean computeCoefficients) throws Exception {
+
+		CsvFeed marketFeed = new CsvFeed(dataInputPaths,
+				                         fileInfo.getDateTimeIndexName(),
+				                         fileInfo.getPriceColumnName());
+
+		MultivariateFXSeries fxSeries = new MultivariateFXSeries(anyMDFAs, fileInfo.getDateTimeFormat());
+		fxSeries.addSeries(new TargetSeries(targetWeight, true, "TargetSeries"));
+		fxSeries.setWhiteNoisePrefilters(MDFAFilterBank.WHITE_NOISE_PREFILTERS);
+
+
+		int initializeLength = anyMDFAs[0].getSeriesLength();
+
+        for(int i = 0; i < initializeLength; i++) {
+
+			TimeSeriesEntry<double[]> observation = marketFeed.getNextMultivariateObservation();
+			fxSeries.addValue(observation.getDateTime(), observation.getValue());
+		}
+
+        if(computeCoefficients) {
+        	fxSeries.computeAllFilterCoefficients();
+        }
+        fxSeries.chopFirstObservations(fxSeries.getSeries(0).getCoefficientSet(0).length);
+
+		while(true) {
+
+			TimeSeriesEntry<double[]> observation = marketFeed.getNextMultivariateObservation();
+			if(observation == null) break;
+			fxSeries.addValue(observation.getDateTime(), observation.getValue());
+		}
+		return fxSeries;
+	}
+
+	/**
+	 * Reads all observations of the csv files into an MDFAFilterBank,
+	 * which solves and applies the feature extractors concurrently.
+	 * The burn-in is removed as in readSeries.
+	 */
+	private static MDFAFilterBank readFilterBank(String[] dataInputPaths,
+			                                     TimeSeriesFile fileInfo,
+			                                     MDFABase[] anyMDFAs,
+			                                     double targetWeight,
+			                                     ExecutorService pool) throws Exception {
+
+		CsvFeed marketFeed = new CsvFeed(dataInputPaths,
+				                         fileInfo.getDateTimeIndexName(),
+				                         fileInfo.getPriceColumnName());
+
+		MDFAFilterBank bank = new MDFAFilterBank(anyMDFAs, fileInfo.getDateTimeFormat(), targetWeight, pool);
+
+		int initializeLength = anyMDFAs[0].getSeriesLength();
+		List<TimeSeriesEntry<double[]>> observations = new ArrayList<TimeSeriesEntry<double[]>>(initializeLength);
+		for(int i = 0; i < initializeLength; i++) {
+			observations.add(marketFeed.getNextMultivariateObservation());
+		}
+
+		bank.solve(observations);
+		bank.chopFirstObservations(bank.getCoefficients()[0].length);
+
+		observations.clear();
+		while(true) {
+
+			TimeSeriesEntry<double[]> observation = marketFeed.getNextMultivariateObservation();
+			if(observation == null) break;
+			observations.add(observation);
+		}
+		bank.addValues(observations);
+		return bank;
+	}
+
+	/**
+	 * The first symmetricLength observations have no symmetric signal,
+	 * remove them from both the series and the labels. A null series
+	 * only chops the labels.
+	 */
+	private static <L> void chopSymmetricBurnIn(MultivariateFXSeries fxSeries,
+			                                    TimeSeries<L> labels,
+			                                    int symmetricLength) {
+
+		if(fxSeries != null) {
+			fxSeries.chopFirstObservations(symmetricLength);
+		}
+		for(int i = 0; i < symmetricLength; i++) {
+			labels.remove(0);
+		}
+	}
+
+	/**
+	 * @return The assembler over the primitive feature and label columns
+	 */
+	public MDFABatchAssembler getBatchAssembler() {
+		return batchAssembler;
+	}
+
+	/**
+	 * Converts the dates of the target series to epoch milliseconds,
+	 * checking once that every label belongs to the observation
+	 * at the same index
+	 */
+	private static <L> long[] alignTimestamps(MultivariateFXSeries fxSeries, TimeSeries<L> labels,
+			                                  int n, TimeSeriesFile fileInfo) {
+
+		long[] timestamps = new long[n];
+		for(int j = 0; j < n; j++) {
+
+			String date = fxSeries.getTargetDate(j);
+			if(!date.equals(labels.get(j).getDateTime())) {
+				throw new IllegalStateException("Label at " + labels.get(j).getDateTime()
+						+ " does not match observation at " + date);
+			}
+			timestamps[j] = fileInfo.toEpochMillis(date);
+		}
+		return timestamps;
+	}
+
+	/**
+	 * Recreates a store from the columns of a snapshot. Such a store
+	 * has no MultivariateFXSeries and no label TimeSeries, only
+	 * the columns the iterators need.
+	 */
+	static <L> MDFAFeatureStore<L> fromColumns(MDFABase[] anyMDFAs,
+			                                   MDFABatchAssembler batchAssembler,
+			                                   long[] timestamps,
+			                                   TimeSeriesFile fileInfo,
+			                                   int size,
+			                                   int usableLength,
+			                                   boolean regression,
+			                                   MDFAColumnStatistics featureStatistics,
+			                                   MDFAColumnStatistics labelStatistics) {
+
+		return new MDFAFeatureStore<L>(null, null, anyMDFAs, batchAssembler, timestamps, 
+				fileInfo, size, usableLength, regression, featureStatistics, labelStatistics);
+	}
+
+	/**
+	 * Standardizes the features of the store, and for a regression
+	 * store also the labels, with the mean and variance of the labelled
+	 * observations in [fitFrom, fitTo), typically the training range of
+	 * a split or of a walk-forward fold. The statistics are fitted in
+	 * one pass over the primitive columns, with no iterator and no
+	 * DataNormalization preprocessor, and applied to every observation,
+	 * so the observations after fitTo are standardized without having
+	 * been seen by the fit.
+	 *
+	 * The store itself is not modified: the standardized columns are
+	 * written once into a copy, which shares everything but the columns
+	 * with this store.
+	 *
+	 * @param fitFrom First observation of the fitted range
+	 * @param fitTo End of the fitted range
+	 * @return A standardized copy of the store
+	 */
+	public MDFAFeatureStore<L> standardize(int fitFrom, int fitTo) {
+
+		if(fitFrom < 0 || fitTo > batchAssembler.size() || fitFrom >= fitTo) {
+			throw new IllegalArgumentException("Invalid range [" + fitFrom + ", " + fitTo 
+					+ ") for a store of " + batchAssembler.size() + " observations");
+		}
+
+		boolean[] labelled = batchAssembler.getLabelled();
+		return standardize(MDFAColumnStatistics.fit(batchAssembler.getFeatureColumns(), labelled, fitFrom, fitTo),
+				regression ? MDFAColumnStatistics.fit(batchAssembler.getLabelColumns(), labelled, fitFrom, fitTo) : null);
+	}
+
+	/**
+	 * Standardizes the store with statistics fitted elsewhere, for
+	 * example on the training range of another store with the same
+	 * columns
+	 *
+	 * @param featureStatistics Statistics of the feature columns
+	 * @param labelStatistics Statistics of the label column of a regression store,
+	 * ignored for a classification store
+	 * @return A standardized copy of the store
+	 */
+	public MDFAFeatureStore<L> standardize(MDFAColumnStatistics featureStatistics,
+			                               MDFAColumnStatistics labelStatistics) {
+
+		boolean[] labelled = batchAssembler.getLabelled();
+		double[][] featureColumns = featureStatistics.standardize(batchAssembler.getFeatureColumns(), labelled);
+		double[][] labelColumns = regression ? labelStatistics.standardize(batchAssembler.getLabelColumns(), labelled)
+				                             : batchAssembler.getLabelColumns();
+
+		return new MDFAFeatureStore<L>(fxSeries, labels, anyMDFAs, 
+				new MDFABatchAssembler(featureColumns, labelColumns, labelled), timestamps,
+				fileInfo, size, usableLength, regression, featureStatistics, regression ? labelStatistics : null);
+	}
+
+	/**
+	 * @return true if the store is a standardized copy
+	 */
+	public boolean isStandardized() {
+		return featureStatistics != null;
+	}
+
+	/**
+	 * @return true for a regression store, whose label is the symmetric signal
+	 */
+	public boolean isRegression() {
+		return regression;
+	}
+
+	/**
+	 * @return Mean and variance the feature columns were standardized with,
+	 * null if the store is not standardized
+	 */
+	public MDFAColumnStatistics getFeatureStatistics() {
+		return featureStatistics;
+	}
+
+	/**
+	 * @return Mean and variance the label column of a regression store was
+	 * standardized with, null if the store is not standardized and for a
+	 * classification store, whose labels are one-hot vectors
+	 */
+	public MDFAColumnStatistics getLabelStatistics() {
+		return labelStatistics;
+	}
+
+	/**
+	 * The window engine is created on first use, as it holds 
+	 * a second, off-heap copy of the columns
+	 * 
+	 * @return The zero-copy window engine of this store
+	 */
+	public synchronized MDFAWindowEngine getWindowEngine() {
+		
+		if(windowEngine == null) {
+			windowEngine = new MDFAWindowEngine(batchAssembler);
+		}
+		return windowEngine;
+	}
+
+	/**
+	 * The final observations of the store are never covered by a
+	 * window. Iterators over the whole store run up to this length.
+	 *
+	 * @return Number of observations available to windows
+	 */
+	public int getUsableLength() {
+		return usableLength;
+	}
+
+	/**
+	 * @return Number of observations in the store
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param index Index of an observation
+	 * @return Time of the observation in milliseconds since the epoch
+	 */
+	public long getTimestamp(int index) {
+		return timestamps[index];
+	}
+
+	/**
+	 * Timestamps of all observations, shared by the features and
+	 * the labels. Minibatch dates are offsets into this column.
+	 * Must not be modified.
+	 *
+	 * @return Milliseconds since the epoch of every observation
+	 */
+	public long[] getTimestamps() {
+		return timestamps;
+	}
+
+	/**
+	 * @param index Index of an observation
+	 * @return Date and time of the observation in the format of the csv files
+	 */
+	public String getDate(int index) {
+		return fileInfo.formatEpochMillis(timestamps[index]);
+	}
+
+	public TimeSeriesFile getFileInfo() {
+		return fileInfo;
+	}
+
+	/**
+	 * @return The filtered series, or null for a store read from a snapshot
+	 */
+	public MultivariateFXSeries getFXSeries() {
+		return fxSeries;
+	}
+
+	/**
+	 * @return The label series, or null for a store read from a snapshot
+	 */
+	public TimeSeries<L> getLabels() {
+		return labels;
+	}
+
+	public MDFABase[] getAnyMDFAs() {
+		return anyMDFAs;
+	}
+
+}
@@ -0,0 +1,306 @@
+package ch.imetrica.mdlfa.dataiterator;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.DataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+
+import ch.imetrica.mdfa.mdfa.MDFABase;
+import ch.imetrica.mdlfa.util.TimeSeriesFile;
+
+/**
+ * DataSetIterator over many symbols at once. Unlike the
+ * MDFADataSetIterator, which merges all csv files into one
+ * MultivariateFXSeries with a single target, every symbol here
+ * gets its own MDFAFeatureStore with its own features and labels.
+ * The stores are built in parallel on a ForkJoinPool.
+ *
+ * The windows of all symbols are interleaved into mixed
+ * minibatches: in order, an epoch takes the first window of every
+ * symbol, then the second window of every symbol, and so on. With a
+ * shuffling MDFAWindowSampler the windows of all symbols are
+ * shuffled together instead. Either way one network sees all
+ * symbols in every minibatch.
+ *
+ * Each epoch contains at most totalExamples windows, or all
+ * windows if totalExamples is 0. The last minibatch of an epoch
+ * may be smaller than miniBatchSize.
+ *
+ */
+public class MDFAMultiSymbolDataSetIterator implements DataSetIterator, MDFABatchSource {
+
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = 1L;
+
+	private final List<MDFAFeatureStore<int[]>> featureStores;
+	private final MDFABatchAssembler[] batchAssemblers;
+	private final int numberOfFeatures;
+	private final int timeStepLength;
+	private final int totalExamples;
+
+	private int miniBatchSize;
+	private int cursor = 0;
+	private DataSetPreProcessor myPreprocessor;
+
+	private MDFAWindowSampler windowSampler;
+
+	/* All valid windows, as symbol and start position, interleaved across symbols */
+	private int[] windowSymbols;
+	private int[] windowStarts;
+	private int[] allWindows;
+	private int[] epochSymbols;
+	private int[] epochStarts;
+
+	/**
+	 * Instantiates a multi-symbol iterator, building the features
+	 * of the symbols on the common ForkJoinPool
+	 *
+	 * @param symbolPaths One csv file per symbol
+	 * @param fileInfo Metadata info for the files
+	 * @param anyMDFAs A collection of feature extractors
+	 * @param miniBatchSize MiniBatchSize
+	 * @param totalExamples Maximum number of windows per epoch, or 0 for all
+	 * @param timeStepLength Length of the time series
+	 * @throws Exception
+	 */
+	public MDFAMultiSymbolDataSetIterator(String[] symbolPaths,
+			                              TimeSeriesFile fileInfo,
+			                              MDFABase[] anyMDFAs,
+			                              int miniBatchSize,
+			                              int totalExamples,
+			                              int timeStepLength) throws Exception {
+
+		this(symbolPaths, fileInfo, anyMDFAs, miniBatchSize, totalExamples, timeStepLength, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Instantiates a multi-symbol iterator, building the features
+	 * of the symbols on the given pool
+	 *
+	 * @param symbolPaths One csv file per symbol
+	 * @param fileInfo Metadata info for the files
+	 * @param anyMDFAs A collection of feature extractors
+	 * @param miniBatchSize MiniBatchSize
+	 * @param totalExamples Maximum number of windows per epoch, or 0 for all
+	 * @param timeStepLength Length of the time series
+	 * @param pool Pool used to build the feature stores
+	 * @throws Exception
+	 */
+	public MDFAMultiSymbolDataSetIterator(String[] symbolPaths,
+			                              TimeSeriesFile fileInfo,
+			                              MDFABase[] anyMDFAs,
+			                              int miniBatchSize,
+			                              int totalExamples,
+			                              int timeStepLength,
+			                              ForkJoinPool pool) throws Exception {
+
+		this(MDFAFeatureStore.buildClassificationStores(symbolPaths, fileInfo, anyMDFAs, pool),
+				miniBatchSize, totalExamples, timeStepLength);
+	}
+
+	/**
+	 * Instantiates a multi-symbol iterator over existing
+	 * classification stores, one per symbol
+	 *
+	 * @param featureStores Classification stores with the same feature extractors
+	 * @param miniBatchSize MiniBatchSize
+	 * @param totalExamples Maximum number of windows per epoch, or 0 for all
+	 * @param timeStepLength Length of the time series
+	 */
+	public MDFAMultiSymbolDataSetIterator(List<MDFAFeatureStore<int[]>> featureStores,
+			                              int miniBatchSize,
+			                              int totalExamples,
+			                              int timeStepLength) {
+
+		if(featureStores.isEmpty()) {
+			throw new IllegalArgumentException("At least one symbol is required");
+		}
+
+		this.featureStores = featureStores;
+		this.batchAssemblers = new MDFABatchAssembler[featureStores.size()];
+		for(int s = 0; s < batchAssemblers.length; s++) {
+			batchAssemblers[s] = featureStores.get(s).getBatchAssembler();
+		}
+
+		this.numberOfFeatures = batchAssemblers[0].getNumberOfFeatureColumns();
+		this.miniBatchSize = miniBatchSize;
+		this.totalExamples = totalExamples;
+		this.timeStepLength = timeStepLength;
+
+		setWindowSampler(new MDFAWindowSampler());
+	}
+
+	/**
+	 * Indexes the valid windows of every symbol with the given sampler
+	 * and interleaves them. The sampler's stride applies to each symbol,
+	 * its shuffle to the windows of all symbols together.
+	 *
+	 * @param windowSampler A window sampler
+	 */
+	public void setWindowSampler(MDFAWindowSampler windowSampler) {
+
+		this.windowSampler = windowSampler;
+		this.cursor = 0;
+
+		int[][] validStarts = new int[batchAssemblers.length][];
+		int nWindows = 0;
+		int maxWindows = 0;
+		for(int s = 0; s < batchAssemblers.length; s++) {
+
+			validStarts[s] = windowSampler.indexValidWindows(batchAssemblers[s].getLabelled(), 0,
+					featureStores.get(s).getUsableLength(), timeStepLength);
+			nWindows += validStarts[s].length;
+			maxWindows = Math.max(maxWindows, validStarts[s].length);
+		}
+
+		windowSymbols = new int[nWindows];
+		windowStarts = new int[nWindows];
+		allWindows = new int[nWindows];
+
+		int w = 0;
+		for(int j = 0; j < maxWindows; j++) {
+			for(int s = 0; s < validStarts.length; s++) {
+				if(j < validStarts[s].length) {
+					windowSymbols[w] = s;
+					windowStarts[w] = validStarts[s][j];
+					allWindows[w] = w;
+					w++;
+				}
+			}
+		}
+		sampleEpoch();
+	}
+
+	private void sampleEpoch() {
+
+		int[] epoch = windowSampler.sampleEpoch(allWindows, totalExamples);
+		epochSymbols = new int[epoch.length];
+		epochStarts = new int[epoch.length];
+		for(int i = 0; i < epoch.length; i++) {
+			epochSymbols[i] = windowSymbols[epoch[i]];
+			epochStarts[i] = windowStarts[epoch[i]];
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		return hasBatch(cursor, miniBatchSize);
+	}
+
+	@Override
+	public boolean hasBatch(int cursor, int miniBatchSize) {
+		return cursor < epochStarts.length;
+	}
+
+	@Override
+	public DataSet batch(int cursor, int miniBatchSize) {
+
+		int count = Math.min(miniBatchSize, epochStarts.length - cursor);
+		return MDFABatchAssembler.classificationBatch(batchAssemblers, epochSymbols, epochStarts,
+				                                      cursor, count, timeStepLength);
+	}
+
+	@Override
+	public DataSet next() {
+		return next(miniBatchSize);
+	}
+
+	@Override
+	public DataSet next(int miniBatchSize) {
+
+		this.miniBatchSize = miniBatchSize;
+		DataSet batch = batch(cursor, miniBatchSize);
+
+		cursor += miniBatchSize;
+		return batch;
+	}
+
+	@Override
+	public int totalExamples() {
+		return totalExamples;
+	}
+
+	@Override
+	public int inputColumns() {
+		return numberOfFeatures;
+	}
+
+	@Override
+	public int totalOutcomes() {
+		return 2;
+	}
+
+	@Override
+	public boolean resetSupported() {
+		return true;
+	}
+
+	/**
+	 * Use MDFAPrefetchIterator for background assembly of the minibatches
+	 */
+	@Override
+	public boolean asyncSupported() {
+		return false;
+	}
+
+	@Override
+	public void reset() {
+
+		cursor = 0;
+		sampleEpoch();
+	}
+
+	@Override
+	public int batch() {
+		return miniBatchSize;
+	}
+
+	@Override
+	public int cursor() {
+		return cursor;
+	}
+
+	@Override
+	public int numExamples() {
+		return totalExamples;
+	}
+
+	@Override
+	public void setPreProcessor(DataSetPreProcessor preProcessor) {
+		this.myPreprocessor = preProcessor;
+	}
+
+	@Override
+	public DataSetPreProcessor getPreProcessor() {
+		return myPreprocessor;
+	}
+
+	@Override
+	public List<String> getLabels() {
+		return null;
+	}
+
+	/**
+	 * @return Number of symbols
+	 */
+	public int getNumberOfSymbols() {
+		return featureStores.size();
+	}
+
+	public List<MDFAFeatureStore<int[]>> getFeatureStores() {
+		return featureStores;
+	}
+
+	public MDFAWindowSampler getWindowSampler() {
+		return windowSampler;
+	}
+
+	public int getTimeStepLength() {
+		return timeStepLength;
+	}
+
+}
@@ -0,0 +1,282 @@
+package ch.imetrica.mdlfa.dataiterator;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.DataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+
+/**
+ * Prefetching wrapper for the MDFA iterators. A producer thread
+ * assembles the minibatches of one epoch through the MDFABatchSource
+ * interface and hands them to the consumer through a bounded
+ * queue, so batch assembly overlaps with MultiLayerNetwork.fit.
+ *
+ * The producer keeps its own cursor and never touches the cursor
+ * of the wrapped iterator. Every epoch gets a fresh queue and a
+ * fresh producer, so reset() simply stops the current producer
+ * and discards whatever it had prepared.
+ *
+ * Minibatches are prefetched with the minibatch size of the wrapped
+ * iterator. A minibatch of another size requested with next(int)
+ * stops the producer and is assembled on the calling thread, after
+ * which the producer starts again behind it.
+ *
+ * If a preprocessor is set on this iterator it is applied on the
+ * producer thread.
+ *
+ */
+public class MDFAPrefetchIterator implements DataSetIterator {
+
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/* Marks the end of an epoch in the queue */
+	private static final DataSet END_OF_EPOCH = new DataSet();
+
+	private final DataSetIterator source;
+	private final MDFABatchSource batchSource;
+	private final int queueCapacity;
+	private final int miniBatchSize;
+
+	private volatile DataSetPreProcessor myPreprocessor;
+
+	private BlockingQueue<DataSet> queue;
+	private Thread producer;
+	private volatile Throwable producerFailure;
+
+	private DataSet nextBatch;
+	private int cursor = 0;
+
+	/**
+	 * Wraps an MDFA iterator in a prefetching iterator. The minibatch
+	 * size is taken from the wrapped iterator.
+	 *
+	 * @param source An MDFA iterator
+	 * @param queueCapacity Maximum number of minibatches prepared ahead of the consumer
+	 */
+	public <S extends DataSetIterator & MDFABatchSource> MDFAPrefetchIterator(S source, int queueCapacity) {
+
+		if(queueCapacity < 1) {
+			throw new IllegalArgumentException("Queue capacity must be at least 1");
+		}
+
+		this.source = source;
+		this.batchSource = source;
+		this.queueCapacity = queueCapacity;
+		this.miniBatchSize = source.batch();
+	}
+
+	private void startProducer(final int startCursor) {
+
+		final BlockingQueue<DataSet> epochQueue = new ArrayBlockingQueue<DataSet>(queueCapacity + 1);
+		final DataSetPreProcessor preProcessor = myPreprocessor;
+
+		producerFailure = null;
+		queue = epochQueue;
+		producer = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+
+				int producerCursor = startCursor;
+				try {
+					while(!Thread.currentThread().isInterrupted() &&
+							batchSource.hasBatch(producerCursor, miniBatchSize)) {
+
+						DataSet batch = batchSource.batch(producerCursor, miniBatchSize);
+						if(preProcessor != null) {
+							preProcessor.preProcess(batch);
+						}
+						epochQueue.put(batch);
+						producerCursor += miniBatchSize;
+					}
+				}
+				catch(InterruptedException e) {
+					return;
+				}
+				catch(Throwable e) {
+					producerFailure = e;
+				}
+
+				try {
+					epochQueue.put(END_OF_EPOCH);
+				}
+				catch (InterruptedException e) {
+					return;
+				}
+			}
+
+		}, "mdfa-prefetch");
+
+		producer.setDaemon(true);
+		producer.start();
+	}
+
+	/**
+	 * Stops the producer thread, if any, and discards
+	 * all prepared minibatches
+	 */
+	public void shutdown() {
+
+		if(producer != null) {
+
+			producer.interrupt();
+			try {
+				producer.join();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			producer = null;
+		}
+		queue = null;
+		nextBatch = null;
+	}
+
+	@Override
+	public boolean hasNext() {
+
+		if(nextBatch == null) {
+
+			if(producer == null) {
+				startProducer(cursor);
+			}
+			try {
+				nextBatch = queue.take();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for the next minibatch", e);
+			}
+		}
+
+		if(nextBatch == END_OF_EPOCH && producerFailure != null) {
+			throw new IllegalStateException("Failed to assemble minibatch", producerFailure);
+		}
+		return nextBatch != END_OF_EPOCH;
+	}
+
+	@Override
+	public DataSet next() {
+
+		if(!hasNext()) {
+			throw new NoSuchElementException();
+		}
+
+		DataSet batch = nextBatch;
+		nextBatch = null;
+		cursor += miniBatchSize;
+		return batch;
+	}
+
+	/**
+	 * A minibatch of the prefetched size is taken from the queue. Any
+	 * other size stops the producer, discarding its minibatches, and is
+	 * assembled at the current cursor on the calling thread.
+	 */
+	@Override
+	public DataSet next(int num) {
+
+		if(num == miniBatchSize) {
+			return next();
+		}
+
+		if(nextBatch == END_OF_EPOCH && producerFailure != null) {
+			throw new IllegalStateException("Failed to assemble minibatch", producerFailure);
+		}
+		shutdown();
+		if(!batchSource.hasBatch(cursor, num)) {
+			throw new NoSuchElementException();
+		}
+
+		DataSet batch = batchSource.batch(cursor, num);
+		DataSetPreProcessor preProcessor = myPreprocessor;
+		if(preProcessor != null) {
+			preProcessor.preProcess(batch);
+		}
+		cursor += num;
+		return batch;
+	}
+
+	@Override
+	public int totalExamples() {
+		return source.totalExamples();
+	}
+
+	@Override
+	public int inputColumns() {
+		return source.inputColumns();
+	}
+
+	@Override
+	public int totalOutcomes() {
+		return source.totalOutcomes();
+	}
+
+	@Override
+	public boolean resetSupported() {
+		return true;
+	}
+
+	/**
+	 * This iterator already prefetches, wrapping it again
+	 * in an AsyncDataSetIterator would only add another thread
+	 */
+	@Override
+	public boolean asyncSupported() {
+		return false;
+	}
+
+	/**
+	 * Stops the producer and then resets the wrapped iterator,
+	 * so that a window sampler draws the windows of the next epoch
+	 * while no producer is reading them
+	 */
+	@Override
+	public void reset() {
+
+		shutdown();
+		source.reset();
+		cursor = 0;
+	}
+
+	@Override
+	public int batch() {
+		return miniBatchSize;
+	}
+
+	@Override
+	public int cursor() {
+		return cursor;
+	}
+
+	@Override
+	public int numExamples() {
+		return source.numExamples();
+	}
+
+	/**
+	 * Takes effect from the next epoch onwards
+	 */
+	@Override
+	public void setPreProcessor(DataSetPreProcessor preProcessor) {
+		this.myPreprocessor = preProcessor;
+	}
+
+	@Override
+	public DataSetPreProcessor getPreProcessor() {
+		return myPreprocessor;
+	}
+
+	@Override
+	public List<String> getLabels() {
+		return source.getLabels();
+	}
+
+}
@@ -3,19 +3,13 @@ package ch.imetrica.mdlfa.dataiterator;
 import java.io.IOException;
 import java.util.List;
 
-import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.DataSet;
 import org.nd4j.linalg.dataset.api.DataSetPreProcessor;
 import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
-import org.nd4j.linalg.factory.Nd4j;
 
-import ch.imetrica.mdfa.datafeeds.CsvFeed;
 import ch.imetrica.mdfa.mdfa.MDFABase;
 import ch.imetrica.mdfa.series.MultivariateFXSeries;
-import ch.imetrica.mdfa.series.TargetSeries;
 import ch.imetrica.mdfa.series.TimeSeries;
-import ch.imetrica.mdfa.series.TimeSeriesEntry;
-import ch.imetrica.mdlfa.labeling.SymmetricLabelizer;
 import ch.imetrica.mdlfa.util.TimeSeriesFile;
 
 /**
@@ -27,7 +21,7 @@ import ch.imetrica.mdlfa.util.TimeSeriesFile;
  * @author lisztian
  *
  */
-public class MDFARegressionDataSetIterator implements DataSetIterator {
+public class MDFARegressionDataSetIterator implements DataSetIterator, MDFABatchSource {
 
 	
 	/**
@@ -35,16 +29,15 @@ public class MDFARegressionDataSetIterator implements DataSetIterator {
 	 */
 	private static final long serialVersionUID = 644472562104515997L;
 
+	private MDFAFeatureStore<Double> featureStore;
 	private MultivariateFXSeries fxSeries;
 	
 	private int miniBatchSize;
 	private int currentFileListIndex = 0;
 	private int totalExamples = 0;
-	private String[] datasetInputPaths;
 	private TimeSeries<Double> myLabels;
 	
 	private int timeStepLength;
-	private CsvFeed marketFeed; //;  = new CsvFeed(dataFiles, "Index", "Open");
 	
 	private int numberOfFeatures;
 	private TimeSeriesFile fileInfo;
@@ -53,7 +46,18 @@ public class MDFARegressionDataSetIterator implements DataSetIterator {
 
 	private DataSetPreProcessor myPreprocessor;
 
-	private String[][] nextDates;
+	private int[] nextTimestampOffsets = new int[0];
+	private int nextCount;
+	
+	private MDFABatchAssembler batchAssembler;
+	private int fromIndex;
+	private int toIndex;
+	private boolean zeroCopyWindows = false;
+	private MDFABatchBufferPool batchBufferPool;
+	
+	private MDFAWindowSampler windowSampler;
+	private int[] validWindowStarts;
+	private int[] epochWindowStarts;
 	
 	/**
 	 * Instantiates an MDFA DataSet Iterator for regression applications. 
@@ -73,57 +77,66 @@ public class MDFARegressionDataSetIterator implements DataSetIterator {
             int totalExamples, 
             int timeStepLength) throws Exception {
 		
-		
+		this(MDFAFeatureStore.buildRegressionStore(dataInputPaths, fileInfo, anyMDFAs), 
+				miniBatchSize, totalExamples, timeStepLength);
 		this.fileInfo = fileInfo;
-		this.datasetInputPaths = dataInputPaths;	
-		
-		this.setMiniBatchSize(miniBatchSize);
-		this.setTotalExamples(totalExamples);
-		this.setAnyMDFAs(anyMDFAs);
-		this.setNumberOfFeatures(anyMDFAs.length);
-		this.setTimeStepLength(timeStepLength);
-		
-		CsvFeed marketFeed = new CsvFeed(datasetInputPaths, 
-				                         fileInfo.getDateTimeIndexName(),
-				                         fileInfo.getPriceColumnName());
-		
-		fxSeries = new MultivariateFXSeries(anyMDFAs, fileInfo.getDateTimeFormat());
-		fxSeries.addSeries(new TargetSeries(0.7, true, "TargetSeries"));
-		fxSeries.setWhiteNoisePrefilters(36);
-		
-		
-		int initializeLength = anyMDFAs[0].getSeriesLength();
-		
-        for(int i = 0; i < initializeLength; i++) {
-			
-			TimeSeriesEntry<double[]> observation = marketFeed.getNextMultivariateObservation();
-			fxSeries.addValue(observation.getDateTime(), observation.getValue());
-		}
-        
-        fxSeries.computeAllFilterCoefficients();	
-        fxSeries.chopFirstObservations(fxSeries.getSeries(0).getCoefficientSet(0).length);	
-        
-        int symmetricLength = fxSeries.getSeries(0).getCoefficientSet(0).length;
-
-		while(true) {
-			
-			TimeSeriesEntry<double[]> observation = marketFeed.getNextMultivariateObservation();
-			if(observation == null) break;			
-			fxSeries.addValue(observation.getDateTime(), observation.getValue());
-		}
-		
-		SymmetricLabelizer labeler = new SymmetricLabelizer(anyMDFAs[0].getLowPassCutoff(), 
-															symmetricLength)
-				                                           .computeSymmetricFilter();
+	}
+	
+	/**
+	 * Instantiates an MDFA DataSet Iterator for regression applications
+	 * over all observations of an existing feature store
+	 * 
+	 * @param featureStore A regression feature store
+	 * @param miniBatchSize MiniBatchSize
+	 * @param totalExamples 
+	 * @param timeStepLength Length of the time series
+	 */
+	public MDFARegressionDataSetIterator(MDFAFeatureStore<Double> featureStore,
+            int miniBatchSize, 
+            int totalExamples, 
+            int timeStepLength) {
 		
-		setMyLabels(labeler.getSymmetricSignal(fxSeries.getSeries(0).getTargetSeries()));
-		fxSeries.chopFirstObservations(symmetricLength);
+		this(featureStore, 0, featureStore.getUsableLength(), miniBatchSize, totalExamples, timeStepLength);
+	}
 	
-		for(int i = 0; i < symmetricLength; i++) {
-			myLabels.remove(0);
+	/**
+	 * Instantiates an MDFA DataSet Iterator for regression applications 
+	 * as a view on the observations [fromIndex, toIndex) of an existing 
+	 * feature store. No features or labels are copied, so any number 
+	 * of iterators may share one store. 
+	 * 
+	 * @param featureStore A regression feature store
+	 * @param fromIndex First observation of the view
+	 * @param toIndex End of the view, at most featureStore.getUsableLength()
+	 * @param miniBatchSize MiniBatchSize
+	 * @param totalExamples 
+	 * @param timeStepLength Length of the time series
+	 */
+	public MDFARegressionDataSetIterator(MDFAFeatureStore<Double> featureStore,
+            int fromIndex,
+            int toIndex,
+            int miniBatchSize, 
+            int totalExamples, 
+            int timeStepLength) {
+		
+		if(fromIndex < 0 || toIndex > featureStore.getUsableLength() || fromIndex > toIndex) {
+			throw new IllegalArgumentException("Invalid range [" + fromIndex + ", " + toIndex 
+					+ ") for a store of usable length " + featureStore.getUsableLength());
 		}
 		
+		this.featureStore = featureStore;
+		this.fxSeries = featureStore.getFXSeries();
+		this.batchAssembler = featureStore.getBatchAssembler();
+		this.fromIndex = fromIndex;
+		this.toIndex = toIndex;
 		
+		this.setMyLabels(featureStore.getLabels());
+		this.setMiniBatchSize(miniBatchSize);
+		this.setTotalExamples(totalExamples);
+		this.setAnyMDFAs(featureStore.getAnyMDFAs());
+		/* every feature column after the target series, MDFA features and any indicators */
+		this.setNumberOfFeatures(batchAssembler.getNumberOfFeatureColumns() - 1);
+		this.setTimeStepLength(timeStepLength);
 	}
 	
 	
@@ -131,8 +144,45 @@ public class MDFARegressionDataSetIterator implements DataSetIterator {
 	@Override
 	public boolean hasNext() {
 				
-		return currentFileListIndex + miniBatchSize + timeStepLength < 
-				 (fxSeries.size() - fxSeries.getSeries(0).getCoefficientSet(0).length) ;
+		return hasBatch(currentFileListIndex, miniBatchSize);
+	}
+	
+	@Override
+	public boolean hasBatch(int cursor, int miniBatchSize) {
+		
+		if(windowSampler != null) {
+			return cursor < epochWindowStarts.length;
+		}
+		return fromIndex + cursor + miniBatchSize + timeStepLength < toIndex;
+	}
+	
+	/**
+	 * Builds the minibatch at the given cursor. The dates of the 
+	 * minibatch are only recorded by next()
+	 */
+	@Override
+	public DataSet batch(int cursor, int miniBatchSize) {
+		if(windowSampler != null) {
+			
+			int count = Math.min(miniBatchSize, epochWindowStarts.length - cursor);
+			int first = epochWindowStarts[cursor];
+			
+			/* a run of consecutive windows is still a single view */
+			if(zeroCopyWindows && MDFAWindowSampler.isConsecutive(epochWindowStarts, cursor, count)) {
+				return featureStore.getWindowEngine().regressionBatch(first, count, timeStepLength);
+			}
+			if(batchBufferPool != null) {
+				return batchBufferPool.regressionBatch(batchAssembler, epochWindowStarts, cursor, count, timeStepLength);
+			}
+			return batchAssembler.regressionBatch(epochWindowStarts, cursor, count, timeStepLength);
+		}
+		if(zeroCopyWindows) {
+			return featureStore.getWindowEngine().regressionBatch(fromIndex + cursor, miniBatchSize, timeStepLength);
+		}
+		if(batchBufferPool != null) {
+			return batchBufferPool.regressionBatch(batchAssembler, fromIndex + cursor, miniBatchSize, timeStepLength);
+		}
+		return batchAssembler.regressionBatch(fromIndex + cursor, miniBatchSize, timeStepLength);
 	}
 
 	@Override
@@ -145,42 +195,24 @@ public class MDFARegressionDataSetIterator implements DataSetIterator {
 	public DataSet next(int miniBatchSize) {
 		
 		this.miniBatchSize = miniBatchSize;
-		int index;
-		INDArray input = Nd4j.zeros(new int[]{ miniBatchSize, numberOfFeatures + 1, timeStepLength }, 'f' );
-		INDArray labels = Nd4j.zeros(new int[]{ miniBatchSize, 1, timeStepLength }, 'f'  );
-		nextDates = new String[miniBatchSize][timeStepLength];
+		DataSet batch = batch(currentFileListIndex, miniBatchSize);
 		
-		for(int i = 0; i < miniBatchSize; i++) {
+		/* only the window starts are recorded, the timestamps stay in the feature store */
+		nextCount = batch.getFeatureMatrix().size(0);
+		if(nextTimestampOffsets.length < nextCount) {
+			nextTimestampOffsets = new int[nextCount];
+		}
+		for(int i = 0; i < nextCount; i++) {
 			
-		  for(int t = 0; t < timeStepLength; t++) {
-			  
-			  index = currentFileListIndex + i;
-			  double[] features = fxSeries.getSignalValue(index + t);
-			  Double label = myLabels.get(index + t).getValue();
-			 
-		  
-			  if(!fxSeries.getTargetDate(index + t).equals(myLabels.get(index + t).getDateTime())) {
-				  System.out.println(fxSeries.getTargetDate(index + t));
-			  }
-			  nextDates[i][t] = fxSeries.getTargetDate(index + t);
-			  
-			  if(label != null) {
-				  
-				  input.putScalar(i, 0, t, fxSeries.getTargetValue(index+t));
-				  for(int k = 0; k < features.length; k++) {
-					  input.putScalar(i, k+1, t, features[k]);
-				  }
-				  labels.putScalar(new int[]{ i, 0, t }, label.doubleValue());
-			  }
-		  }
+		  nextTimestampOffsets[i] = (windowSampler != null) ? epochWindowStarts[currentFileListIndex + i] 
+				                                            : fromIndex + currentFileListIndex + i;
 		}
 			
 		this.currentFileListIndex += miniBatchSize;
-		return new DataSet( input, labels ); 
+		return batch; 
 	
 	}
-
-
+	
 	@Override
 	public int totalExamples() {
 		return this.totalExamples;
@@ -201,14 +233,23 @@ public class MDFARegressionDataSetIterator implements DataSetIterator {
 		return true;
 	}
 
+	/**
+	 * next() records the dates of the current minibatch, which 
+	 * is not safe from a background thread. Use MDFAPrefetchIterator 
+	 * for background assembly of the minibatches
+	 */
 	@Override
 	public boolean asyncSupported() {
-		return true;
+		return false;
 	}
 
 	@Override
 	public void reset() {
+		
 		this.currentFileListIndex = 0;
+		if(windowSampler != null) {
+			epochWindowStarts = windowSampler.sampleEpoch(validWindowStarts, totalExamples);
+		}
 	}
 
 	@Override
@@ -260,6 +301,20 @@ public class MDFARegressionDataSetIterator implements DataSetIterator {
 		return timeStepLength;
 	}
 
+	/**
+	 * @return First observation of the view on the feature store
+	 */
+	public int getFromIndex() {
+		return fromIndex;
+	}
+
+	/**
+	 * @return End of the view on the feature store
+	 */
+	public int getToIndex() {
+		return toIndex;
+	}
+
 
 
 	public void setTimeStepLength(int timeStepLength) {
@@ -323,6 +378,10 @@ public class MDFARegressionDataSetIterator implements DataSetIterator {
 	public MultivariateFXSeries getFXSeries() {
 		return fxSeries;
 	}
+	
+	public MDFAFeatureStore<Double> getFeatureStore() {
+		return featureStore;
+	}
 
 	public void setMyLabels(TimeSeries<Double> myLabels) {
 		this.myLabels = myLabels;
@@ -330,6 +389,62 @@ public class MDFARegressionDataSetIterator implements DataSetIterator {
 
 
 
+	public boolean isZeroCopyWindows() {
+		return zeroCopyWindows;
+	}
+
+	/**
+	 * Serves the minibatches as read-only views on the 
+	 * MDFAWindowEngine of the feature store instead of copying 
+	 * every window. The views must not be modified in place, so 
+	 * no in-place preprocessor should be applied to them. 
+	 * 
+	 * @param zeroCopyWindows true to use views on the feature store
+	 */
+	public void setZeroCopyWindows(boolean zeroCopyWindows) {
+		this.zeroCopyWindows = zeroCopyWindows;
+	}
+	
+	public MDFABatchBufferPool getBatchBufferPool() {
+		return batchBufferPool;
+	}
+
+	/**
+	 * Assembles the minibatches into the recycled buffers of the
+	 * given pool instead of allocating new arrays for every minibatch.
+	 * A minibatch is then only valid until the pool reuses its buffer. 
+	 * Views served by setZeroCopyWindows take precedence. 
+	 * 
+	 * @param batchBufferPool A buffer pool, or null to allocate every minibatch
+	 */
+	public void setBatchBufferPool(MDFABatchBufferPool batchBufferPool) {
+		this.batchBufferPool = batchBufferPool;
+	}
+	
+	public MDFAWindowSampler getWindowSampler() {
+		return windowSampler;
+	}
+
+	/**
+	 * Samples the windows of this iterator with the given sampler 
+	 * instead of walking every window in order. The index of valid 
+	 * windows is built here, for the current timeStepLength, and every 
+	 * epoch draws at most totalExamples windows from it. The last 
+	 * minibatch of an epoch may be smaller than miniBatchSize. 
+	 * 
+	 * @param windowSampler A window sampler, or null to walk all windows in order
+	 */
+	public void setWindowSampler(MDFAWindowSampler windowSampler) {
+		
+		this.windowSampler = windowSampler;
+		this.currentFileListIndex = 0;
+		if(windowSampler != null) {
+			validWindowStarts = windowSampler.indexValidWindows(batchAssembler.getLabelled(), 
+					fromIndex, toIndex, timeStepLength);
+			epochWindowStarts = windowSampler.sampleEpoch(validWindowStarts, totalExamples);
+		}
+	}
+	
 	public DataSetPreProcessor getMyPreprocessor() {
 		return myPreprocessor;
 	}
@@ -342,15 +457,43 @@ public class MDFARegressionDataSetIterator implements DataSetIterator {
 
 
 
+	/**
+	 * Offset of an example of the last minibatch returned by next() in the 
+	 * timestamp column of the feature store. The timestamp of time step t 
+	 * of the example is featureStore.getTimestamps()[offset + t], and 
+	 * featureStore.getDate(offset + t) formats it as a date string.
+	 * 
+	 * @param example Index of the example in the last minibatch
+	 * @return Offset of the first time step of the example
+	 */
+	public int getNextTimestampOffset(int example) {
+		
+		if(example < 0 || example >= nextCount) {
+			throw new IndexOutOfBoundsException("Example " + example + " not in last minibatch of " + nextCount);
+		}
+		return nextTimestampOffsets[example];
+	}
+	
+	/**
+	 * Dates of every time step of every example of the last minibatch 
+	 * returned by next(), formatted from the timestamp column of the 
+	 * feature store on every call
+	 * 
+	 * @return Date of time step t of example i at [i][t]
+	 * @deprecated Use getNextTimestampOffset with featureStore.getTimestamps() 
+	 * or featureStore.getDate, which format nothing per minibatch
+	 */
+	@Deprecated
 	public String[][] getNextDates() {
+		
+		String[][] nextDates = new String[nextCount][timeStepLength];
+		for(int i = 0; i < nextCount; i++) {
+			for(int t = 0; t < timeStepLength; t++) {
+				nextDates[i][t] = featureStore.getDate(nextTimestampOffsets[i] + t);
+			}
+		}
 		return nextDates;
 	}
-
-
-
-	public void setNextDates(String[][] nextDates) {
-		this.nextDates = nextDates;
-	}
 	
 
 }
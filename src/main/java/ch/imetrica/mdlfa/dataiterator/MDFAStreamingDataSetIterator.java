@@ -0,0 +1,392 @@
+package ch.imetrica.mdlfa.dataiterator;
+
+import java.util.List;
+
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.DataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+
+import ch.imetrica.mdfa.datafeeds.CsvFeed;
+import ch.imetrica.mdfa.mdfa.MDFABase;
+import ch.imetrica.mdfa.series.MultivariateFXSeries;
+import ch.imetrica.mdfa.series.TargetSeries;
+import ch.imetrica.mdfa.series.TimeSeriesEntry;
+import ch.imetrica.mdlfa.labeling.SymmetricLabelizer;
+import ch.imetrica.mdlfa.util.TimeSeriesFile;
+
+/**
+ * Lazy, bounded-memory version of the MDFADataSetIterator for
+ * series that do not fit into memory, such as multi-year intraday
+ * histories.
+ *
+ * Instead of draining the whole CsvFeed in the constructor, the
+ * iterator reads the feed in chunks ahead of the cursor. The MDFA
+ * features and the symmetric trend labels of every chunk are
+ * written into fixed-size primitive buffers, and the
+ * MultivariateFXSeries is chopped so it only ever holds the most
+ * recent seriesLength observations. The size of the buffers follows
+ * from a memory budget, so training runs at steady memory
+ * regardless of the length of the series.
+ *
+ * The minibatches are identical to those of an MDFADataSetIterator
+ * over the same files. As the history is not kept, reset() reads
+ * the csv files again from the start.
+ *
+ */
+public class MDFAStreamingDataSetIterator implements DataSetIterator {
+
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/* Bytes of one buffered value, a double */
+	private static final int BYTES_PER_VALUE = 8;
+
+	/* Buffered values per observation besides the features: target, two label components and the label flag */
+	private static final int VALUES_PER_OBSERVATION = 4;
+
+	private final String[] dataInputPaths;
+	private final TimeSeriesFile fileInfo;
+	private final MDFABase[] anyMDFAs;
+	private final int numberOfFeatures;
+	private final int timeStepLength;
+	private final int totalExamples;
+	private final long memoryBudgetBytes;
+
+	private int miniBatchSize;
+	private int cursor = 0;
+	private DataSetPreProcessor myPreprocessor;
+
+	/* Streaming state, rebuilt by reset() */
+	private CsvFeed marketFeed;
+	private MultivariateFXSeries fxSeries;
+	private double[] symmetricCoeffs;
+	private int symmetricLength;
+	private boolean endOfFeed;
+
+	/*
+	 * Buffers indexed by observation p of the chopped series minus
+	 * bufferBase. Observation p is the (p - symmetricLength)-th
+	 * observation of the equivalent MDFADataSetIterator.
+	 */
+	private int capacity;
+	private int bufferBase;
+	private int bufferFilled;
+	private int nextLabel;
+	private double[] targets;
+	private double[][] featureColumns;
+	private double[][] labelColumns;
+	private boolean[] labelled;
+	private MDFABatchAssembler batchAssembler;
+
+	/**
+	 * Instantiates a streaming MDFA DataSet Iterator
+	 *
+	 * @param dataInputPaths A collection of csv files
+	 * @param fileInfo Metadata info for the files
+	 * @param anyMDFAs A collection of feature extractors
+	 * @param miniBatchSize MiniBatchSize
+	 * @param totalExamples
+	 * @param timeStepLength Length of the time series
+	 * @param memoryBudgetBytes Approximate number of bytes used for buffered features and labels
+	 * @throws Exception
+	 */
+	public MDFAStreamingDataSetIterator(String[] dataInputPaths,
+			                            TimeSeriesFile fileInfo,
+			                            MDFABase[] anyMDFAs,
+			                            int miniBatchSize,
+			                            int totalExamples,
+			                            int timeStepLength,
+			                            long memoryBudgetBytes) throws Exception {
+
+		this.dataInputPaths = dataInputPaths;
+		this.fileInfo = fileInfo;
+		this.anyMDFAs = anyMDFAs;
+		this.numberOfFeatures = anyMDFAs.length;
+		this.miniBatchSize = miniBatchSize;
+		this.totalExamples = totalExamples;
+		this.timeStepLength = timeStepLength;
+		this.memoryBudgetBytes = memoryBudgetBytes;
+
+		openFeed();
+	}
+
+	/**
+	 * Opens the csv feed and initializes the filters exactly as
+	 * MDFAFeatureStore.buildClassificationStore does, then moves
+	 * the remaining observations of the initialization into the buffers
+	 */
+	private void openFeed() throws Exception {
+
+		marketFeed = new CsvFeed(dataInputPaths,
+				                 fileInfo.getDateTimeIndexName(),
+				                 fileInfo.getPriceColumnName());
+
+		fxSeries = new MultivariateFXSeries(anyMDFAs, fileInfo.getDateTimeFormat());
+		fxSeries.addSeries(new TargetSeries(1.0, true, "TargetSeries"));
+		fxSeries.setWhiteNoisePrefilters(36);
+
+		int initializeLength = anyMDFAs[0].getSeriesLength();
+
+        for(int i = 0; i < initializeLength; i++) {
+
+			TimeSeriesEntry<double[]> observation = marketFeed.getNextMultivariateObservation();
+			fxSeries.addValue(observation.getDateTime(), observation.getValue());
+		}
+
+        fxSeries.chopFirstObservations(fxSeries.getSeries(0).getCoefficientSet(0).length);
+        symmetricLength = fxSeries.getSeries(0).getCoefficientSet(0).length;
+
+        symmetricCoeffs = new SymmetricLabelizer(anyMDFAs[0].getLowPassCutoff(), symmetricLength)
+        		                                .computeSymmetricFilter()
+        		                                .getSymmetricFilter();
+
+        int minimumCapacity = 2 * (miniBatchSize + timeStepLength + anyMDFAs[0].getFilterLength()
+        		                   + 2 * symmetricLength + initializeLength);
+        long bytesPerObservation = BYTES_PER_VALUE * (numberOfFeatures + VALUES_PER_OBSERVATION);
+        capacity = (int)Math.max(minimumCapacity,
+        		                 Math.min(Integer.MAX_VALUE / 2, memoryBudgetBytes / bytesPerObservation));
+
+        targets = new double[capacity];
+        featureColumns = new double[numberOfFeatures][capacity];
+        labelColumns = new double[2][capacity];
+        labelled = new boolean[capacity];
+        batchAssembler = new MDFABatchAssembler(featureColumns, labelColumns, labelled);
+
+        bufferBase = 0;
+        bufferFilled = 0;
+        nextLabel = 0;
+        endOfFeed = false;
+
+        for(int i = 0; i < fxSeries.size(); i++) {
+        	bufferObservation(i);
+        }
+	}
+
+	/**
+	 * Copies target and features of the i-th observation of
+	 * the series into the buffers
+	 */
+	private void bufferObservation(int i) {
+
+		int b = bufferFilled++;
+		targets[b] = fxSeries.getSeries(0).getTargetSeries().getTargetValue(i);
+
+		double[] features = fxSeries.getSignalValue(i);
+		for(int k = 0; k < numberOfFeatures; k++) {
+			featureColumns[k][b] = features[k];
+		}
+		labelled[b] = false;
+		labelColumns[0][b] = 0;
+		labelColumns[1][b] = 0;
+	}
+
+	/**
+	 * Labels every buffered observation whose symmetric filter
+	 * window is complete. As in SymmetricLabelizer.labelTimeSeriesInt,
+	 * observation p is labeled once observation p + L is available.
+	 */
+	private void labelBufferedObservations() {
+
+		int L = symmetricLength;
+		while(nextLabel + L < bufferBase + bufferFilled) {
+
+			int b = nextLabel - bufferBase;
+			if(nextLabel >= L - 1) {
+
+				double sum = 0.0;
+				for(int l = 0; l < L; l++) {
+			    	sum = sum + symmetricCoeffs[l]*targets[b + l];
+			    }
+			    for(int l = 1; l < L; l++) {
+			    	sum = sum + symmetricCoeffs[l]*targets[b - l];
+			    }
+
+			    labelColumns[sum > 0 ? 0 : 1][b] = 1.0;
+			    labelled[b] = true;
+			}
+			nextLabel++;
+		}
+	}
+
+	/**
+	 * Discards buffered observations that are behind the cursor and
+	 * no longer needed for labeling
+	 */
+	private void compactBuffers() {
+
+		int firstNeeded = Math.min(symmetricLength + cursor, nextLabel - symmetricLength + 1);
+		int drop = Math.max(0, firstNeeded - bufferBase);
+		if(drop > 0) {
+
+			int keep = bufferFilled - drop;
+			System.arraycopy(targets, drop, targets, 0, keep);
+			for(int k = 0; k < numberOfFeatures; k++) {
+				System.arraycopy(featureColumns[k], drop, featureColumns[k], 0, keep);
+			}
+			System.arraycopy(labelColumns[0], drop, labelColumns[0], 0, keep);
+			System.arraycopy(labelColumns[1], drop, labelColumns[1], 0, keep);
+			System.arraycopy(labelled, drop, labelled, 0, keep);
+
+			bufferBase += drop;
+			bufferFilled = keep;
+		}
+	}
+
+	/**
+	 * Reads the next chunk of the feed until the buffers
+	 * are full or the feed is exhausted
+	 */
+	private void readChunk() {
+
+		int retain = anyMDFAs[0].getSeriesLength();
+		while(bufferFilled < capacity) {
+
+			TimeSeriesEntry<double[]> observation = marketFeed.getNextMultivariateObservation();
+			if(observation == null) {
+				endOfFeed = true;
+				break;
+			}
+
+			fxSeries.addValue(observation.getDateTime(), observation.getValue());
+			bufferObservation(fxSeries.size() - 1);
+
+			if(fxSeries.size() > 2 * retain) {
+				fxSeries.chopFirstObservations(fxSeries.size() - retain);
+			}
+		}
+		labelBufferedObservations();
+	}
+
+	/**
+	 * Reads ahead until observation p of the series is buffered
+	 * and labeled, or the feed is exhausted
+	 *
+	 * @return true if observation p is available
+	 */
+	private boolean ensureBuffered(int p) {
+
+		while(nextLabel <= p && !endOfFeed) {
+
+			compactBuffers();
+			if(p + symmetricLength >= bufferBase + capacity) {
+				throw new IllegalStateException("Memory budget too small for a minibatch, capacity " + capacity);
+			}
+			readChunk();
+		}
+		return p < bufferBase + bufferFilled;
+	}
+
+
+	@Override
+	public boolean hasNext() {
+
+		/* same condition as MDFADataSetIterator: cursor + miniBatchSize + timeStepLength < size - filterLength */
+		int lastNeeded = symmetricLength + cursor + miniBatchSize + timeStepLength + anyMDFAs[0].getFilterLength();
+		return ensureBuffered(lastNeeded);
+	}
+
+	@Override
+	public DataSet next() {
+		return next(miniBatchSize);
+	}
+
+	@Override
+	public DataSet next(int miniBatchSize) {
+
+		this.miniBatchSize = miniBatchSize;
+		ensureBuffered(symmetricLength + cursor + miniBatchSize + timeStepLength);
+
+		DataSet batch = batchAssembler.classificationBatch(symmetricLength + cursor - bufferBase,
+				                                           miniBatchSize, timeStepLength);
+		cursor += miniBatchSize;
+		return batch;
+	}
+
+	@Override
+	public int totalExamples() {
+		return totalExamples;
+	}
+
+	@Override
+	public int inputColumns() {
+		return numberOfFeatures;
+	}
+
+	@Override
+	public int totalOutcomes() {
+		return 2;
+	}
+
+	@Override
+	public boolean resetSupported() {
+		return true;
+	}
+
+	@Override
+	public boolean asyncSupported() {
+		return false;
+	}
+
+	/**
+	 * Starts again from the beginning of the csv files
+	 */
+	@Override
+	public void reset() {
+
+		cursor = 0;
+		try {
+			openFeed();
+		}
+		catch (Exception e) {
+			throw new IllegalStateException("Could not reopen " + String.join(", ", dataInputPaths), e);
+		}
+	}
+
+	@Override
+	public int batch() {
+		return miniBatchSize;
+	}
+
+	@Override
+	public int cursor() {
+		return cursor;
+	}
+
+	@Override
+	public int numExamples() {
+		return totalExamples;
+	}
+
+	@Override
+	public void setPreProcessor(DataSetPreProcessor preProcessor) {
+		this.myPreprocessor = preProcessor;
+	}
+
+	@Override
+	public DataSetPreProcessor getPreProcessor() {
+		return myPreprocessor;
+	}
+
+	@Override
+	public List<String> getLabels() {
+		return null;
+	}
+
+	/**
+	 * @return Number of observations held in the buffers
+	 */
+	public int getBufferCapacity() {
+		return capacity;
+	}
+
+	public int getTimeStepLength() {
+		return timeStepLength;
+	}
+
+	public MDFABase[] getAnyMDFAs() {
+		return anyMDFAs;
+	}
+
+}
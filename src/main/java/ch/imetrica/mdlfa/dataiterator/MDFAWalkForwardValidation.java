@@ -0,0 +1,214 @@
+package ch.imetrica.mdlfa.dataiterator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import ch.imetrica.mdlfa.util.MDFATasks;
+
+/**
+ * Walk-forward validation over a single feature store.
+ *
+ * The usable observations of the store are cut into an initial
+ * training block followed by nFolds consecutive test blocks. Fold k
+ * is tested on the k-th test block and trained on the observations
+ * before it, either all of them (anchored) or only the last
+ * trainingWindow observations (rolling).
+ *
+ * The symmetric labels of an observation are computed from the
+ * following observations, so a training window ending right before
+ * the test block would see the test data through its labels. Every
+ * training range therefore ends embargo observations before its test
+ * block, which purges the training windows whose labels overlap the
+ * test block. The embargo is typically the length of the symmetric
+ * filter.
+ *
+ * The folds are only ranges of the store. Iterators over a fold are
+ * views on the shared store, see MDFADataSetIterator and
+ * MDFARegressionDataSetIterator, so the features are built once for
+ * all folds and the folds can be trained concurrently with run.
+ *
+ * The validation is configured like MDFABase, for example
+ * <code>new MDFAWalkForwardValidation(store.getUsableLength(), 10).setEmbargo(L)</code>
+ *
+ */
+public class MDFAWalkForwardValidation {
+
+	private final int usableLength;
+	private final int nFolds;
+	private int embargo = 0;
+	private int trainingWindow = 0;
+
+	/**
+	 * Training and test range of one fold, as observation indices
+	 * [from, to) of the feature store
+	 */
+	public static class Fold {
+
+		private final int index;
+		private final int trainFrom;
+		private final int trainTo;
+		private final int testFrom;
+		private final int testTo;
+
+		Fold(int index, int trainFrom, int trainTo, int testFrom, int testTo) {
+
+			this.index = index;
+			this.trainFrom = trainFrom;
+			this.trainTo = trainTo;
+			this.testFrom = testFrom;
+			this.testTo = testTo;
+		}
+
+		public int getIndex() {
+			return index;
+		}
+
+		public int getTrainFrom() {
+			return trainFrom;
+		}
+
+		public int getTrainTo() {
+			return trainTo;
+		}
+
+		public int getTestFrom() {
+			return testFrom;
+		}
+
+		public int getTestTo() {
+			return testTo;
+		}
+
+		@Override
+		public String toString() {
+			return "Fold " + index + ": train [" + trainFrom + ", " + trainTo
+					+ "), test [" + testFrom + ", " + testTo + ")";
+		}
+	}
+
+	/**
+	 * Trains and evaluates the model of one fold
+	 *
+	 * @param <R> Result of a fold, for example an evaluation
+	 */
+	public interface FoldTask<R> {
+
+		/**
+		 * @param fold Ranges of the fold
+		 * @return Result of the fold
+		 * @throws Exception
+		 */
+		R run(Fold fold) throws Exception;
+	}
+
+	/**
+	 * @param usableLength Usable length of the feature store, see MDFAFeatureStore.getUsableLength()
+	 * @param nFolds Number of folds
+	 */
+	public MDFAWalkForwardValidation(int usableLength, int nFolds) {
+
+		if(nFolds < 1) {
+			throw new IllegalArgumentException("Number of folds must be at least 1");
+		}
+		this.usableLength = usableLength;
+		this.nFolds = nFolds;
+	}
+
+	/**
+	 * @param embargo Number of observations between a training range and its test block
+	 * @return this
+	 */
+	public MDFAWalkForwardValidation setEmbargo(int embargo) {
+
+		if(embargo < 0) {
+			throw new IllegalArgumentException("Embargo must not be negative");
+		}
+		this.embargo = embargo;
+		return this;
+	}
+
+	/**
+	 * Trains every fold on at most the given number of observations
+	 * before its test block instead of all of them
+	 *
+	 * @param trainingWindow Length of the rolling training range, or 0 for anchored folds
+	 * @return this
+	 */
+	public MDFAWalkForwardValidation setTrainingWindow(int trainingWindow) {
+
+		if(trainingWindow < 0) {
+			throw new IllegalArgumentException("Training window must not be negative");
+		}
+		this.trainingWindow = trainingWindow;
+		return this;
+	}
+
+	public int getNumberOfFolds() {
+		return nFolds;
+	}
+
+	public int getEmbargo() {
+		return embargo;
+	}
+
+	public int getTrainingWindow() {
+		return trainingWindow;
+	}
+
+	/**
+	 * Splits the usable observations into the folds. The initial
+	 * training block and the test blocks have the same length, the
+	 * remainder of the division goes to the initial training block.
+	 *
+	 * @return The folds in chronological order
+	 */
+	public List<Fold> getFolds() {
+
+		int blockLength = usableLength / (nFolds + 1);
+		if(blockLength <= embargo) {
+			throw new IllegalStateException("Usable length " + usableLength + " too short for "
+					+ nFolds + " folds with an embargo of " + embargo);
+		}
+
+		List<Fold> folds = new ArrayList<Fold>(nFolds);
+		int testFrom = usableLength - nFolds * blockLength;
+		for(int k = 0; k < nFolds; k++) {
+
+			int trainTo = testFrom - embargo;
+			int trainFrom = (trainingWindow > 0) ? Math.max(0, trainTo - trainingWindow) : 0;
+			folds.add(new Fold(k, trainFrom, trainTo, testFrom, testFrom + blockLength));
+			testFrom += blockLength;
+		}
+		return folds;
+	}
+
+	/**
+	 * Runs the task of every fold concurrently on the given pool. The
+	 * tasks share the feature store, which is only read, and should
+	 * each train their own model.
+	 *
+	 * @param task Trains and evaluates one fold
+	 * @param pool Pool running the folds, for example ForkJoinPool.commonPool()
+	 * @return The results in the order of the folds
+	 * @throws Exception The first failure of any fold
+	 */
+	public <R> List<R> run(final FoldTask<R> task, ExecutorService pool) throws Exception {
+
+		List<Callable<R>> runs = new ArrayList<Callable<R>>();
+		for(final Fold fold : getFolds()) {
+
+			runs.add(new Callable<R>() {
+
+				@Override
+				public R call() throws Exception {
+					return task.run(fold);
+				}
+			});
+		}
+
+		return MDFATasks.invokeAll(pool, runs);
+	}
+
+}
@@ -0,0 +1,139 @@
+package ch.imetrica.mdlfa.dataiterator;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * Serves the sliding windows of a feature store as strided views
+ * on a single contiguous buffer instead of copying every window.
+ *
+ * The features of all N observations are copied once into one
+ * buffer laid out as [column][observation]. Consecutive windows
+ * overlap in all but one observation, so a minibatch of windows
+ * starting at observations start, start+1, ... is the view with
+ * shape [miniBatch, columns, time], strides [1, N, 1] and offset
+ * start. The same holds for the labels. Building a minibatch then
+ * touches no feature data at all, and memory traffic is one copy of
+ * the store instead of one copy per window.
+ *
+ * The views share their memory with the engine and with each other,
+ * so they must be treated as read-only: in-place preprocessing
+ * such as a DataNormalization set on an iterator would modify
+ * the store itself.
+ *
+ */
+public class MDFAWindowEngine {
+
+	private final int nObservations;
+	private final int nFeatures;
+	private final int nOutcomes;
+
+	private final DataBuffer featureBuffer;
+	private final DataBuffer labelBuffer;
+
+	/* Masks depend only on the shape of the minibatch, so they are shared as well */
+	private final ConcurrentMap<Long, INDArray[]> maskCache = new ConcurrentHashMap<Long, INDArray[]>();
+
+	/**
+	 * Copies the columns of the assembler into one feature
+	 * and one label buffer
+	 *
+	 * @param batchAssembler Assembler holding the primitive columns of a store
+	 */
+	public MDFAWindowEngine(MDFABatchAssembler batchAssembler) {
+
+		double[][] featureColumns = batchAssembler.getFeatureColumns();
+		double[][] labelColumns = batchAssembler.getLabelColumns();
+
+		this.nObservations = batchAssembler.size();
+		this.nFeatures = featureColumns.length;
+		this.nOutcomes = labelColumns.length;
+
+		this.featureBuffer = Nd4j.createBuffer(flatten(featureColumns, nObservations));
+		this.labelBuffer = Nd4j.createBuffer(flatten(labelColumns, nObservations));
+	}
+
+	private static double[] flatten(double[][] columns, int n) {
+
+		double[] flat = new double[columns.length * n];
+		for(int k = 0; k < columns.length; k++) {
+			System.arraycopy(columns[k], 0, flat, k * n, n);
+		}
+		return flat;
+	}
+
+	/**
+	 * Minibatch of windows as a view with the layout of MDFADataSetIterator,
+	 * see MDFABatchAssembler.classificationBatch
+	 *
+	 * @param start Index of the first observation of the first window
+	 * @param miniBatchSize Number of windows
+	 * @param timeStepLength Length of each window
+	 * @return DataSet of views on the engine buffers
+	 */
+	public DataSet classificationBatch(int start, int miniBatchSize, int timeStepLength) {
+
+		INDArray[] masks = classificationMasks(miniBatchSize, timeStepLength);
+		return new DataSet(window(featureBuffer, nFeatures, start, miniBatchSize, timeStepLength, 'c'),
+				           window(labelBuffer, nOutcomes, start, miniBatchSize, timeStepLength, 'c'),
+				           masks[0], masks[1]);
+	}
+
+	/**
+	 * Minibatch of windows as a view with the layout of MDFARegressionDataSetIterator,
+	 * see MDFABatchAssembler.regressionBatch
+	 *
+	 * @param start Index of the first observation of the first window
+	 * @param miniBatchSize Number of windows
+	 * @param timeStepLength Length of each window
+	 * @return DataSet of views on the engine buffers
+	 */
+	public DataSet regressionBatch(int start, int miniBatchSize, int timeStepLength) {
+
+		return new DataSet(window(featureBuffer, nFeatures, start, miniBatchSize, timeStepLength, 'f'),
+				           window(labelBuffer, nOutcomes, start, miniBatchSize, timeStepLength, 'f'));
+	}
+
+	private INDArray window(DataBuffer buffer, int nColumns, int start,
+			                int miniBatchSize, int timeStepLength, char ordering) {
+
+		if(start < 0 || start + miniBatchSize + timeStepLength - 1 > nObservations) {
+			throw new IndexOutOfBoundsException("Window batch at " + start + " exceeds "
+					+ nObservations + " observations");
+		}
+		return Nd4j.create(buffer,
+				           new int[]{ miniBatchSize, nColumns, timeStepLength },
+				           new int[]{ 1, nObservations, 1 },
+				           start, ordering);
+	}
+
+	private INDArray[] classificationMasks(int miniBatchSize, int timeStepLength) {
+
+		Long key = ((long)miniBatchSize << 32) | timeStepLength;
+		INDArray[] masks = maskCache.get(key);
+		if(masks == null) {
+
+			INDArray inputMask = Nd4j.ones(new int[]{ miniBatchSize, timeStepLength });
+			INDArray labelsMask = Nd4j.zeros(new int[]{ miniBatchSize, timeStepLength });
+			for(int i = 0; i < miniBatchSize; i++) {
+				labelsMask.putScalar(new int[]{ i, timeStepLength - 1 }, 1);
+			}
+			masks = new INDArray[]{ inputMask, labelsMask };
+			INDArray[] existing = maskCache.putIfAbsent(key, masks);
+			if(existing != null) {
+				masks = existing;
+			}
+		}
+		return masks;
+	}
+
+	public int size() {
+		return nObservations;
+	}
+
+}
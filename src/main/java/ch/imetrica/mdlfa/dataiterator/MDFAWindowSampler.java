@@ -0,0 +1,148 @@
+package ch.imetrica.mdlfa.dataiterator;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Decides which windows of a feature store an iterator visits and
+ * in which order.
+ *
+ * The sampler first builds a compact index of the valid window
+ * start positions, once per iterator. A window is valid when every
+ * observation in it has a label, so windows running into the
+ * unlabelled ends of the symmetric filter are never assembled.
+ * Candidate starts are taken every stride observations.
+ *
+ * Every epoch then draws its windows from that index: in order, or
+ * shuffled with a seeded random number generator, and capped at a
+ * maximum number of examples. A minibatch is simply a slice of the
+ * epoch's window starts.
+ *
+ * The sampler is configured like MDFABase, for example
+ * <code>new MDFAWindowSampler().setStride(5).setShuffle(123)</code>
+ *
+ */
+public class MDFAWindowSampler {
+
+	private int stride = 1;
+	private boolean shuffle = false;
+	private Random random;
+
+	/**
+	 * @param stride Distance between the starts of two candidate windows
+	 * @return this
+	 */
+	public MDFAWindowSampler setStride(int stride) {
+
+		if(stride < 1) {
+			throw new IllegalArgumentException("Stride must be at least 1");
+		}
+		this.stride = stride;
+		return this;
+	}
+
+	/**
+	 * Shuffles the windows of every epoch. The sequence of epochs
+	 * is reproducible for a given seed.
+	 *
+	 * @param seed Seed of the random number generator
+	 * @return this
+	 */
+	public MDFAWindowSampler setShuffle(long seed) {
+
+		this.shuffle = true;
+		this.random = new Random(seed);
+		return this;
+	}
+
+	public int getStride() {
+		return stride;
+	}
+
+	public boolean isShuffle() {
+		return shuffle;
+	}
+
+	/**
+	 * Builds the index of valid window starts in [fromIndex, toIndex).
+	 * A window starting at s covers [s, s + timeStepLength), must end
+	 * before toIndex and must only contain labelled observations.
+	 *
+	 * @param labelled true if the observation at this index has a label
+	 * @param fromIndex First candidate start
+	 * @param toIndex End of the range covered by windows
+	 * @param timeStepLength Length of each window
+	 * @return Valid window starts in increasing order
+	 */
+	public int[] indexValidWindows(boolean[] labelled, int fromIndex, int toIndex, int timeStepLength) {
+
+		int end = Math.min(toIndex, labelled.length);
+
+		/* unlabelledBefore[j] = number of unlabelled observations in [fromIndex, fromIndex + j) */
+		int[] unlabelledBefore = new int[Math.max(end - fromIndex, 0) + 1];
+		for(int j = fromIndex; j < end; j++) {
+			unlabelledBefore[j - fromIndex + 1] = unlabelledBefore[j - fromIndex] + (labelled[j] ? 0 : 1);
+		}
+
+		int[] starts = new int[Math.max(end - fromIndex, 0) / stride + 1];
+		int count = 0;
+		for(int s = fromIndex; s + timeStepLength <= end; s += stride) {
+
+			int a = s - fromIndex;
+			if(unlabelledBefore[a + timeStepLength] == unlabelledBefore[a]) {
+				starts[count++] = s;
+			}
+		}
+		return Arrays.copyOf(starts, count);
+	}
+
+	/**
+	 * Draws the window starts of the next epoch
+	 *
+	 * @param validStarts Index built by indexValidWindows
+	 * @param maxExamples Maximum number of windows in the epoch, or 0 for all
+	 * @return Window starts of the epoch, a new array
+	 */
+	public int[] sampleEpoch(int[] validStarts, int maxExamples) {
+
+		int[] epoch = validStarts.clone();
+
+		if(shuffle) {
+			synchronized(random) {
+				for(int i = epoch.length - 1; i > 0; i--) {
+					int j = random.nextInt(i + 1);
+					int swap = epoch[i];
+					epoch[i] = epoch[j];
+					epoch[j] = swap;
+				}
+			}
+		}
+
+		if(maxExamples > 0 && maxExamples < epoch.length) {
+			epoch = Arrays.copyOf(epoch, maxExamples);
+		}
+		return epoch;
+	}
+
+	/**
+	 * Checks whether a slice of window starts is a run of consecutive
+	 * windows, which a window engine can serve as a single view. A 
+	 * shuffled slice may span a run without being one, so every start
+	 * is compared with its predecessor.
+	 *
+	 * @param starts Window starts of an epoch
+	 * @param offset Position of the first window of the slice
+	 * @param count Number of windows in the slice
+	 * @return true if every start is the previous start plus one
+	 */
+	public static boolean isConsecutive(int[] starts, int offset, int count) {
+
+		for(int i = offset + 1; i < offset + count; i++) {
+			if(starts[i] != starts[i - 1] + 1) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,131 @@
+package ch.imetrica.mdlfa.examples;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import ch.imetrica.mdfa.datafeeds.CsvFeed;
+import ch.imetrica.mdfa.mdfa.MDFABase;
+import ch.imetrica.mdfa.series.MultivariateFXSeries;
+import ch.imetrica.mdfa.series.TargetSeries;
+import ch.imetrica.mdfa.series.TimeSeriesEntry;
+import ch.imetrica.mdlfa.features.MDFAFilterBank;
+import ch.imetrica.mdlfa.util.TimeSeriesFile;
+
+/**
+ * Measures how solving the filter coefficients of a bank of feature
+ * extractors scales with the size of the bank and the number of
+ * threads.
+ *
+ * For every bank size, the coefficients are first solved one after
+ * another by a single MultivariateFXSeries holding the whole bank,
+ * as MDFAFeatureStore does without a bank pool, and then by an
+ * MDFAFilterBank on pools of increasing size. Each measurement is the
+ * best of a few repetitions after a warm-up, printed in milliseconds
+ * together with the speedup over the sequential solve.
+ *
+ */
+public class MDFAFilterBankBenchmark {
+
+	private static final int[] BANK_SIZES = { 5, 10, 20, 40 };
+	private static final int REPETITIONS = 5;
+
+	public static void main(String[] args) throws Exception {
+
+		String[] dataFiles = new String[1];
+		dataFiles[0] = "src/main/resources/stockDailyData/AAPL.daily.csv";
+		TimeSeriesFile fileInfo = new TimeSeriesFile("yyyy-MM-dd", "Index", "Open");
+
+		int maxThreads = Runtime.getRuntime().availableProcessors();
+		List<TimeSeriesEntry<double[]>> initialization = readInitialization(dataFiles, fileInfo, 400);
+
+		System.out.println("bank, sequential ms, threads, bank ms, speedup");
+		for(int bankSize : BANK_SIZES) {
+
+			MDFABase[] anyMDFAs = createBank(bankSize);
+
+			solveSequential(anyMDFAs, fileInfo, initialization);
+			long sequential = Long.MAX_VALUE;
+			for(int r = 0; r < REPETITIONS; r++) {
+				sequential = Math.min(sequential, solveSequential(anyMDFAs, fileInfo, initialization));
+			}
+
+			for(int threads = 1; threads <= maxThreads; threads *= 2) {
+
+				ExecutorService pool = Executors.newFixedThreadPool(threads);
+				MDFAFilterBank bank = new MDFAFilterBank(anyMDFAs, fileInfo.getDateTimeFormat(), 0.7, pool);
+
+				bank.solve(initialization);
+				long parallel = Long.MAX_VALUE;
+				for(int r = 0; r < REPETITIONS; r++) {
+
+					long start = System.nanoTime();
+					bank.solve(initialization);
+					parallel = Math.min(parallel, System.nanoTime() - start);
+				}
+				pool.shutdown();
+
+				System.out.println(String.format("%d, %.1f, %d, %.1f, %.2f", bankSize, sequential / 1e6,
+						threads, parallel / 1e6, (double)sequential / parallel));
+			}
+		}
+	}
+
+	private static long solveSequential(MDFABase[] anyMDFAs,
+			                            TimeSeriesFile fileInfo,
+			                            List<TimeSeriesEntry<double[]>> initialization) {
+
+		long start = System.nanoTime();
+
+		MultivariateFXSeries fxSeries = new MultivariateFXSeries(anyMDFAs, fileInfo.getDateTimeFormat());
+		fxSeries.addSeries(new TargetSeries(0.7, true, "TargetSeries"));
+		fxSeries.setWhiteNoisePrefilters(36);
+		for(TimeSeriesEntry<double[]> observation : initialization) {
+			fxSeries.addValue(observation.getDateTime(), observation.getValue());
+		}
+		fxSeries.computeAllFilterCoefficients();
+
+		return System.nanoTime() - start;
+	}
+
+	private static List<TimeSeriesEntry<double[]>> readInitialization(String[] dataFiles,
+			                                                          TimeSeriesFile fileInfo,
+			                                                          int seriesLength) throws Exception {
+
+		CsvFeed marketFeed = new CsvFeed(dataFiles, fileInfo.getDateTimeIndexName(), fileInfo.getPriceColumnName());
+
+		List<TimeSeriesEntry<double[]>> observations = new ArrayList<TimeSeriesEntry<double[]>>();
+		for(int i = 0; i < seriesLength; i++) {
+			observations.add(marketFeed.getNextMultivariateObservation());
+		}
+		return observations;
+	}
+
+	/**
+	 * A bank of lowpass and bandpass extractors with cutoffs
+	 * spread between pi/40 and pi/4
+	 */
+	private static MDFABase[] createBank(int bankSize) {
+
+		MDFABase[] anyMDFAs = new MDFABase[bankSize];
+		for(int k = 0; k < bankSize; k++) {
+
+			double cutoff = Math.PI / (4.0 + 36.0 * k / bankSize);
+			anyMDFAs[k] = (new MDFABase()).setLowpassCutoff(cutoff)
+					.setSmooth(.2)
+					.setDecayStart(.1)
+					.setDecayStrength(.2)
+					.setLag(-1.0)
+					.setAlpha(2.0)
+					.setSeriesLength(400)
+					.setFilterLength(5);
+
+			if(k % 2 == 1) {
+				anyMDFAs[k].setBandPassCutoff(cutoff / 1.25);
+			}
+		}
+		return anyMDFAs;
+	}
+
+}
@@ -83,6 +83,9 @@ public class MDFARegressionExample {
 		
 		
 		RecurrentMdfaRegression myNet = new RecurrentMdfaRegression();
+		
+		/* features are built once and read from a snapshot by later runs */
+		myNet.setSnapshotDirectory("target/mdfa-snapshots");
     	myNet.setTrainingTestData(dataFiles, fileInfo, 
     			                  miniBatchSize, totalTrainExamples, 
     			                  totalTestExamples, timeStepLength);
@@ -0,0 +1,254 @@
+package ch.imetrica.mdlfa.features;
+
+import org.apache.commons.math3.transform.DftNormalization;
+import org.apache.commons.math3.transform.FastFourierTransformer;
+import org.apache.commons.math3.transform.TransformType;
+
+/**
+ * Offline filtering of a whole history by a bank of MDFA filters.
+ *
+ * The output of filter k at observation t is the sum over l of
+ * coefficients[k][l] * x[t - l], with observations before the start of
+ * the history taken as zeros, as in MDFAStreamingFeatureEngine. Direct
+ * convolution costs N*K*L multiply-adds for N observations, K filters
+ * and filter length L. Short banks, such as the default banks of
+ * MDFAFeatureExtraction with filter length 5, are applied directly by
+ * a tiled kernel over the primitive columns.
+ *
+ * For long filters the bank is applied with overlap-save FFT
+ * convolution instead. The history is cut into overlapping blocks of
+ * length M, a power of two of about 8*L. Every block is transformed
+ * once for all filters, and two real filters share one inverse
+ * transform by packing them as the real and imaginary part of a
+ * complex filter. The filter transforms are computed once per call.
+ * The transforms run in place on primitive arrays.
+ *
+ * The path is chosen by the length of the longest filter: direct
+ * convolution below fftThreshold, FFT from there on. Both paths agree
+ * to within floating point rounding.
+ *
+ * The filter is configured like MDFABase, for example
+ * <code>new MDFABatchFilter().setFftThreshold(48)</code>
+ *
+ */
+public class MDFABatchFilter {
+
+	/* Crossover filter length of the two paths */
+	public static final int DEFAULT_FFT_THRESHOLD = 32;
+
+	/* Observations per tile of the direct path, 4 KB of each column */
+	private static final int TILE_LENGTH = 512;
+
+	private int fftThreshold = DEFAULT_FFT_THRESHOLD;
+
+	/**
+	 * @param fftThreshold Shortest filter length filtered with FFT
+	 * @return this
+	 */
+	public MDFABatchFilter setFftThreshold(int fftThreshold) {
+
+		if(fftThreshold < 1) {
+			throw new IllegalArgumentException("FFT threshold must be at least 1");
+		}
+		this.fftThreshold = fftThreshold;
+		return this;
+	}
+
+	public int getFftThreshold() {
+		return fftThreshold;
+	}
+
+	/**
+	 * @param filterLength Length of the longest filter of a bank
+	 * @return true if a bank with this filter length is filtered with FFT
+	 */
+	public boolean usesFft(int filterLength) {
+		return filterLength >= fftThreshold;
+	}
+
+	/**
+	 * Filters the history with every filter of the bank
+	 *
+	 * @param x History of the target series
+	 * @param coefficients Coefficients of every filter
+	 * @return Output of filter k at observation t in [k][t]
+	 */
+	public double[][] filter(double[] x, double[][] coefficients) {
+
+		double[][] features = new double[coefficients.length][x.length];
+		filter(x, coefficients, features);
+		return features;
+	}
+
+	/**
+	 * Filters the history with every filter of the bank into the
+	 * given feature columns
+	 *
+	 * @param x History of the target series
+	 * @param coefficients Coefficients of every filter
+	 * @param features Receives the output of filter k at observation t in [k][t]
+	 */
+	public void filter(double[] x, double[][] coefficients, double[][] features) {
+		filter(x, coefficients, features, 0);
+	}
+
+	/**
+	 * Filters the history with every filter of the bank into a feature
+	 * matrix with further columns, such as the feature columns of a
+	 * regression store, where column 0 holds the target series
+	 *
+	 * @param x History of the target series
+	 * @param coefficients Coefficients of every filter
+	 * @param features Receives the output of filter k at observation t in [firstColumn + k][t]
+	 * @param firstColumn Column of the first filter
+	 */
+	public void filter(double[] x, double[][] coefficients, double[][] features, int firstColumn) {
+		filter(x, x.length, coefficients, features, firstColumn);
+	}
+
+	/**
+	 * Filters the first n observations of a buffer, such as a buffer
+	 * reused for histories of different lengths
+	 *
+	 * @param x Buffer holding the history of the target series from index 0
+	 * @param n Length of the history
+	 * @param coefficients Coefficients of every filter
+	 * @param features Receives the output of filter k at observation t in [firstColumn + k][t]
+	 * @param firstColumn Column of the first filter
+	 */
+	public void filter(double[] x, int n, double[][] coefficients, double[][] features, int firstColumn) {
+
+		int filterLength = 1;
+		for(double[] coefficientSet : coefficients) {
+			filterLength = Math.max(filterLength, coefficientSet.length);
+		}
+
+		if(usesFft(filterLength)) {
+			filterFft(x, n, coefficients, filterLength, features, firstColumn);
+		}
+		else {
+			filterDirect(x, n, coefficients, features, firstColumn);
+		}
+	}
+
+	/**
+	 * Direct convolution of the history with every filter. The first
+	 * L-1 observations of a filter, which reach before the history,
+	 * are computed one by one. The rest of the history is processed in
+	 * tiles that stay in the cache while all K filters are applied to
+	 * them. Within a tile, every filter accumulates four lags per pass
+	 * over the tile, and each pass is a plain loop over primitive
+	 * arrays that the JIT compiler can vectorize.
+	 */
+	static void filterDirect(double[] x, int n, double[][] coefficients, double[][] features, int firstColumn) {
+
+		for(int k = 0; k < coefficients.length; k++) {
+
+			double[] b = coefficients[k];
+			double[] y = features[firstColumn + k];
+			int head = Math.min(b.length - 1, n);
+			for(int t = 0; t < head; t++) {
+
+				double sum = 0;
+				for(int l = 0; l <= t; l++) {
+					sum += b[l] * x[t - l];
+				}
+				y[t] = sum;
+			}
+		}
+
+		for(int tile = 0; tile < n; tile += TILE_LENGTH) {
+
+			int end = Math.min(tile + TILE_LENGTH, n);
+			for(int k = 0; k < coefficients.length; k++) {
+
+				double[] b = coefficients[k];
+				double[] y = features[firstColumn + k];
+				int filterLength = b.length;
+				int start = Math.max(tile, filterLength - 1);
+				if(start >= end) {
+					continue;
+				}
+
+				for(int t = start; t < end; t++) {
+					y[t] = 0;
+				}
+
+				int l = 0;
+				for(; l + 3 < filterLength; l += 4) {
+
+					double b0 = b[l], b1 = b[l + 1], b2 = b[l + 2], b3 = b[l + 3];
+					for(int t = start; t < end; t++) {
+						y[t] += b0 * x[t - l] + b1 * x[t - l - 1] + b2 * x[t - l - 2] + b3 * x[t - l - 3];
+					}
+				}
+				for(; l < filterLength; l++) {
+
+					double b0 = b[l];
+					for(int t = start; t < end; t++) {
+						y[t] += b0 * x[t - l];
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Overlap-save convolution of the history with every filter
+	 */
+	static void filterFft(double[] x, int n, double[][] coefficients, int filterLength, double[][] features, int firstColumn) {
+
+		int nFilters = coefficients.length;
+		int nPairs = (nFilters + 1) / 2;
+		int overlap = filterLength - 1;
+		int m = Integer.highestOneBit(Math.max(8 * filterLength, 64) - 1) << 1;
+		int step = m - overlap;
+
+		/* transforms of the filter pairs, filter 2p real and 2p+1 imaginary */
+		double[][][] pairs = new double[nPairs][2][m];
+		for(int p = 0; p < nPairs; p++) {
+
+			double[] b = coefficients[2 * p];
+			System.arraycopy(b, 0, pairs[p][0], 0, b.length);
+			if(2 * p + 1 < nFilters) {
+				b = coefficients[2 * p + 1];
+				System.arraycopy(b, 0, pairs[p][1], 0, b.length);
+			}
+			FastFourierTransformer.transformInPlace(pairs[p], DftNormalization.STANDARD, TransformType.FORWARD);
+		}
+
+		double[][] block = new double[2][m];
+		double[][] product = new double[2][m];
+
+		for(int start = 0; start < n; start += step) {
+
+			/* block covers x[start - overlap, start - overlap + m), zero outside the history */
+			int from = start - overlap;
+			for(int i = 0; i < m; i++) {
+				int t = from + i;
+				block[0][i] = (t >= 0 && t < n) ? x[t] : 0;
+				block[1][i] = 0;
+			}
+			FastFourierTransformer.transformInPlace(block, DftNormalization.STANDARD, TransformType.FORWARD);
+
+			int count = Math.min(step, n - start);
+			for(int p = 0; p < nPairs; p++) {
+
+				double[] hr = pairs[p][0];
+				double[] hi = pairs[p][1];
+				for(int i = 0; i < m; i++) {
+					product[0][i] = block[0][i] * hr[i] - block[1][i] * hi[i];
+					product[1][i] = block[0][i] * hi[i] + block[1][i] * hr[i];
+				}
+				FastFourierTransformer.transformInPlace(product, DftNormalization.STANDARD, TransformType.INVERSE);
+
+				/* the first overlap outputs of a block are circular, the rest is the linear convolution */
+				System.arraycopy(product[0], overlap, features[firstColumn + 2 * p], start, count);
+				if(2 * p + 1 < nFilters) {
+					System.arraycopy(product[1], overlap, features[firstColumn + 2 * p + 1], start, count);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,246 @@
+package ch.imetrica.mdlfa.features;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import ch.imetrica.mdfa.mdfa.MDFABase;
+
+/**
+ * A feature bank with its solved coefficients in one binary file.
+ *
+ * The bundle holds every MDFABase parameter of the bank, the solved
+ * coefficient set of every extractor and the configuration of the
+ * target series the bank was solved on: the target weight, the number
+ * of white-noise prefilters of the MultivariateFXSeries and the date
+ * format. An inference process reads the bundle with a single mapping
+ * of the file and filters with the coefficients right away, for
+ * example through createStreamingEngine or MDFABatchFilter, without
+ * solving any MDFA system.
+ *
+ * Layout, little endian: a header of 4 ints and the target weight,
+ * then per extractor 9 double parameters and 4 ints (i1, series
+ * length, filter length, number of coefficients), then all coefficient
+ * sets one after another and finally the date format as length
+ * prefixed UTF-8. Every block starts on an 8 byte boundary, so the
+ * coefficients are bulk copied from the mapping.
+ *
+ * <code>MDFACoefficientBundle.write(new File("bank.mdfab"), bank)</code>
+ *
+ */
+public class MDFACoefficientBundle {
+
+	private static final int MAGIC = 0x4D444642;
+
+	/* Change whenever the layout changes */
+	private static final int VERSION = 1;
+
+	private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+	private static final int HEADER_LENGTH = 4 * 4 + 8;
+	private static final int EXTRACTOR_LENGTH = 9 * 8 + 4 * 4;
+
+	private final MDFABase[] anyMDFAs;
+	private final double[][] coefficients;
+	private final double targetWeight;
+	private final int whiteNoisePrefilters;
+	private final String dateTimeFormat;
+
+	/**
+	 * @param anyMDFAs A collection of feature extractors
+	 * @param coefficients Solved coefficients of every extractor
+	 * @param targetWeight Weight of the target series the coefficients were solved on
+	 * @param whiteNoisePrefilters Number of white-noise prefilters of the series
+	 * @param dateTimeFormat Format of the observation dates
+	 */
+	public MDFACoefficientBundle(MDFABase[] anyMDFAs,
+			                     double[][] coefficients,
+			                     double targetWeight,
+			                     int whiteNoisePrefilters,
+			                     String dateTimeFormat) {
+
+		if(coefficients.length != anyMDFAs.length) {
+			throw new IllegalArgumentException("Expected " + anyMDFAs.length
+					+ " coefficient sets, got " + coefficients.length);
+		}
+		this.anyMDFAs = anyMDFAs;
+		this.coefficients = coefficients;
+		this.targetWeight = targetWeight;
+		this.whiteNoisePrefilters = whiteNoisePrefilters;
+		this.dateTimeFormat = dateTimeFormat;
+	}
+
+	/**
+	 * Bundles the published coefficients of a solved bank
+	 *
+	 * @param bank A solved filter bank
+	 */
+	public MDFACoefficientBundle(MDFAFilterBank bank) {
+		this(bank.getFeatureExtractors(), bank.getCoefficients(), bank.getTargetWeight(),
+				MDFAFilterBank.WHITE_NOISE_PREFILTERS, bank.getDateTimeFormat());
+	}
+
+	/**
+	 * Writes the bundle of a solved bank
+	 *
+	 * @param file Bundle file
+	 * @param bank A solved filter bank
+	 * @throws IOException
+	 */
+	public static void write(File file, MDFAFilterBank bank) throws IOException {
+		new MDFACoefficientBundle(bank).write(file);
+	}
+
+	/**
+	 * Writes the bundle. The file is written under a temporary name
+	 * and then moved into place, so a concurrent reader never sees a
+	 * partial bundle.
+	 *
+	 * @param file Bundle file
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException {
+
+		byte[] format = dateTimeFormat.getBytes(StandardCharsets.UTF_8);
+		long nCoefficients = 0;
+		for(double[] coefficientSet : coefficients) {
+			nCoefficients += coefficientSet.length;
+		}
+		long length = HEADER_LENGTH + (long)EXTRACTOR_LENGTH * anyMDFAs.length + 8 * nCoefficients + 4 + format.length;
+
+		File parent = file.getAbsoluteFile().getParentFile();
+		if(!parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("Could not create " + parent);
+		}
+		File temporary = File.createTempFile(file.getName(), ".tmp", parent);
+
+		try(RandomAccessFile out = new RandomAccessFile(temporary, "rw")) {
+
+			MappedByteBuffer buffer = out.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+			buffer.order(ORDER);
+
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt(anyMDFAs.length);
+			buffer.putInt(whiteNoisePrefilters);
+			buffer.putDouble(targetWeight);
+
+			for(int k = 0; k < anyMDFAs.length; k++) {
+
+				MDFABase anyMDFA = anyMDFAs[k];
+				buffer.putDouble(anyMDFA.getLowPassCutoff());
+				buffer.putDouble(anyMDFA.getBandPassCutoff());
+				buffer.putDouble(anyMDFA.getSmooth());
+				buffer.putDouble(anyMDFA.getDecayStart());
+				buffer.putDouble(anyMDFA.getDecayStrength());
+				buffer.putDouble(anyMDFA.getLag());
+				buffer.putDouble(anyMDFA.getLambda());
+				buffer.putDouble(anyMDFA.getAlpha());
+				buffer.putDouble(anyMDFA.getHybridForecast());
+				buffer.putInt(anyMDFA.getI1());
+				buffer.putInt(anyMDFA.getSeriesLength());
+				buffer.putInt(anyMDFA.getFilterLength());
+				buffer.putInt(coefficients[k].length);
+			}
+
+			for(double[] coefficientSet : coefficients) {
+				buffer.asDoubleBuffer().put(coefficientSet);
+				buffer.position(buffer.position() + 8 * coefficientSet.length);
+			}
+
+			buffer.putInt(format.length);
+			buffer.put(format);
+			buffer.force();
+		}
+
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Reads a bundle with one mapping of the file
+	 *
+	 * @param file Bundle file
+	 * @return The bundle
+	 * @throws IOException If the file is not a valid bundle
+	 */
+	public static MDFACoefficientBundle read(File file) throws IOException {
+
+		try(RandomAccessFile in = new RandomAccessFile(file, "r")) {
+
+			MappedByteBuffer buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+			buffer.order(ORDER);
+
+			if(buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+				throw new IOException(file + " is not a coefficient bundle of this version");
+			}
+
+			int nExtractors = buffer.getInt();
+			int whiteNoisePrefilters = buffer.getInt();
+			double targetWeight = buffer.getDouble();
+
+			MDFABase[] anyMDFAs = new MDFABase[nExtractors];
+			double[][] coefficients = new double[nExtractors][];
+			for(int k = 0; k < nExtractors; k++) {
+
+				anyMDFAs[k] = (new MDFABase()).setLowpassCutoff(buffer.getDouble())
+						.setBandPassCutoff(buffer.getDouble())
+						.setSmooth(buffer.getDouble())
+						.setDecayStart(buffer.getDouble())
+						.setDecayStrength(buffer.getDouble())
+						.setLag(buffer.getDouble())
+						.setLambda(buffer.getDouble())
+						.setAlpha(buffer.getDouble())
+						.setHybridForecast(buffer.getDouble())
+						.setI1(buffer.getInt())
+						.setSeriesLength(buffer.getInt())
+						.setFilterLength(buffer.getInt());
+				coefficients[k] = new double[buffer.getInt()];
+			}
+
+			for(double[] coefficientSet : coefficients) {
+				buffer.asDoubleBuffer().get(coefficientSet);
+				buffer.position(buffer.position() + 8 * coefficientSet.length);
+			}
+
+			byte[] format = new byte[buffer.getInt()];
+			buffer.get(format);
+
+			return new MDFACoefficientBundle(anyMDFAs, coefficients, targetWeight,
+					whiteNoisePrefilters, new String(format, StandardCharsets.UTF_8));
+		}
+	}
+
+	/**
+	 * @return A streaming engine filtering with the bundled coefficients
+	 */
+	public MDFAStreamingFeatureEngine createStreamingEngine() {
+		return new MDFAStreamingFeatureEngine(anyMDFAs, coefficients);
+	}
+
+	public MDFABase[] getFeatureExtractors() {
+		return anyMDFAs;
+	}
+
+	public double[][] getCoefficients() {
+		return coefficients;
+	}
+
+	public double getTargetWeight() {
+		return targetWeight;
+	}
+
+	public int getWhiteNoisePrefilters() {
+		return whiteNoisePrefilters;
+	}
+
+	public String getDateTimeFormat() {
+		return dateTimeFormat;
+	}
+
+}
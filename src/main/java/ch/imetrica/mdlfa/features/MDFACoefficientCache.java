@@ -0,0 +1,234 @@
+package ch.imetrica.mdlfa.features;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import ch.imetrica.mdfa.mdfa.MDFABase;
+import ch.imetrica.mdfa.series.TimeSeriesEntry;
+
+/**
+ * In-process cache of solved MDFA filter coefficients.
+ *
+ * A coefficient set depends on the parameters of the MDFABase, on
+ * how the series it is solved on is built, that is the weight of the
+ * target series, the number of white-noise prefilters and the date
+ * format, and on the observations it was solved on. The cache keys
+ * every set by the full parameter tuple of the MDFABase, the series
+ * settings and a 64 bit fingerprint of the observation window, so
+ * hyperparameter sweeps that revisit a configuration on the same data
+ * reuse the earlier solve, while banks that only differ in their
+ * series settings never share an entry.
+ *
+ * The cache holds at most maxEntries coefficient sets and evicts the
+ * least recently used one beyond that. Hits, misses and evictions are
+ * counted. The cache is thread-safe, but two threads missing the same
+ * key at the same time both solve it.
+ *
+ */
+public class MDFACoefficientCache {
+
+	private final int maxEntries;
+	private final LinkedHashMap<Key, double[]> entries;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	/* Parameter tuple of an MDFABase, series settings and fingerprint of the data window */
+	private static final class Key {
+
+		private final double[] parameters;
+		private final int[] lengths;
+		private final String dateTimeFormat;
+		private final long fingerprint;
+		private final int hashCode;
+
+		private Key(MDFABase anyMDFA, double targetWeight, int whiteNoisePrefilters,
+				    String dateTimeFormat, long fingerprint) {
+
+			this.parameters = new double[] { anyMDFA.getLowPassCutoff(), anyMDFA.getBandPassCutoff(),
+					anyMDFA.getSmooth(), anyMDFA.getDecayStart(), anyMDFA.getDecayStrength(),
+					anyMDFA.getLag(), anyMDFA.getLambda(), anyMDFA.getAlpha(), anyMDFA.getHybridForecast(),
+					targetWeight };
+			this.lengths = new int[] { anyMDFA.getI1(), anyMDFA.getSeriesLength(), anyMDFA.getFilterLength(),
+					whiteNoisePrefilters };
+			this.dateTimeFormat = dateTimeFormat;
+			this.fingerprint = fingerprint;
+			this.hashCode = 31 * (31 * (31 * Arrays.hashCode(parameters) + Arrays.hashCode(lengths))
+					+ ((dateTimeFormat != null) ? dateTimeFormat.hashCode() : 0))
+					+ (int)(fingerprint ^ (fingerprint >>> 32));
+		}
+
+		@Override
+		public boolean equals(Object other) {
+
+			if(!(other instanceof Key)) {
+				return false;
+			}
+			Key key = (Key)other;
+			return fingerprint == key.fingerprint
+					&& Arrays.equals(parameters, key.parameters)
+					&& Arrays.equals(lengths, key.lengths)
+					&& (dateTimeFormat == null ? key.dateTimeFormat == null : dateTimeFormat.equals(key.dateTimeFormat));
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+	}
+
+	/**
+	 * @param maxEntries Maximum number of cached coefficient sets
+	 */
+	public MDFACoefficientCache(final int maxEntries) {
+
+		if(maxEntries < 1) {
+			throw new IllegalArgumentException("Cache must hold at least one entry");
+		}
+		this.maxEntries = maxEntries;
+		this.entries = new LinkedHashMap<Key, double[]>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, double[]> eldest) {
+
+				if(size() > MDFACoefficientCache.this.maxEntries) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Fingerprint of an observation window, over the dates and values
+	 * of all observations in order
+	 *
+	 * @param window Observations the coefficients are solved on
+	 * @return 64 bit fingerprint
+	 */
+	public static long fingerprint(List<TimeSeriesEntry<double[]>> window) {
+
+		long hash = 0x9E3779B97F4A7C15L;
+		for(TimeSeriesEntry<double[]> observation : window) {
+
+			hash = mix(hash ^ observation.getDateTime().hashCode());
+			for(double value : observation.getValue()) {
+				hash = mix(hash ^ Double.doubleToLongBits(value));
+			}
+		}
+		return hash;
+	}
+
+	/* Finalizer of SplitMix64 */
+	private static long mix(long z) {
+
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * @param anyMDFA A feature extractor
+	 * @param targetWeight Weight of the target series the extractor is solved on
+	 * @param whiteNoisePrefilters Number of white-noise prefilters of the series
+	 * @param dateTimeFormat Format of the observation dates
+	 * @param fingerprint Fingerprint of the observation window
+	 * @return A copy of the cached coefficients, or null on a miss
+	 */
+	public synchronized double[] get(MDFABase anyMDFA, double targetWeight, int whiteNoisePrefilters,
+			                         String dateTimeFormat, long fingerprint) {
+
+		double[] coefficients = entries.get(new Key(anyMDFA, targetWeight, whiteNoisePrefilters,
+				dateTimeFormat, fingerprint));
+		if(coefficients == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return coefficients.clone();
+	}
+
+	/**
+	 * @param anyMDFA A feature extractor
+	 * @param targetWeight Weight of the target series the extractor is solved on
+	 * @param whiteNoisePrefilters Number of white-noise prefilters of the series
+	 * @param dateTimeFormat Format of the observation dates
+	 * @param fingerprint Fingerprint of the observation window
+	 * @param coefficients Coefficients solved for the extractor on the window, copied
+	 */
+	public synchronized void put(MDFABase anyMDFA, double targetWeight, int whiteNoisePrefilters,
+			                     String dateTimeFormat, long fingerprint, double[] coefficients) {
+		entries.put(new Key(anyMDFA, targetWeight, whiteNoisePrefilters, dateTimeFormat, fingerprint),
+				coefficients.clone());
+	}
+
+	/**
+	 * Returns the cached coefficients, or solves and caches them on a miss
+	 *
+	 * @param anyMDFA A feature extractor
+	 * @param targetWeight Weight of the target series the extractor is solved on
+	 * @param whiteNoisePrefilters Number of white-noise prefilters of the series
+	 * @param dateTimeFormat Format of the observation dates
+	 * @param fingerprint Fingerprint of the observation window
+	 * @param solver Solves the coefficients of the extractor on the window
+	 * @return The coefficients
+	 * @throws Exception A failure of the solver
+	 */
+	public double[] getOrSolve(MDFABase anyMDFA, double targetWeight, int whiteNoisePrefilters,
+			                   String dateTimeFormat, long fingerprint, Callable<double[]> solver) throws Exception {
+
+		double[] coefficients = get(anyMDFA, targetWeight, whiteNoisePrefilters, dateTimeFormat, fingerprint);
+		if(coefficients == null) {
+			coefficients = solver.call();
+			put(anyMDFA, targetWeight, whiteNoisePrefilters, dateTimeFormat, fingerprint, coefficients);
+		}
+		return coefficients;
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * @return Fraction of lookups served from the cache
+	 */
+	public synchronized double getHitRate() {
+
+		long lookups = hits + misses;
+		return lookups > 0 ? (double)hits / lookups : 0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("MDFACoefficientCache: %d/%d entries, %d hits, %d misses, %d evictions, hit rate %.2f",
+				entries.size(), maxEntries, hits, misses, evictions, getHitRate());
+	}
+
+}
@@ -0,0 +1,358 @@
+package ch.imetrica.mdlfa.features;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import ch.imetrica.mdfa.mdfa.MDFABase;
+import ch.imetrica.mdfa.series.TimeSeriesEntry;
+
+/**
+ * Re-estimates the coefficients of a feature bank in the background.
+ *
+ * The tick thread adds every new observation to a rolling window of
+ * the last seriesLength observations. On a configurable cadence a
+ * scheduled task copies the window and solves the coefficients of
+ * the bank on it, by default with MDFAFilterBank.solveCoefficients,
+ * which solves the extractors concurrently on the bank's pool.
+ *
+ * New coefficients are published as a fresh array through an
+ * AtomicReference and never modified afterwards. The tick thread
+ * reads the reference without locking and never waits for a solve,
+ * for example with
+ * <code>engine.updateCoefficients(scheduler.getCoefficients())</code>
+ * before every MDFAStreamingFeatureEngine tick. A failed solve keeps
+ * the previous coefficients and is reported by getLastFailure.
+ *
+ * With trackSpectrum, the scheduler also keeps an MDFASlidingSpectrum
+ * of the target values of the window, that is of the target series
+ * as the solvers see it, which the tick thread passes along with
+ * every observation. The tick thread only slides the spectrum, in
+ * O(N/2+1) per observation, and every re-estimate hands a copy of the
+ * sliding spectrum to the Estimator together with the window, so no
+ * re-estimate transforms the window from scratch. The rounding drift
+ * of the sliding updates is corrected after every
+ * spectrumRecomputeInterval updates: a re-estimate then transforms a
+ * copy of the target window on the scheduler thread, outside the lock,
+ * and resynchronizes the sliding spectrum with it. With the default
+ * interval of N updates this adds O(N/2+1) per update on average, as
+ * for MDFARollingCorrelation. The tick thread never waits for a
+ * transform or a solve, and getMeanSquaredErrors reports on every bar
+ * how well the published coefficients fit the current window, without
+ * solving.
+ *
+ */
+public class MDFACoefficientScheduler {
+
+	/**
+	 * Solves the coefficients of every extractor of a bank on a window
+	 */
+	public interface Estimator {
+
+		/**
+		 * @param window The last seriesLength observations, oldest first
+		 * @param spectrum Spectrum of the target values of the window, or
+		 * null if the scheduler does not track the spectrum
+		 * @return Coefficients, one set per extractor
+		 * @throws Exception
+		 */
+		double[][] estimate(List<TimeSeriesEntry<double[]>> window, MDFASpectrum spectrum) throws Exception;
+	}
+
+	private final Estimator estimator;
+	private final ScheduledExecutorService scheduler;
+
+	/* rolling window, guarded by this, never held during a transform or a solve */
+	private final TimeSeriesEntry<?>[] window;
+	private int windowHead = 0;
+	private long observations = 0;
+
+	/* spectrum of the target values of the window, guarded by this */
+	private MDFASlidingSpectrum spectrum;
+	private int spectrumRecomputeInterval;
+	private long resynchronizedAt = 0;
+
+	private final AtomicReference<double[][]> coefficients;
+	private volatile Exception lastFailure;
+	private final AtomicLong estimates = new AtomicLong();
+	private ScheduledFuture<?> task;
+
+	/**
+	 * Re-estimates the coefficients of a filter bank on windows of
+	 * the series length of its first extractor
+	 *
+	 * @param bank A filter bank
+	 * @param scheduler Runs the re-estimation
+	 */
+	public MDFACoefficientScheduler(final MDFAFilterBank bank, ScheduledExecutorService scheduler) {
+
+		this(new Estimator() {
+
+			/* the toolkit solvers transform the window themselves, see MDFAFilterBank */
+			@Override
+			public double[][] estimate(List<TimeSeriesEntry<double[]>> window, MDFASpectrum spectrum) throws Exception {
+				return bank.solveCoefficients(window);
+			}
+		}, bank.getFeatureExtractors()[0].getSeriesLength(), bank.getCoefficients(), scheduler);
+	}
+
+	/**
+	 * @param estimator Solves the coefficients on a window
+	 * @param seriesLength Length of the rolling window
+	 * @param initialCoefficients Coefficients published until the first estimate, may be null
+	 * @param scheduler Runs the re-estimation
+	 */
+	public MDFACoefficientScheduler(Estimator estimator,
+			                        int seriesLength,
+			                        double[][] initialCoefficients,
+			                        ScheduledExecutorService scheduler) {
+
+		if(seriesLength < 1) {
+			throw new IllegalArgumentException("Series length must be at least 1");
+		}
+		this.estimator = estimator;
+		this.scheduler = scheduler;
+		this.window = new TimeSeriesEntry<?>[seriesLength];
+		this.spectrumRecomputeInterval = seriesLength;
+		this.coefficients = new AtomicReference<double[][]>(initialCoefficients);
+	}
+
+	/**
+	 * Adds a new observation to the rolling window. Called from the
+	 * tick thread, it only stores a reference under the lock of the
+	 * window. Not allowed once the spectrum is tracked.
+	 *
+	 * @param observation A new observation
+	 */
+	public synchronized void addObservation(TimeSeriesEntry<double[]> observation) {
+
+		if(spectrum != null) {
+			throw new IllegalStateException("The spectrum is tracked, add observations with their target value");
+		}
+		add(observation);
+	}
+
+	/**
+	 * Adds a new observation to the rolling window and its target value
+	 * to the tracked spectrum. Called from the tick thread, it stores a
+	 * reference and slides the spectrum in O(N/2+1) under the lock of
+	 * the window, which is never held during a transform or a solve.
+	 *
+	 * @param observation A new observation
+	 * @param targetValue Target series value of the observation, as in
+	 * MultivariateFXSeries.getTargetValue
+	 */
+	public synchronized void addObservation(TimeSeriesEntry<double[]> observation, double targetValue) {
+
+		if(spectrum != null) {
+			spectrum.update(targetValue);
+		}
+		add(observation);
+	}
+
+	private void add(TimeSeriesEntry<double[]> observation) {
+
+		window[windowHead] = observation;
+		windowHead = (windowHead + 1 == window.length) ? 0 : windowHead + 1;
+		observations++;
+	}
+
+	/**
+	 * Keeps the spectrum of the target values of the window. From then
+	 * on observations are added with their target value, and the
+	 * spectrum is known once a full window of target values was added.
+	 * Requires a window of at least 2 observations.
+	 *
+	 * @return this
+	 */
+	public synchronized MDFACoefficientScheduler trackSpectrum() {
+
+		if(window.length < 2) {
+			throw new IllegalStateException("Spectrum needs a window of at least 2 observations");
+		}
+		if(spectrum == null) {
+			spectrum = new MDFASlidingSpectrum(new double[window.length]).setRecomputeInterval(0);
+		}
+		return this;
+	}
+
+	/**
+	 * @param spectrumRecomputeInterval Number of updates of the tracked
+	 * spectrum between two transforms of the window that correct its drift
+	 * @return this
+	 */
+	public synchronized MDFACoefficientScheduler setSpectrumRecomputeInterval(int spectrumRecomputeInterval) {
+
+		if(spectrumRecomputeInterval < 1) {
+			throw new IllegalArgumentException("Recompute interval must be at least 1");
+		}
+		this.spectrumRecomputeInterval = spectrumRecomputeInterval;
+		return this;
+	}
+
+	public synchronized int getSpectrumRecomputeInterval() {
+		return spectrumRecomputeInterval;
+	}
+
+	/**
+	 * Re-estimates every period, the first time after one period
+	 *
+	 * @param period Time between the end of an estimate and the start of the next
+	 * @param unit Unit of the period
+	 * @return this
+	 */
+	public synchronized MDFACoefficientScheduler start(long period, TimeUnit unit) {
+
+		if(task != null) {
+			throw new IllegalStateException("Scheduler already started");
+		}
+		task = scheduler.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				reestimate();
+			}
+		}, period, period, unit);
+		return this;
+	}
+
+	/**
+	 * Stops the re-estimation, an estimate in progress still publishes
+	 */
+	public synchronized void stop() {
+
+		if(task != null) {
+			task.cancel(false);
+			task = null;
+		}
+	}
+
+	/**
+	 * Solves the coefficients on a copy of the current window and
+	 * publishes them. Does nothing until the window is full. With a
+	 * tracked spectrum, the Estimator gets a copy of the sliding
+	 * spectrum, and once spectrumRecomputeInterval updates were made
+	 * since the last correction, the copied target values are
+	 * transformed after the estimate to resynchronize the sliding
+	 * spectrum.
+	 *
+	 * @return true if new coefficients were published
+	 */
+	public boolean reestimate() {
+
+		List<TimeSeriesEntry<double[]>> snapshot;
+		MDFASpectrum current = null;
+		double[] targets = null;
+		long updatesAtCopy = 0;
+		synchronized(this) {
+
+			snapshot = copyWindow();
+			if(snapshot == null) {
+				return false;
+			}
+			if(isSpectrumKnown()) {
+				current = new MDFASpectrum(spectrum);
+				updatesAtCopy = spectrum.getUpdates();
+				if(updatesAtCopy - resynchronizedAt >= spectrumRecomputeInterval) {
+					targets = spectrum.getWindow();
+				}
+			}
+		}
+
+		boolean published;
+		try {
+			double[][] estimate = estimator.estimate(snapshot, current);
+			coefficients.set(estimate);
+			estimates.incrementAndGet();
+			published = true;
+		}
+		catch(Exception e) {
+			lastFailure = e;
+			published = false;
+		}
+
+		if(targets != null) {
+
+			/* O(N^2) drift correction outside the lock, the tick thread keeps sliding */
+			MDFASpectrum exact = new MDFASpectrum(targets);
+			synchronized(this) {
+				if(spectrum.resynchronize(exact, targets, updatesAtCopy)) {
+					resynchronizedAt = updatesAtCopy;
+				}
+			}
+		}
+		return published;
+	}
+
+	/* true once the spectrum holds a full window of target values, guarded by this */
+	private boolean isSpectrumKnown() {
+		return spectrum != null && spectrum.getUpdates() >= window.length;
+	}
+
+	/* The window oldest first, or null if not yet full */
+	@SuppressWarnings("unchecked")
+	private synchronized List<TimeSeriesEntry<double[]>> copyWindow() {
+
+		if(observations < window.length) {
+			return null;
+		}
+
+		List<TimeSeriesEntry<double[]>> snapshot = new ArrayList<TimeSeriesEntry<double[]>>(window.length);
+		for(int i = 0; i < window.length; i++) {
+			snapshot.add((TimeSeriesEntry<double[]>)window[(windowHead + i) % window.length]);
+		}
+		return snapshot;
+	}
+
+	/**
+	 * @return The last published coefficients, never modified after publishing
+	 */
+	public double[][] getCoefficients() {
+		return coefficients.get();
+	}
+
+	/**
+	 * Mean square error of the published coefficients on the spectrum
+	 * of the current window, see MDFASpectrum.meanSquaredError. The
+	 * spectrum is copied under the lock and evaluated outside of it.
+	 *
+	 * @param anyMDFAs Extractors the coefficients were solved for
+	 * @return One mean square error per extractor, or null until the
+	 * spectrum is known and coefficients are published
+	 */
+	public double[] getMeanSquaredErrors(MDFABase[] anyMDFAs) {
+
+		MDFASpectrum current;
+		synchronized(this) {
+			current = isSpectrumKnown() ? new MDFASpectrum(spectrum) : null;
+		}
+		double[][] published = coefficients.get();
+		if(current == null || published == null) {
+			return null;
+		}
+		return current.meanSquaredErrors(anyMDFAs, published);
+	}
+
+	/**
+	 * @return Number of published estimates
+	 */
+	public long getEstimates() {
+		return estimates.get();
+	}
+
+	/**
+	 * @return The failure of the last failed estimate, or null
+	 */
+	public Exception getLastFailure() {
+		return lastFailure;
+	}
+
+	public synchronized long getObservations() {
+		return observations;
+	}
+
+}
@@ -0,0 +1,260 @@
+package ch.imetrica.mdlfa.features;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import ch.imetrica.mdfa.mdfa.MDFABase;
+import ch.imetrica.mdlfa.util.MDFATasks;
+
+/**
+ * MDFA features of one filter bank for a whole cross-section of
+ * symbols, updated one timestamp at a time.
+ *
+ * Instead of one MultivariateFXSeries or one streaming engine per
+ * symbol, the engine keeps the filter state of all N symbols and K
+ * filters in flat primitive arrays, laid out as structure of arrays:
+ * the last L values of every symbol are stored as L rows of N values,
+ * one row per lag, and the output of filter k is one row of N values.
+ * A tick writes the new values of every symbol into one row and then
+ * sweeps over the symbols, for every filter and lag adding the
+ * coefficient times a contiguous row of the history to a contiguous
+ * row of the outputs. Every pass is a plain loop over primitive
+ * arrays, and without a pool one tick allocates nothing.
+ *
+ * With a pool, the symbols are split into contiguous ranges and the
+ * ranges are swept concurrently, at the cost of the futures that
+ * invokeAll allocates on every tick. Range boundaries are multiples
+ * of 8 symbols, so in every output row two neighbouring ranges share
+ * at most the one cache line their boundary falls into, instead of
+ * interleaving symbol by symbol.
+ *
+ * All symbols share the coefficients and the timestamps of the ticks.
+ * The engine is not thread-safe, one thread calls tick.
+ *
+ * <code>new MDFACrossSectionalEngine(anyMDFAs, coefficients, 3000).setPool(pool, 8)</code>
+ *
+ */
+public class MDFACrossSectionalEngine {
+
+	/* symbols per cache line of doubles */
+	private static final int LINE = 8;
+
+	private final MDFABase[] anyMDFAs;
+	private final int nFilters;
+	private final int nSymbols;
+	private final int filterLength;
+
+	/* coefficient l of filter k at k*filterLength + l */
+	private final double[] coefficients;
+
+	/* value of symbol s at row r of the ring at r*nSymbols + s */
+	private final double[] history;
+
+	/* output of filter k for symbol s at k*nSymbols + s */
+	private final double[] features;
+
+	/* start of the row holding the values l ticks ago, for the current tick */
+	private final int[] lagRows;
+
+	private ExecutorService pool;
+	private List<Callable<Void>> ranges;
+	private int head = 0;
+	private long ticks = 0;
+
+	/**
+	 * @param anyMDFAs A collection of feature extractors
+	 * @param coefficients Solved coefficients of every extractor
+	 * @param nSymbols Number of symbols of the cross-section
+	 */
+	public MDFACrossSectionalEngine(MDFABase[] anyMDFAs, double[][] coefficients, int nSymbols) {
+
+		if(coefficients.length != anyMDFAs.length) {
+			throw new IllegalArgumentException("Expected " + anyMDFAs.length
+					+ " coefficient sets, got " + coefficients.length);
+		}
+		if(nSymbols < 1) {
+			throw new IllegalArgumentException("Cross-section must hold at least 1 symbol");
+		}
+
+		this.anyMDFAs = anyMDFAs;
+		this.nFilters = anyMDFAs.length;
+		this.nSymbols = nSymbols;
+		this.filterLength = MDFAStreamingFeatureEngine.maxLength(coefficients);
+		this.coefficients = new double[nFilters * filterLength];
+		this.history = new double[filterLength * nSymbols];
+		this.features = new double[nFilters * nSymbols];
+		this.lagRows = new int[filterLength];
+
+		setCoefficients(coefficients);
+	}
+
+	/**
+	 * Instantiates the engine with the coefficients of a solved bank
+	 *
+	 * @param bank A solved filter bank
+	 * @param nSymbols Number of symbols of the cross-section
+	 */
+	public MDFACrossSectionalEngine(MDFAFilterBank bank, int nSymbols) {
+		this(bank.getFeatureExtractors(), bank.getCoefficients(), nSymbols);
+	}
+
+	/**
+	 * Sweeps the symbols in concurrent ranges
+	 *
+	 * @param pool Runs the ranges, null sweeps all symbols on the calling thread
+	 * @param nRanges Number of symbol ranges, for example the number of cores
+	 * @return this
+	 */
+	public MDFACrossSectionalEngine setPool(ExecutorService pool, int nRanges) {
+
+		if(nRanges < 1) {
+			throw new IllegalArgumentException("Number of ranges must be at least 1");
+		}
+		this.pool = pool;
+		this.ranges = new ArrayList<Callable<Void>>();
+
+		int lines = (nSymbols + LINE - 1) / LINE;
+		int linesPerRange = (lines + nRanges - 1) / nRanges;
+		for(int from = 0; from < nSymbols; from += linesPerRange * LINE) {
+
+			final int start = from;
+			final int end = Math.min(from + linesPerRange * LINE, nSymbols);
+			ranges.add(new Callable<Void>() {
+
+				@Override
+				public Void call() throws Exception {
+					sweep(start, end);
+					return null;
+				}
+			});
+		}
+		return this;
+	}
+
+	/**
+	 * Replaces the coefficients while keeping the recent values.
+	 * Coefficient sets may not be longer than those of the constructor.
+	 *
+	 * @param coefficients Solved coefficients of every extractor
+	 */
+	public void setCoefficients(double[][] coefficients) {
+		MDFAStreamingFeatureEngine.packCoefficients(coefficients, this.coefficients, filterLength);
+	}
+
+	/**
+	 * Adds the values of every symbol at a new timestamp and computes
+	 * the filter outputs of every symbol. The returned array is
+	 * overwritten by the next tick.
+	 *
+	 * @param values New target series value of every symbol
+	 * @return Output of filter k for symbol s at k*nSymbols + s, valid once isWarm()
+	 * @throws InterruptedException If interrupted while waiting for the ranges
+	 */
+	public double[] tick(double[] values) throws InterruptedException {
+
+		if(values.length != nSymbols) {
+			throw new IllegalArgumentException("Expected " + nSymbols
+					+ " values, got " + values.length);
+		}
+
+		System.arraycopy(values, 0, history, head * nSymbols, nSymbols);
+		for(int l = 0, row = head; l < filterLength; l++) {
+
+			lagRows[l] = row * nSymbols;
+			row = (row == 0) ? filterLength - 1 : row - 1;
+		}
+
+		if(pool == null || ranges.size() == 1) {
+			sweep(0, nSymbols);
+		}
+		else {
+			MDFATasks.invokeAllUnchecked(pool, ranges);
+		}
+
+		head = (head + 1 == filterLength) ? 0 : head + 1;
+		ticks++;
+		return features;
+	}
+
+	/* Filter outputs of the symbols in [from, to) */
+	private void sweep(int from, int to) {
+
+		for(int k = 0; k < nFilters; k++) {
+
+			int out = k * nSymbols;
+			int offset = k * filterLength;
+			Arrays.fill(features, out + from, out + to, 0);
+
+			for(int l = 0; l < filterLength; l++) {
+
+				double b = coefficients[offset + l];
+				if(b == 0) {
+					continue;
+				}
+				int row = lagRows[l];
+				for(int s = from; s < to; s++) {
+					features[out + s] += b * history[row + s];
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param symbol Index of the symbol
+	 * @param k Index of the filter
+	 * @return Output of filter k for the symbol at the last tick
+	 */
+	public double getFeature(int symbol, int k) {
+		return features[k * nSymbols + symbol];
+	}
+
+	/**
+	 * @return true once filterLength timestamps were added, before
+	 * that the outputs treat the missing values as zeros
+	 */
+	public boolean isWarm() {
+		return ticks >= filterLength;
+	}
+
+	/**
+	 * Forgets all values, the coefficients are kept
+	 */
+	public void reset() {
+
+		Arrays.fill(history, 0);
+		Arrays.fill(features, 0);
+		head = 0;
+		ticks = 0;
+	}
+
+	/**
+	 * @return Output of filter k for symbol s at k*nSymbols + s at the last tick
+	 */
+	public double[] getFeatures() {
+		return features;
+	}
+
+	public long getTicks() {
+		return ticks;
+	}
+
+	public int getFilterLength() {
+		return filterLength;
+	}
+
+	public int getNumberOfFeatures() {
+		return nFilters;
+	}
+
+	public int getNumberOfSymbols() {
+		return nSymbols;
+	}
+
+	public MDFABase[] getFeatureExtractors() {
+		return anyMDFAs;
+	}
+
+}
@@ -6,6 +6,7 @@ public class MDFAFeatureExtraction {
 
 	
 	private MDFABase[] anyMDFAs;
+	private double[][] coefficients;
 	
 	/**
 	 * Instantiates an MDFAFeatureExtraction using an 
@@ -19,6 +20,18 @@ public class MDFAFeatureExtraction {
 		this.anyMDFAs = anyMDFAs;
 	}
 	
+	/**
+	 * Instantiates an MDFAFeatureExtraction from a coefficient 
+	 * bundle, with the bank and its solved coefficients, so 
+	 * that no MDFA system needs to be solved 
+	 * 
+	 * @param bundle A coefficient bundle, see MDFACoefficientBundle.read
+	 */
+	public MDFAFeatureExtraction(MDFACoefficientBundle bundle) {
+		this.anyMDFAs = bundle.getFeatureExtractors();
+		this.coefficients = bundle.getCoefficients();
+	}
+	
 	/**
 	 * Initiates a feature extraction object with a
 	 * group of six features including two lowpass
@@ -146,9 +159,18 @@ public class MDFAFeatureExtraction {
 	 */
 	public MDFAFeatureExtraction setFeatureExtractors(MDFABase[] anyMDFAs) {
 		this.anyMDFAs = anyMDFAs;
+		this.coefficients = null;
 		return this;
 	}
 	
+	/**
+	 * Get access to the solved coefficients of the feature extractors
+	 * @return The coefficients of a bundle, or null if they were not loaded
+	 */
+	public double[][] getCoefficients() {
+		return coefficients;
+	}
+	
 	public int getNumberOfFeatures() {
 		
 		return anyMDFAs.length;
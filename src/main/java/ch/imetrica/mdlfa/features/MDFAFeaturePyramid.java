@@ -0,0 +1,211 @@
+package ch.imetrica.mdlfa.features;
+
+/**
+ * MDFA features of one base series at several resolutions, computed
+ * in one pass over the series.
+ *
+ * Level i of the pyramid aggregates blocks of factors[i] base
+ * observations into one coarser bar. The base series holds log
+ * returns, so a coarse bar is the sum of the returns of its block,
+ * the log return over the block, for example of a weekly bar from
+ * five daily bars. Every factor is a multiple of the one before, and
+ * each level is decimated from the previous level rather than from
+ * the base series, so the base series is read once and every level
+ * costs one pass over the level below it.
+ *
+ * Every level is filtered by its own filter bank with MDFABatchFilter.
+ * The features are aligned on the base time axis: at base observation
+ * t, level i reports the output of its last bar completed at or
+ * before t, that is the bar ending at the largest multiple of
+ * factors[i] not above t + 1. Before the first completed bar the
+ * feature is 0. Blocks are counted from the start of the series.
+ *
+ * Decimated series and level features are kept in buffers shared by
+ * all levels and reused by every call, so a pyramid computes one
+ * series after another without allocating.
+ *
+ * <code>new MDFAFeaturePyramid(new int[]{1, 5, 20}, coefficients).compute(x)</code>
+ *
+ */
+public class MDFAFeaturePyramid {
+
+	private final int[] factors;
+	private final double[][][] coefficients;
+	private final int nFeatures;
+	private MDFABatchFilter batchFilter = new MDFABatchFilter();
+
+	/* decimated series of two consecutive levels */
+	private double[] current = new double[0];
+	private double[] next = new double[0];
+
+	/* filter outputs of one level, [k][bar] */
+	private double[][] levelFeatures;
+
+	/**
+	 * @param factors Base observations per bar of every level, increasing,
+	 * each a multiple of the one before
+	 * @param coefficients Coefficients of the filter bank of every level
+	 */
+	public MDFAFeaturePyramid(int[] factors, double[][][] coefficients) {
+
+		if(factors.length == 0 || coefficients.length != factors.length) {
+			throw new IllegalArgumentException("Expected one coefficient set per level, got "
+					+ coefficients.length + " for " + factors.length + " levels");
+		}
+
+		int nFeatures = 0;
+		int maxFilters = 0;
+		for(int i = 0; i < factors.length; i++) {
+
+			int previous = (i == 0) ? 1 : factors[i - 1];
+			if(factors[i] < 1 || (i > 0 && factors[i] <= previous) || factors[i] % previous != 0) {
+				throw new IllegalArgumentException("Factor " + factors[i] + " of level " + i
+						+ " is not a multiple of " + previous);
+			}
+			nFeatures += coefficients[i].length;
+			maxFilters = Math.max(maxFilters, coefficients[i].length);
+		}
+
+		this.factors = factors;
+		this.coefficients = coefficients;
+		this.nFeatures = nFeatures;
+		this.levelFeatures = new double[maxFilters][0];
+	}
+
+	/**
+	 * A pyramid with the same filter bank on every level
+	 *
+	 * @param factors Base observations per bar of every level
+	 * @param coefficients Coefficients of the filter bank
+	 */
+	public MDFAFeaturePyramid(int[] factors, double[][] coefficients) {
+		this(factors, repeat(coefficients, factors.length));
+	}
+
+	private static double[][][] repeat(double[][] coefficients, int nLevels) {
+
+		double[][][] levels = new double[nLevels][][];
+		for(int i = 0; i < nLevels; i++) {
+			levels[i] = coefficients;
+		}
+		return levels;
+	}
+
+	/**
+	 * @param batchFilter Filters every level, for example with another FFT threshold
+	 * @return this
+	 */
+	public MDFAFeaturePyramid setBatchFilter(MDFABatchFilter batchFilter) {
+		this.batchFilter = batchFilter;
+		return this;
+	}
+
+	/**
+	 * Computes the features of every level
+	 *
+	 * @param x Base series of log returns
+	 * @return Feature k of level i at base observation t in
+	 * [first feature of level i + k][t], levels in order
+	 */
+	public double[][] compute(double[] x) {
+
+		double[][] features = new double[nFeatures][x.length];
+		compute(x, features, 0);
+		return features;
+	}
+
+	/**
+	 * Computes the features of every level into a feature matrix with
+	 * further columns, such as the feature columns of a regression store
+	 *
+	 * @param x Base series of log returns
+	 * @param features Receives feature k of level i at base observation t in
+	 * [firstColumn + first feature of level i + k][t]
+	 * @param firstColumn Column of the first feature of level 0
+	 */
+	public void compute(double[] x, double[][] features, int firstColumn) {
+
+		int n = x.length;
+		ensureCapacity(n);
+
+		/* level 0 decimates the base series, every further level the one before */
+		double[] source = x;
+		int sourceLength = n;
+		int sourceFactor = 1;
+		int column = firstColumn;
+
+		for(int i = 0; i < factors.length; i++) {
+
+			int ratio = factors[i] / sourceFactor;
+			int bars = sourceLength / ratio;
+			double[] level = current;
+			if(ratio == 1) {
+				System.arraycopy(source, 0, level, 0, bars);
+			}
+			else {
+				for(int b = 0, j = 0; b < bars; b++) {
+
+					double sum = 0;
+					for(int end = j + ratio; j < end; j++) {
+						sum += source[j];
+					}
+					level[b] = sum;
+				}
+			}
+
+			double[][] filters = coefficients[i];
+			batchFilter.filter(level, bars, filters, levelFeatures, 0);
+
+			/* bar b covers base observations [b*factor, (b+1)*factor) and is known from its last one on */
+			int factor = factors[i];
+			for(int k = 0; k < filters.length; k++) {
+
+				double[] y = levelFeatures[k];
+				double[] out = features[column + k];
+				int t = 0;
+				for(; t < Math.min(factor - 1, n); t++) {
+					out[t] = 0;
+				}
+				for(int b = 0; b < bars; b++) {
+
+					double value = y[b];
+					int end = Math.min(t + factor, n);
+					for(; t < end; t++) {
+						out[t] = value;
+					}
+				}
+			}
+			column += filters.length;
+
+			/* the level just computed is the source of the next one */
+			current = next;
+			next = level;
+			source = level;
+			sourceLength = bars;
+			sourceFactor = factor;
+		}
+	}
+
+	private void ensureCapacity(int n) {
+
+		if(current.length < n) {
+			current = new double[n];
+			next = new double[n];
+			for(int k = 0; k < levelFeatures.length; k++) {
+				levelFeatures[k] = new double[n];
+			}
+		}
+	}
+
+	public int[] getFactors() {
+		return factors;
+	}
+
+	/**
+	 * @return Number of features of all levels together
+	 */
+	public int getNumberOfFeatures() {
+		return nFeatures;
+	}
+
+}
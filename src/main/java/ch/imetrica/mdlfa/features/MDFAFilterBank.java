@@ -0,0 +1,295 @@
+package ch.imetrica.mdlfa.features;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
+
+import ch.imetrica.mdfa.mdfa.MDFABase;
+import ch.imetrica.mdfa.series.MultivariateFXSeries;
+import ch.imetrica.mdfa.series.TargetSeries;
+import ch.imetrica.mdfa.series.TimeSeriesEntry;
+import ch.imetrica.mdlfa.util.MDFATasks;
+
+/**
+ * Solves and applies a bank of MDFA feature extractors concurrently.
+ *
+ * A MultivariateFXSeries built with all extractors of a bank solves
+ * their filter coefficients one after another, although the solves
+ * are independent. The bank instead keeps one MultivariateFXSeries
+ * per extractor, each holding the same target series, and solves and
+ * filters them as separate tasks on a bounded pool. Feature k of an
+ * observation is the signal of the k-th series.
+ *
+ * The coefficients are published atomically: readers see either the
+ * complete set of a previous solve or the complete set of the last
+ * one, never a bank where only some extractors have been solved. A
+ * failed solve leaves the previously published coefficients in place.
+ *
+ * The toolkit solver of every extractor computes the transform of its
+ * window itself and offers no way to pass a precomputed one, so a bank
+ * of K extractors still costs K transforms per solve.
+ *
+ * With an MDFACoefficientCache, every solve stores its coefficients
+ * in the cache, and solveCoefficients only solves the extractors
+ * missing from it, for sweeps that need the coefficients but not the
+ * filtered series.
+ *
+ */
+public class MDFAFilterBank {
+
+	/* White-noise prefilters of every series, of the bank and of MDFAFeatureStore */
+	public static final int WHITE_NOISE_PREFILTERS = 36;
+
+	private final MDFABase[] anyMDFAs;
+	private final String dateTimeFormat;
+	private final double targetWeight;
+	private final ExecutorService pool;
+	private MDFACoefficientCache coefficientCache;
+
+	private final AtomicReference<Solution> solution = new AtomicReference<Solution>();
+
+	/* Series and coefficients of one solve, replaced as a whole */
+	private static final class Solution {
+
+		private final MultivariateFXSeries[] series;
+		private final double[][] coefficients;
+
+		private Solution(MultivariateFXSeries[] series, double[][] coefficients) {
+			this.series = series;
+			this.coefficients = coefficients;
+		}
+	}
+
+	/**
+	 * @param anyMDFAs A collection of feature extractors
+	 * @param dateTimeFormat Format of the observation dates
+	 * @param targetWeight Weight of the target series
+	 * @param pool Bounded pool solving and filtering the extractors
+	 */
+	public MDFAFilterBank(MDFABase[] anyMDFAs, String dateTimeFormat, double targetWeight, ExecutorService pool) {
+
+		this.anyMDFAs = anyMDFAs;
+		this.dateTimeFormat = dateTimeFormat;
+		this.targetWeight = targetWeight;
+		this.pool = pool;
+	}
+
+	/**
+	 * Solves the filter coefficients of all extractors concurrently on
+	 * the given initialization observations and publishes them
+	 * together once every solve has finished
+	 *
+	 * @param initialization The first seriesLength observations
+	 * @throws Exception The first failure of any solve
+	 */
+	public void solve(final List<TimeSeriesEntry<double[]>> initialization) throws Exception {
+
+		List<Callable<MultivariateFXSeries>> solves = new ArrayList<Callable<MultivariateFXSeries>>();
+		for(final MDFABase anyMDFA : anyMDFAs) {
+
+			solves.add(new Callable<MultivariateFXSeries>() {
+
+				@Override
+				public MultivariateFXSeries call() throws Exception {
+					return solveExtractor(anyMDFA, initialization);
+				}
+			});
+		}
+
+		List<MultivariateFXSeries> solved = invokeAll(solves);
+
+		MultivariateFXSeries[] series = solved.toArray(new MultivariateFXSeries[solved.size()]);
+		double[][] coefficients = new double[series.length][];
+		for(int k = 0; k < series.length; k++) {
+			coefficients[k] = series[k].getSeries(0).getCoefficientSet(0).clone();
+		}
+
+		if(coefficientCache != null) {
+			long fingerprint = MDFACoefficientCache.fingerprint(initialization);
+			for(int k = 0; k < anyMDFAs.length; k++) {
+				coefficientCache.put(anyMDFAs[k], targetWeight, WHITE_NOISE_PREFILTERS, dateTimeFormat,
+						fingerprint, coefficients[k]);
+			}
+		}
+		solution.set(new Solution(series, coefficients));
+	}
+
+	/**
+	 * Solves the filter coefficients of all extractors on the given
+	 * observations without keeping the filtered series. Coefficients
+	 * found in the coefficient cache are not solved again, the others
+	 * are solved concurrently and added to the cache. The published
+	 * coefficients of the bank are not changed.
+	 *
+	 * @param window The seriesLength observations to solve on
+	 * @return Coefficients, one set per extractor
+	 * @throws Exception The first failure of any solve
+	 */
+	public double[][] solveCoefficients(final List<TimeSeriesEntry<double[]>> window) throws Exception {
+
+		final long fingerprint = MDFACoefficientCache.fingerprint(window);
+
+		List<Callable<double[]>> solves = new ArrayList<Callable<double[]>>();
+		for(final MDFABase anyMDFA : anyMDFAs) {
+
+			final Callable<double[]> solver = new Callable<double[]>() {
+
+				@Override
+				public double[] call() throws Exception {
+					return solveExtractor(anyMDFA, window).getSeries(0).getCoefficientSet(0).clone();
+				}
+			};
+
+			solves.add(new Callable<double[]>() {
+
+				@Override
+				public double[] call() throws Exception {
+					return (coefficientCache != null) ? coefficientCache.getOrSolve(anyMDFA, targetWeight,
+							WHITE_NOISE_PREFILTERS, dateTimeFormat, fingerprint, solver) : solver.call();
+				}
+			});
+		}
+
+		List<double[]> solved = invokeAll(solves);
+		return solved.toArray(new double[solved.size()][]);
+	}
+
+	/**
+	 * Filters the given observations with every extractor, each
+	 * extractor as a separate task
+	 *
+	 * @param observations New observations in chronological order
+	 * @throws Exception The first failure of any extractor
+	 */
+	public void addValues(final List<TimeSeriesEntry<double[]>> observations) throws Exception {
+
+		List<Callable<Void>> filters = new ArrayList<Callable<Void>>();
+		for(final MultivariateFXSeries fxSeries : solved().series) {
+
+			filters.add(new Callable<Void>() {
+
+				@Override
+				public Void call() throws Exception {
+
+					for(TimeSeriesEntry<double[]> observation : observations) {
+						fxSeries.addValue(observation.getDateTime(), observation.getValue());
+					}
+					return null;
+				}
+			});
+		}
+		invokeAll(filters);
+	}
+
+	/**
+	 * Removes the first observations from the series of every extractor
+	 *
+	 * @param n Number of observations
+	 */
+	public void chopFirstObservations(int n) {
+
+		for(MultivariateFXSeries fxSeries : solved().series) {
+			fxSeries.chopFirstObservations(n);
+		}
+	}
+
+	/**
+	 * @return Coefficients of the last solve, one set per extractor, or null before the first solve
+	 */
+	public double[][] getCoefficients() {
+
+		Solution current = solution.get();
+		return (current != null) ? current.coefficients : null;
+	}
+
+	public boolean isSolved() {
+		return solution.get() != null;
+	}
+
+	/**
+	 * The series of every extractor holds the same target series and
+	 * dates, usually taken from the first one
+	 *
+	 * @param k Index of the extractor
+	 * @return The series filtered by the k-th extractor
+	 */
+	public MultivariateFXSeries getFilteredSeries(int k) {
+		return solved().series[k];
+	}
+
+	/**
+	 * @param index Index of the observation
+	 * @param features Array receiving one value per extractor
+	 * @return features
+	 */
+	public double[] getSignalValue(int index, double[] features) {
+
+		MultivariateFXSeries[] series = solved().series;
+		for(int k = 0; k < series.length; k++) {
+			features[k] = series[k].getSignalValue(index)[0];
+		}
+		return features;
+	}
+
+	public int size() {
+		return solved().series[0].size();
+	}
+
+	public MDFABase[] getFeatureExtractors() {
+		return anyMDFAs;
+	}
+
+	public String getDateTimeFormat() {
+		return dateTimeFormat;
+	}
+
+	public double getTargetWeight() {
+		return targetWeight;
+	}
+
+	public MDFACoefficientCache getCoefficientCache() {
+		return coefficientCache;
+	}
+
+	/**
+	 * Shares solved coefficients through the given cache, which may
+	 * be used by several banks
+	 *
+	 * @param coefficientCache A coefficient cache, or null to always solve
+	 * @return this
+	 */
+	public MDFAFilterBank setCoefficientCache(MDFACoefficientCache coefficientCache) {
+		this.coefficientCache = coefficientCache;
+		return this;
+	}
+
+	/* A series filtered by the single extractor, solved on the window */
+	private MultivariateFXSeries solveExtractor(MDFABase anyMDFA, List<TimeSeriesEntry<double[]>> window) {
+
+		MultivariateFXSeries fxSeries = new MultivariateFXSeries(new MDFABase[]{ anyMDFA }, dateTimeFormat);
+		fxSeries.addSeries(new TargetSeries(targetWeight, true, "TargetSeries"));
+		fxSeries.setWhiteNoisePrefilters(WHITE_NOISE_PREFILTERS);
+
+		for(TimeSeriesEntry<double[]> observation : window) {
+			fxSeries.addValue(observation.getDateTime(), observation.getValue());
+		}
+		fxSeries.computeAllFilterCoefficients();
+		return fxSeries;
+	}
+
+	private Solution solved() {
+
+		Solution current = solution.get();
+		if(current == null) {
+			throw new IllegalStateException("Filter bank has not been solved");
+		}
+		return current;
+	}
+
+	private <V> List<V> invokeAll(List<Callable<V>> tasks) throws Exception {
+		return MDFATasks.invokeAll(pool, tasks);
+	}
+
+}
@@ -0,0 +1,376 @@
+package ch.imetrica.mdlfa.features;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import ch.imetrica.mdlfa.util.MDFATasks;
+
+/**
+ * Rolling covariance and correlation between the MDFA outputs of N
+ * symbols over the last W steps, as cross-asset features.
+ *
+ * The stage keeps the mean of every symbol and the centered co-moment
+ * sum(x_i - mean_i)*(x_j - mean_j) of every pair of symbols over the
+ * window. A step first removes the values leaving the window and then
+ * adds the new values with the Welford updates of the means and
+ * co-moments, which costs O(N^2) per step instead of O(N^2*W) for
+ * recomputing every pair from the window. Working on deviations from
+ * the means keeps the precision for inputs with a large level, such as
+ * prices, where raw sums of products would cancel. The co-moments of a
+ * long run still accumulate rounding errors, so they are recomputed
+ * from the window every recomputeInterval steps, in two passes over
+ * the window. With the default interval of W steps this adds O(N^2)
+ * per step on average, as for MDFASlidingSpectrum.
+ *
+ * The values of a step are kept as one row of N doubles in a ring of W
+ * rows, and the co-moments as the packed upper triangle of the N x N
+ * matrix. With a pool, the rows of the triangle are split into
+ * stripes, row i belonging to stripe i mod nStripes, so every stripe
+ * holds about the same number of pairs. Each stripe updates its pairs
+ * and computes their covariance and correlation in the same pass.
+ *
+ * The values of a step are typically one output row of an
+ * MDFACrossSectionalEngine, for example filter k with
+ * <code>correlation.update(engine.getFeatures(), k * nSymbols)</code>
+ * The stage is not thread-safe, one thread calls update.
+ *
+ */
+public class MDFARollingCorrelation {
+
+	private final int nSymbols;
+	private final int windowLength;
+	private final int nPairs;
+
+	/* value of symbol s at row r of the ring at r*nSymbols + s */
+	private final double[] window;
+
+	/* means over the window before the step, after removing the leaving values and after the step */
+	private final double[] previousMeans;
+	private final double[] removedMeans;
+	private final double[] means;
+
+	/* sum of (x_i - mean_i)*(x_j - mean_j) over the window for j >= i, packed by rows */
+	private final double[] comoments;
+
+	/* outputs for pairs i < j, packed by rows */
+	private final double[] covariances;
+	private final double[] correlations;
+
+	/* variances of the symbols, diagonal of the covariance */
+	private final double[] variances;
+
+	private int head = 0;
+	private long steps = 0;
+	private int recomputeInterval;
+	private int sinceRecompute = 0;
+
+	/* state of the current step, read by the stripes. The ring row of
+	   the step holds the values leaving the window until the step ends,
+	   or the new values when recomputing. */
+	private double[] stepValues;
+	private int stepOffset;
+	private int row;
+	private int count;
+	private boolean full;
+	private boolean recomputing;
+
+	private ExecutorService pool;
+	private List<Callable<Void>> stripes;
+
+	/**
+	 * @param nSymbols Number of symbols
+	 * @param windowLength Number of steps of the rolling window
+	 */
+	public MDFARollingCorrelation(int nSymbols, int windowLength) {
+
+		if(nSymbols < 2) {
+			throw new IllegalArgumentException("Correlation needs at least 2 symbols");
+		}
+		if(windowLength < 2) {
+			throw new IllegalArgumentException("Window must hold at least 2 steps");
+		}
+		this.nSymbols = nSymbols;
+		this.windowLength = windowLength;
+		this.nPairs = nSymbols * (nSymbols - 1) / 2;
+		this.window = new double[windowLength * nSymbols];
+		this.previousMeans = new double[nSymbols];
+		this.removedMeans = new double[nSymbols];
+		this.means = new double[nSymbols];
+		this.comoments = new double[nSymbols * (nSymbols + 1) / 2];
+		this.covariances = new double[nPairs];
+		this.correlations = new double[nPairs];
+		this.variances = new double[nSymbols];
+		this.recomputeInterval = windowLength;
+	}
+
+	/**
+	 * Updates the pairs in concurrent stripes
+	 *
+	 * @param pool Runs the stripes, null updates all pairs on the calling thread
+	 * @param nStripes Number of stripes, for example the number of cores
+	 * @return this
+	 */
+	public MDFARollingCorrelation setPool(ExecutorService pool, int nStripes) {
+
+		if(nStripes < 1) {
+			throw new IllegalArgumentException("Number of stripes must be at least 1");
+		}
+		this.pool = pool;
+		this.stripes = new ArrayList<Callable<Void>>();
+		for(int s = 0; s < Math.min(nStripes, nSymbols); s++) {
+
+			final int first = s;
+			final int stride = Math.min(nStripes, nSymbols);
+			stripes.add(new Callable<Void>() {
+
+				@Override
+				public Void call() throws Exception {
+					updateStripe(first, stride);
+					return null;
+				}
+			});
+		}
+		return this;
+	}
+
+	/**
+	 * @param recomputeInterval Number of steps between two recomputations of the co-moments
+	 * @return this
+	 */
+	public MDFARollingCorrelation setRecomputeInterval(int recomputeInterval) {
+
+		if(recomputeInterval < 1) {
+			throw new IllegalArgumentException("Recompute interval must be at least 1");
+		}
+		this.recomputeInterval = recomputeInterval;
+		return this;
+	}
+
+	/**
+	 * Adds the values of every symbol at a new step
+	 *
+	 * @param values Value of every symbol
+	 * @throws InterruptedException If interrupted while waiting for the stripes
+	 */
+	public void update(double[] values) throws InterruptedException {
+		update(values, 0);
+	}
+
+	/**
+	 * Adds the values of every symbol at a new step from a row of a
+	 * larger array, such as the outputs of an MDFACrossSectionalEngine
+	 *
+	 * @param values Array holding the value of symbol s at offset + s
+	 * @param offset Index of the value of the first symbol
+	 * @throws InterruptedException If interrupted while waiting for the stripes
+	 */
+	public void update(double[] values, int offset) throws InterruptedException {
+
+		full = steps >= windowLength;
+		row = head * nSymbols;
+		count = (int)Math.min(steps + 1, windowLength);
+		stepValues = values;
+		stepOffset = offset;
+
+		recomputing = ++sinceRecompute >= recomputeInterval;
+		if(recomputing) {
+
+			sinceRecompute = 0;
+			System.arraycopy(values, offset, window, row, nSymbols);
+			recomputeDiagonal();
+		}
+		else {
+			updateDiagonal();
+		}
+
+		for(int i = 0; i < nSymbols; i++) {
+			variances[i] = covariance(comoments[packedIndex(i, i)], count);
+		}
+
+		if(pool == null || stripes.size() == 1) {
+			updateStripe(0, 1);
+		}
+		else {
+			MDFATasks.invokeAllUnchecked(pool, stripes);
+		}
+
+		System.arraycopy(values, offset, window, row, nSymbols);
+		head = (head + 1 == windowLength) ? 0 : head + 1;
+		steps++;
+	}
+
+	/* Means and diagonal co-moments, every stripe needs all means and variances */
+	private void updateDiagonal() {
+
+		for(int i = 0; i < nSymbols; i++) {
+
+			int diagonal = packedIndex(i, i);
+			double mean = means[i];
+			previousMeans[i] = mean;
+
+			/* the window holds count values including the leaving one */
+			if(full) {
+
+				double old = window[row + i];
+				double removed = mean - (old - mean) / (count - 1);
+				comoments[diagonal] -= (old - removed) * (old - mean);
+				mean = removed;
+			}
+			removedMeans[i] = mean;
+
+			double value = stepValues[stepOffset + i];
+			double added = mean + (value - mean) / count;
+			comoments[diagonal] += (value - mean) * (value - added);
+			means[i] = added;
+		}
+	}
+
+	/* Means and diagonal co-moments from the window, which holds the new values */
+	private void recomputeDiagonal() {
+
+		for(int i = 0; i < nSymbols; i++) {
+
+			double sum = 0;
+			for(int r = 0; r < count; r++) {
+				sum += window[r * nSymbols + i];
+			}
+			double mean = sum / count;
+
+			double square = 0;
+			for(int r = 0; r < count; r++) {
+
+				double deviation = window[r * nSymbols + i] - mean;
+				square += deviation * deviation;
+			}
+			means[i] = mean;
+			comoments[packedIndex(i, i)] = square;
+		}
+	}
+
+	/* Off-diagonal co-moments and outputs of rows first, first + stride, ... */
+	private void updateStripe(int first, int stride) {
+
+		double[] values = stepValues;
+		int offset = stepOffset;
+		int m = count;
+
+		for(int i = first; i < nSymbols; i += stride) {
+
+			double xi = values[offset + i] - removedMeans[i];
+			double oi = full ? window[row + i] - removedMeans[i] : 0;
+			double meanI = means[i];
+			int diagonal = packedIndex(i, i);
+			int pair = (i + 1 < nSymbols) ? pairIndex(i, i + 1) : 0;
+
+			for(int j = i + 1; j < nSymbols; j++, pair++) {
+
+				int index = diagonal + j - i;
+				if(recomputing) {
+
+					double meanJ = means[j];
+					double sum = 0;
+					for(int r = 0; r < m; r++) {
+						sum += (window[r * nSymbols + i] - meanI) * (window[r * nSymbols + j] - meanJ);
+					}
+					comoments[index] = sum;
+				}
+				else {
+					/* remove the leaving values, then add the new ones */
+					double comoment = comoments[index];
+					if(full) {
+						comoment -= oi * (window[row + j] - previousMeans[j]);
+					}
+					comoments[index] = comoment + xi * (values[offset + j] - means[j]);
+				}
+
+				double covariance = covariance(comoments[index], m);
+				double scale = variances[i] * variances[j];
+				covariances[pair] = covariance;
+				correlations[pair] = (scale > 0) ? covariance / Math.sqrt(scale) : 0;
+			}
+		}
+	}
+
+	/* Sample covariance from the centered co-moment of m steps */
+	private static double covariance(double comoment, int m) {
+		return (m > 1) ? comoment / (m - 1) : 0;
+	}
+
+	/* Index of (i, j), j >= i, in the packed upper triangle with diagonal */
+	private int packedIndex(int i, int j) {
+		return i * nSymbols - i * (i - 1) / 2 + (j - i);
+	}
+
+	/* Index of (i, j), j > i, among the pairs */
+	private int pairIndex(int i, int j) {
+		return i * (2 * nSymbols - i - 1) / 2 + (j - i - 1);
+	}
+
+	/**
+	 * @return Correlation of symbols i and j over the window
+	 */
+	public double getCorrelation(int i, int j) {
+
+		if(i == j) {
+			return (variances[i] > 0) ? 1 : 0;
+		}
+		return correlations[(i < j) ? pairIndex(i, j) : pairIndex(j, i)];
+	}
+
+	/**
+	 * @return Sample covariance of symbols i and j over the window
+	 */
+	public double getCovariance(int i, int j) {
+
+		if(i == j) {
+			return variances[i];
+		}
+		return covariances[(i < j) ? pairIndex(i, j) : pairIndex(j, i)];
+	}
+
+	/**
+	 * @return Correlation of every pair i < j, ordered by i and then j,
+	 * overwritten by the next update
+	 */
+	public double[] getCorrelations() {
+		return correlations;
+	}
+
+	/**
+	 * @return Sample covariance of every pair i < j, ordered by i and
+	 * then j, overwritten by the next update
+	 */
+	public double[] getCovariances() {
+		return covariances;
+	}
+
+	/**
+	 * @return true once the window holds windowLength steps
+	 */
+	public boolean isWarm() {
+		return steps >= windowLength;
+	}
+
+	public long getSteps() {
+		return steps;
+	}
+
+	public int getNumberOfSymbols() {
+		return nSymbols;
+	}
+
+	public int getNumberOfPairs() {
+		return nPairs;
+	}
+
+	public int getWindowLength() {
+		return windowLength;
+	}
+
+	public int getRecomputeInterval() {
+		return recomputeInterval;
+	}
+
+}
@@ -0,0 +1,159 @@
+package ch.imetrica.mdlfa.features;
+
+/**
+ * Spectrum of a rolling window, updated in O(M) per new observation
+ * for the M = N/2+1 frequencies of a window of length N.
+ *
+ * When x_new enters the window and x_old leaves it, every frequency of
+ * the grid is updated with the sliding DFT recurrence
+ * S_j = (S_j - x_old + x_new) * exp(i*omega_j), which is exact because
+ * omega_j*N is a multiple of 2*pi. Rounding errors of the recurrence
+ * accumulate over the updates, so the spectrum is recomputed from the
+ * window after every recomputeInterval updates. With the default
+ * interval of N updates the recomputation adds O(M) per update on
+ * average, but the update that triggers it costs O(N*M).
+ *
+ * Where no update may take that long, a recompute interval of 0 turns
+ * the recomputation off and another thread corrects the drift with
+ * resynchronize: it transforms a copy of getWindow() on its own, and
+ * resynchronize then replaces the spectrum by that transform and
+ * replays the few updates made in the meantime, in O(M) each.
+ *
+ * The spectrum is not thread safe, it is updated and read by the
+ * thread that owns it, for example under the lock of an
+ * MDFACoefficientScheduler.
+ *
+ * <code>new MDFASlidingSpectrum(window).setRecomputeInterval(1000)</code>
+ *
+ */
+public class MDFASlidingSpectrum extends MDFASpectrum {
+
+	/* the window, oldest observation at head */
+	private final double[] window;
+	private int head = 0;
+
+	private int recomputeInterval;
+	private int sinceRecompute = 0;
+	private long updates = 0;
+
+	/**
+	 * @param x The initial window, oldest observation first
+	 */
+	public MDFASlidingSpectrum(double[] x) {
+
+		super(x);
+		this.window = x.clone();
+		this.recomputeInterval = x.length;
+	}
+
+	/**
+	 * @param recomputeInterval Number of updates between two recomputations
+	 * of the spectrum, 0 to only recompute on request
+	 * @return this
+	 */
+	public MDFASlidingSpectrum setRecomputeInterval(int recomputeInterval) {
+
+		if(recomputeInterval < 0) {
+			throw new IllegalArgumentException("Recompute interval must not be negative");
+		}
+		this.recomputeInterval = recomputeInterval;
+		return this;
+	}
+
+	/**
+	 * Slides the window by one observation
+	 *
+	 * @param value The new observation, replacing the oldest one
+	 */
+	public void update(double value) {
+
+		double delta = value - window[head];
+		window[head] = value;
+		if(++head == length) {
+			head = 0;
+		}
+		updates++;
+
+		if(++sinceRecompute >= recomputeInterval && recomputeInterval > 0) {
+			recompute();
+			return;
+		}
+		slide(delta);
+	}
+
+	/* S_j = (S_j + delta) * exp(i*omega_j) for every frequency */
+	private void slide(double delta) {
+
+		for(int j = 0; j < nFrequencies; j++) {
+
+			double re = real[j] + delta;
+			double im = imag[j];
+			real[j] = re * cosines[j] - im * sines[j];
+			imag[j] = re * sines[j] + im * cosines[j];
+		}
+	}
+
+	/**
+	 * Recomputes the spectrum from the window, removing the rounding
+	 * errors accumulated by the updates
+	 */
+	public void recompute() {
+
+		transform(window, head);
+		sinceRecompute = 0;
+	}
+
+	/**
+	 * Replaces the spectrum by a transform computed from an earlier
+	 * copy of the window, and replays the updates made since the copy.
+	 * Nothing is replaced if the whole window has been updated since.
+	 *
+	 * @param exact Transform of window
+	 * @param window Copy of getWindow(), taken when getUpdates() returned updatesAtCopy
+	 * @param updatesAtCopy Number of updates when the window was copied
+	 * @return true if the spectrum was replaced
+	 */
+	public boolean resynchronize(MDFASpectrum exact, double[] window, long updatesAtCopy) {
+
+		if(exact.length != length || window.length != length) {
+			throw new IllegalArgumentException("Expected a window of " + length + " observations");
+		}
+		long missed = updates - updatesAtCopy;
+		if(missed < 0 || missed >= length) {
+			return false;
+		}
+
+		System.arraycopy(exact.real, 0, real, 0, nFrequencies);
+		System.arraycopy(exact.imag, 0, imag, 0, nFrequencies);
+
+		/* update i of the missed ones replaced window[i] by the value now at head - missed + i */
+		for(int i = 0; i < missed; i++) {
+			slide(this.window[(int)((head - missed + i + length) % length)] - window[i]);
+		}
+		sinceRecompute = (int)missed;
+		return true;
+	}
+
+	/**
+	 * @return The current window, oldest observation first
+	 */
+	public double[] getWindow() {
+
+		double[] x = new double[length];
+		System.arraycopy(window, head, x, 0, length - head);
+		System.arraycopy(window, 0, x, length - head, head);
+		return x;
+	}
+
+	public int getRecomputeInterval() {
+		return recomputeInterval;
+	}
+
+	/**
+	 * @return Number of updates since construction
+	 */
+	public long getUpdates() {
+		return updates;
+	}
+
+}
@@ -0,0 +1,211 @@
+package ch.imetrica.mdlfa.features;
+
+import ch.imetrica.mdfa.mdfa.MDFABase;
+
+/**
+ * Discrete Fourier transform and periodogram of one window of the
+ * target series.
+ *
+ * The transform is evaluated on the MDFA frequency grid
+ * omega_j = 2*pi*j/N for j = 0, ..., N/2 of a window of length N, as
+ * S_j = sum over t of x_t * exp(-i*omega_j*t). The periodogram is
+ * |S_j|^2 / (2*pi*N). One spectrum of a window serves every filter
+ * evaluated on it, for example to compute the mean square error of
+ * each filter of a bank with meanSquaredErrors, as
+ * MDFACoefficientScheduler does on every bar.
+ *
+ * The window holds the target series as the solvers see it, that is
+ * the values of MultivariateFXSeries.getTargetValue, which the toolkit
+ * has already transformed with the weight of the TargetSeries.
+ *
+ * Sines and cosines come from one table of the N-th roots of unity,
+ * so the transform costs N*(N/2+1) multiply-adds and no trigonometric
+ * function calls after the table.
+ *
+ */
+public class MDFASpectrum {
+
+	final int length;
+	final int nFrequencies;
+
+	/* cos and sin of 2*pi*k/N */
+	final double[] cosines;
+	final double[] sines;
+
+	/* unnormalized transform S_j */
+	final double[] real;
+	final double[] imag;
+
+	/**
+	 * Computes the transform of a window
+	 *
+	 * @param x The window, oldest observation first
+	 */
+	public MDFASpectrum(double[] x) {
+
+		this(x.length);
+		transform(x, 0);
+	}
+
+	/**
+	 * A copy of a spectrum, sharing its tables of roots of unity
+	 *
+	 * @param spectrum The spectrum to copy
+	 */
+	public MDFASpectrum(MDFASpectrum spectrum) {
+
+		this.length = spectrum.length;
+		this.nFrequencies = spectrum.nFrequencies;
+		this.cosines = spectrum.cosines;
+		this.sines = spectrum.sines;
+		this.real = spectrum.real.clone();
+		this.imag = spectrum.imag.clone();
+	}
+
+	/* An empty spectrum for windows of the given length */
+	MDFASpectrum(int length) {
+
+		if(length < 2) {
+			throw new IllegalArgumentException("Window must hold at least 2 observations");
+		}
+		this.length = length;
+		this.nFrequencies = length / 2 + 1;
+		this.cosines = new double[length];
+		this.sines = new double[length];
+		this.real = new double[nFrequencies];
+		this.imag = new double[nFrequencies];
+
+		for(int k = 0; k < length; k++) {
+			cosines[k] = Math.cos(2.0 * Math.PI * k / length);
+			sines[k] = Math.sin(2.0 * Math.PI * k / length);
+		}
+	}
+
+	/* Transform of the window x[start], x[start+1], ... read circularly */
+	void transform(double[] x, int start) {
+
+		for(int j = 0; j < nFrequencies; j++) {
+
+			double re = 0;
+			double im = 0;
+			int k = 0;
+			int t = start;
+			for(int i = 0; i < length; i++) {
+
+				re += x[t] * cosines[k];
+				im -= x[t] * sines[k];
+				k += j;
+				if(k >= length) {
+					k -= length;
+				}
+				if(++t == length) {
+					t = 0;
+				}
+			}
+			real[j] = re;
+			imag[j] = im;
+		}
+	}
+
+	/**
+	 * Periodogram of the window, |S_j|^2 / (2*pi*N)
+	 *
+	 * @return One value per frequency of the grid
+	 */
+	public double[] getPeriodogram() {
+
+		double[] periodogram = new double[nFrequencies];
+		double norm = 1.0 / (2.0 * Math.PI * length);
+		for(int j = 0; j < nFrequencies; j++) {
+			periodogram[j] = (real[j] * real[j] + imag[j] * imag[j]) * norm;
+		}
+		return periodogram;
+	}
+
+	/**
+	 * Mean square error of a filter on this window: the periodogram
+	 * weighted squared distance between the ideal frequency response
+	 * of the extractor and the response of the coefficients, summed
+	 * over the frequency grid and scaled by 2*pi/N. The ideal response
+	 * is 1 between the bandpass and the lowpass cutoff and 0 elsewhere.
+	 *
+	 * This is only the mean square part of the MDFA criterion. The
+	 * customization by lambda and alpha, the i1 constraints and the
+	 * regularization of the extractor are not applied, so the value
+	 * matches the criterion minimized by the solver only for an
+	 * extractor without customization, constraints and regularization.
+	 *
+	 * @param anyMDFA The extractor giving the cutoffs
+	 * @param coefficients Coefficients of the filter, coefficient l applied to lag l
+	 * @return The mean square error
+	 */
+	public double meanSquaredError(MDFABase anyMDFA, double[] coefficients) {
+
+		double lowpass = anyMDFA.getLowPassCutoff();
+		double bandpass = anyMDFA.getBandPassCutoff();
+		double norm = 1.0 / (2.0 * Math.PI * length);
+
+		double sum = 0;
+		for(int j = 0; j < nFrequencies; j++) {
+
+			double omega = 2.0 * Math.PI * j / length;
+			double ideal = (omega >= bandpass && omega <= lowpass) ? 1.0 : 0.0;
+
+			double re = 0;
+			double im = 0;
+			int k = 0;
+			for(int l = 0; l < coefficients.length; l++) {
+
+				re += coefficients[l] * cosines[k];
+				im -= coefficients[l] * sines[k];
+				k += j;
+				if(k >= length) {
+					k -= length;
+				}
+			}
+
+			double periodogram = (real[j] * real[j] + imag[j] * imag[j]) * norm;
+			sum += ((ideal - re) * (ideal - re) + im * im) * periodogram;
+		}
+		return 2.0 * Math.PI * sum / length;
+	}
+
+	/**
+	 * Mean square error of every filter of a bank on this window
+	 *
+	 * @param anyMDFAs Extractors of the bank
+	 * @param coefficients Coefficients of every extractor
+	 * @return One mean square error per extractor
+	 */
+	public double[] meanSquaredErrors(MDFABase[] anyMDFAs, double[][] coefficients) {
+
+		double[] errors = new double[anyMDFAs.length];
+		for(int k = 0; k < anyMDFAs.length; k++) {
+			errors[k] = meanSquaredError(anyMDFAs[k], coefficients[k]);
+		}
+		return errors;
+	}
+
+	/**
+	 * @return Real part of the unnormalized transform S_j, a copy
+	 */
+	public double[] getReal() {
+		return real.clone();
+	}
+
+	/**
+	 * @return Imaginary part of the unnormalized transform S_j, a copy
+	 */
+	public double[] getImag() {
+		return imag.clone();
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	public int getNumberOfFrequencies() {
+		return nFrequencies;
+	}
+
+}
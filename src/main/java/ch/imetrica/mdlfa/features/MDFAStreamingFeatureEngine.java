@@ -0,0 +1,209 @@
+package ch.imetrica.mdlfa.features;
+
+import java.util.Arrays;
+
+import ch.imetrica.mdfa.mdfa.MDFABase;
+
+/**
+ * Tick-by-tick MDFA features for live streaming.
+ *
+ * The engine applies the solved coefficients of a bank of K feature
+ * extractors to a stream of target series values. It keeps the last
+ * L observations in a ring buffer and computes the K filter outputs
+ * of every new observation, which costs K*L multiply-adds per tick.
+ * No objects are allocated after construction: the ring buffer, the
+ * coefficients and the array of filter outputs are preallocated and
+ * reused by every tick.
+ *
+ * The ring buffer stores every observation twice, L positions apart,
+ * so the last L observations are always one contiguous slice and the
+ * inner loop needs no index wrapping. The coefficients of all filters
+ * are kept in one flat array, filters shorter than the longest one
+ * are padded with zeros.
+ *
+ * The values passed to tick are those the filters are applied to,
+ * the target series values as in MultivariateFXSeries.getTargetValue.
+ * The engine is not thread-safe, one engine serves one stream.
+ *
+ */
+public class MDFAStreamingFeatureEngine {
+
+	private final MDFABase[] anyMDFAs;
+	private final int nFilters;
+	private final int filterLength;
+
+	/* coefficient l of filter k at k*filterLength + l, applied to the observation l ticks ago */
+	private final double[] coefficients;
+
+	/* each observation at head and head + filterLength */
+	private final double[] ring;
+	private final double[] features;
+	private double[][] appliedCoefficients;
+	private int head = 0;
+	private long ticks = 0;
+
+	/**
+	 * @param anyMDFAs A collection of feature extractors
+	 * @param coefficients Solved coefficients of every extractor,
+	 * for example from MDFAFilterBank.getCoefficients()
+	 */
+	public MDFAStreamingFeatureEngine(MDFABase[] anyMDFAs, double[][] coefficients) {
+
+		if(coefficients.length != anyMDFAs.length) {
+			throw new IllegalArgumentException("Expected " + anyMDFAs.length
+					+ " coefficient sets, got " + coefficients.length);
+		}
+
+		this.anyMDFAs = anyMDFAs;
+		this.nFilters = anyMDFAs.length;
+		this.filterLength = maxLength(coefficients);
+		this.coefficients = new double[nFilters * filterLength];
+		this.ring = new double[2 * filterLength];
+		this.features = new double[nFilters];
+
+		setCoefficients(coefficients);
+	}
+
+	/**
+	 * Instantiates the engine with the coefficients of a solved bank
+	 *
+	 * @param bank A solved filter bank
+	 */
+	public MDFAStreamingFeatureEngine(MDFAFilterBank bank) {
+		this(bank.getFeatureExtractors(), bank.getCoefficients());
+	}
+
+	/**
+	 * Replaces the coefficients, for example after a new solve, while
+	 * keeping the recent observations. Coefficient sets may not be
+	 * longer than those of the constructor.
+	 *
+	 * @param coefficients Solved coefficients of every extractor
+	 */
+	public void setCoefficients(double[][] coefficients) {
+
+		packCoefficients(coefficients, this.coefficients, filterLength);
+		appliedCoefficients = coefficients;
+	}
+
+	/* Length of the longest coefficient set, at least 1 */
+	static int maxLength(double[][] coefficients) {
+
+		int maxLength = 1;
+		for(double[] coefficientSet : coefficients) {
+			maxLength = Math.max(maxLength, coefficientSet.length);
+		}
+		return maxLength;
+	}
+
+	/* Coefficient l of set k at k*filterLength + l, shorter sets padded with zeros */
+	static void packCoefficients(double[][] coefficients, double[] packed, int filterLength) {
+
+		int nFilters = packed.length / filterLength;
+		if(coefficients.length != nFilters) {
+			throw new IllegalArgumentException("Expected " + nFilters
+					+ " coefficient sets, got " + coefficients.length);
+		}
+
+		for(int k = 0; k < nFilters; k++) {
+
+			if(coefficients[k].length > filterLength) {
+				throw new IllegalArgumentException("Coefficient set " + k + " longer than "
+					+ filterLength);
+			}
+			int offset = k * filterLength;
+			System.arraycopy(coefficients[k], 0, packed, offset, coefficients[k].length);
+			Arrays.fill(packed, offset + coefficients[k].length, offset + filterLength, 0);
+		}
+	}
+
+	/**
+	 * Applies the given coefficients unless they are the ones applied
+	 * last, compared by reference. Meant to be called before every
+	 * tick with the coefficients published by an
+	 * MDFACoefficientScheduler, which only copies after a new estimate.
+	 *
+	 * @param coefficients Latest published coefficients, null keeps the current ones
+	 * @return true if the coefficients were replaced
+	 */
+	public boolean updateCoefficients(double[][] coefficients) {
+
+		if(coefficients == null || coefficients == appliedCoefficients) {
+			return false;
+		}
+		setCoefficients(coefficients);
+		return true;
+	}
+
+	/**
+	 * Adds a new observation and computes the filter outputs. The
+	 * returned array is overwritten by the next tick.
+	 *
+	 * @param value New value of the target series
+	 * @return Output of every filter, valid once isWarm()
+	 */
+	public double[] tick(double value) {
+
+		ring[head] = value;
+		ring[head + filterLength] = value;
+
+		/* the observation l ticks ago is at newest - l */
+		int newest = head + filterLength;
+		for(int k = 0; k < nFilters; k++) {
+
+			int offset = k * filterLength;
+			double sum = 0;
+			for(int l = 0; l < filterLength; l++) {
+				sum += coefficients[offset + l] * ring[newest - l];
+			}
+			features[k] = sum;
+		}
+
+		head = (head + 1 == filterLength) ? 0 : head + 1;
+		ticks++;
+		return features;
+	}
+
+	/**
+	 * @return true once filterLength observations were added, before
+	 * that the outputs treat the missing observations as zeros
+	 */
+	public boolean isWarm() {
+		return ticks >= filterLength;
+	}
+
+	/**
+	 * Forgets all observations, the coefficients are kept
+	 */
+	public void reset() {
+
+		Arrays.fill(ring, 0);
+		Arrays.fill(features, 0);
+		head = 0;
+		ticks = 0;
+	}
+
+	/**
+	 * @return Output of every filter at the last tick
+	 */
+	public double[] getFeatures() {
+		return features;
+	}
+
+	public long getTicks() {
+		return ticks;
+	}
+
+	public int getFilterLength() {
+		return filterLength;
+	}
+
+	public int getNumberOfFeatures() {
+		return nFilters;
+	}
+
+	public MDFABase[] getFeatureExtractors() {
+		return anyMDFAs;
+	}
+
+}
@@ -0,0 +1,459 @@
+package ch.imetrica.mdlfa.features;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import com.tictactec.ta.lib.Core;
+import com.tictactec.ta.lib.MAType;
+import com.tictactec.ta.lib.MInteger;
+import com.tictactec.ta.lib.RetCode;
+
+import ch.imetrica.mdlfa.util.MDFATasks;
+
+/**
+ * Technical indicator features from TA-Lib, computed next to the MDFA
+ * features into the same feature matrix.
+ *
+ * The stage holds a configurable list of indicators, each computed by
+ * the TA-Lib Core over primitive price arrays. Indicators write their
+ * outputs into consecutive columns of a feature matrix laid out like
+ * the feature columns of an MDFABatchAssembler, one column per output
+ * and one row per observation. TA-Lib starts an indicator after its
+ * lookback period, the observations before are set to 0, as are the
+ * outputs of the MDFA engines before they are warm.
+ *
+ * computeAlongside fills the MDFA columns with an MDFABatchFilter and
+ * the indicator columns at the same time, the filtering and every
+ * indicator as a separate task on a pool. Every task writes to its own
+ * columns, so the matrix is filled in one parallel pass.
+ *
+ * Indicators on high and low prices need both arrays, the others only
+ * use the close prices.
+ *
+ * <code>new TALibFeatureStage().addIndicator(TALibFeatureStage.rsi(14)).addIndicator(TALibFeatureStage.macd(12, 26, 9))</code>
+ *
+ */
+public class TALibFeatureStage {
+
+	/**
+	 * One TA-Lib indicator with its parameters
+	 */
+	public static abstract class Indicator {
+
+		private final String name;
+		private final int nOutputs;
+		private final boolean highLow;
+
+		/**
+		 * @param name Name of the indicator and its parameters
+		 * @param nOutputs Number of output columns
+		 * @param highLow true if the indicator needs high and low prices
+		 */
+		protected Indicator(String name, int nOutputs, boolean highLow) {
+			this.name = name;
+			this.nOutputs = nOutputs;
+			this.highLow = highLow;
+		}
+
+		/**
+		 * Computes the indicator over observations 0 to n-1
+		 *
+		 * @param core The TA-Lib core of the calling thread
+		 * @param n Number of observations
+		 * @param high High prices, or null
+		 * @param low Low prices, or null
+		 * @param close Close prices
+		 * @param begin Receives the first observation with an output
+		 * @param length Receives the number of outputs
+		 * @param outputs One array of length n per output, output i for observation begin + i
+		 * @return The TA-Lib return code
+		 */
+		protected abstract RetCode compute(Core core, int n, double[] high, double[] low, double[] close,
+				MInteger begin, MInteger length, double[][] outputs);
+
+		public String getName() {
+			return name;
+		}
+
+		public int getNumberOfOutputs() {
+			return nOutputs;
+		}
+
+		public boolean needsHighLow() {
+			return highLow;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	private final List<Indicator> indicators = new ArrayList<Indicator>();
+	private int nFeatures = 0;
+
+	/**
+	 * @param indicator An indicator, its outputs follow those of the indicators added before
+	 * @return this
+	 */
+	public TALibFeatureStage addIndicator(Indicator indicator) {
+
+		indicators.add(indicator);
+		nFeatures += indicator.getNumberOfOutputs();
+		return this;
+	}
+
+	/**
+	 * Computes every indicator over the close prices
+	 *
+	 * @param close Close prices
+	 * @param features Receives output j of the stage at observation t in [firstColumn + j][t]
+	 * @param firstColumn Column of the first output
+	 */
+	public void compute(double[] close, double[][] features, int firstColumn) {
+		compute(null, null, close, features, firstColumn);
+	}
+
+	/**
+	 * Computes every indicator on the calling thread
+	 *
+	 * @param high High prices, or null if no indicator needs them
+	 * @param low Low prices, or null if no indicator needs them
+	 * @param close Close prices
+	 * @param features Receives output j of the stage at observation t in [firstColumn + j][t]
+	 * @param firstColumn Column of the first output
+	 */
+	public void compute(double[] high, double[] low, double[] close, double[][] features, int firstColumn) {
+
+		Core core = new Core();
+		int column = firstColumn;
+		for(Indicator indicator : indicators) {
+
+			computeIndicator(core, indicator, high, low, close, features, column);
+			column += indicator.getNumberOfOutputs();
+		}
+	}
+
+	/**
+	 * Fills the MDFA columns of a feature matrix with a batch filter
+	 * and the indicator columns after them, all concurrently
+	 *
+	 * @param batchFilter Filters the target series
+	 * @param x History of the target series
+	 * @param coefficients Coefficients of every MDFA filter
+	 * @param high High prices, or null if no indicator needs them
+	 * @param low Low prices, or null if no indicator needs them
+	 * @param close Close prices at the observations of x
+	 * @param features Receives MDFA filter k in column firstColumn + k and indicator
+	 * output j in column firstColumn + coefficients.length + j
+	 * @param firstColumn Column of the first MDFA filter
+	 * @param pool Runs the filtering and the indicators
+	 * @throws Exception The first failure of any task
+	 */
+	public void computeAlongside(final MDFABatchFilter batchFilter,
+			                     final double[] x,
+			                     final double[][] coefficients,
+			                     final double[] high,
+			                     final double[] low,
+			                     final double[] close,
+			                     final double[][] features,
+			                     final int firstColumn,
+			                     ExecutorService pool) throws Exception {
+
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		tasks.add(new Callable<Void>() {
+
+			@Override
+			public Void call() throws Exception {
+				batchFilter.filter(x, coefficients, features, firstColumn);
+				return null;
+			}
+		});
+		tasks.addAll(tasks(high, low, close, features, firstColumn + coefficients.length));
+		MDFATasks.invokeAll(pool, tasks);
+	}
+
+	/**
+	 * One task per indicator, for callers that run the indicators next
+	 * to their own tasks. Every task uses its own TA-Lib core.
+	 *
+	 * @param high High prices, or null if no indicator needs them
+	 * @param low Low prices, or null if no indicator needs them
+	 * @param close Close prices
+	 * @param features Receives output j of the stage at observation t in [firstColumn + j][t]
+	 * @param firstColumn Column of the first output
+	 * @return The tasks, in the order of the indicators
+	 */
+	public List<Callable<Void>> tasks(final double[] high,
+			                          final double[] low,
+			                          final double[] close,
+			                          final double[][] features,
+			                          int firstColumn) {
+
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		int column = firstColumn;
+		for(final Indicator indicator : indicators) {
+
+			final int indicatorColumn = column;
+			tasks.add(new Callable<Void>() {
+
+				@Override
+				public Void call() throws Exception {
+					computeIndicator(new Core(), indicator, high, low, close, features, indicatorColumn);
+					return null;
+				}
+			});
+			column += indicator.getNumberOfOutputs();
+		}
+		return tasks;
+	}
+
+	private static void computeIndicator(Core core, Indicator indicator, double[] high, double[] low, double[] close,
+			double[][] features, int column) {
+
+		if(indicator.needsHighLow() && (high == null || low == null)) {
+			throw new IllegalArgumentException(indicator + " needs high and low prices");
+		}
+
+		int n = close.length;
+		int nOutputs = indicator.getNumberOfOutputs();
+		if(n == 0) {
+			return;
+		}
+
+		double[][] outputs = new double[nOutputs][n];
+		MInteger begin = new MInteger();
+		MInteger length = new MInteger();
+		RetCode code = indicator.compute(core, n, high, low, close, begin, length, outputs);
+		if(code != RetCode.Success) {
+			throw new IllegalStateException(indicator + " failed with " + code);
+		}
+
+		for(int j = 0; j < nOutputs; j++) {
+
+			double[] out = features[column + j];
+			for(int t = 0; t < begin.value; t++) {
+				out[t] = 0;
+			}
+			System.arraycopy(outputs[j], 0, out, begin.value, length.value);
+			for(int t = begin.value + length.value; t < n; t++) {
+				out[t] = 0;
+			}
+		}
+	}
+
+	/**
+	 * @return Name of every output column, in column order
+	 */
+	public List<String> getFeatureNames() {
+
+		List<String> names = new ArrayList<String>();
+		for(Indicator indicator : indicators) {
+
+			if(indicator.getNumberOfOutputs() == 1) {
+				names.add(indicator.getName());
+			}
+			else {
+				for(int j = 0; j < indicator.getNumberOfOutputs(); j++) {
+					names.add(indicator.getName() + "[" + j + "]");
+				}
+			}
+		}
+		return names;
+	}
+
+	public List<Indicator> getIndicators() {
+		return indicators;
+	}
+
+	/**
+	 * @return Number of output columns of all indicators
+	 */
+	public int getNumberOfFeatures() {
+		return nFeatures;
+	}
+
+	/**
+	 * @param period Number of observations
+	 * @return Simple moving average of the close prices
+	 */
+	public static Indicator sma(final int period) {
+
+		return new Indicator("SMA(" + period + ")", 1, false) {
+
+			@Override
+			protected RetCode compute(Core core, int n, double[] high, double[] low, double[] close,
+					MInteger begin, MInteger length, double[][] outputs) {
+				return core.sma(0, n - 1, close, period, begin, length, outputs[0]);
+			}
+		};
+	}
+
+	/**
+	 * @param period Number of observations
+	 * @return Exponential moving average of the close prices
+	 */
+	public static Indicator ema(final int period) {
+
+		return new Indicator("EMA(" + period + ")", 1, false) {
+
+			@Override
+			protected RetCode compute(Core core, int n, double[] high, double[] low, double[] close,
+					MInteger begin, MInteger length, double[][] outputs) {
+				return core.ema(0, n - 1, close, period, begin, length, outputs[0]);
+			}
+		};
+	}
+
+	/**
+	 * @param period Number of observations
+	 * @return Relative strength index of the close prices
+	 */
+	public static Indicator rsi(final int period) {
+
+		return new Indicator("RSI(" + period + ")", 1, false) {
+
+			@Override
+			protected RetCode compute(Core core, int n, double[] high, double[] low, double[] close,
+					MInteger begin, MInteger length, double[][] outputs) {
+				return core.rsi(0, n - 1, close, period, begin, length, outputs[0]);
+			}
+		};
+	}
+
+	/**
+	 * @param period Number of observations
+	 * @return Momentum, the change of the close price over the period
+	 */
+	public static Indicator mom(final int period) {
+
+		return new Indicator("MOM(" + period + ")", 1, false) {
+
+			@Override
+			protected RetCode compute(Core core, int n, double[] high, double[] low, double[] close,
+					MInteger begin, MInteger length, double[][] outputs) {
+				return core.mom(0, n - 1, close, period, begin, length, outputs[0]);
+			}
+		};
+	}
+
+	/**
+	 * @param period Number of observations
+	 * @return Rate of change of the close price over the period in percent
+	 */
+	public static Indicator roc(final int period) {
+
+		return new Indicator("ROC(" + period + ")", 1, false) {
+
+			@Override
+			protected RetCode compute(Core core, int n, double[] high, double[] low, double[] close,
+					MInteger begin, MInteger length, double[][] outputs) {
+				return core.roc(0, n - 1, close, period, begin, length, outputs[0]);
+			}
+		};
+	}
+
+	/**
+	 * @param period Number of observations
+	 * @return Standard deviation of the close prices
+	 */
+	public static Indicator stdDev(final int period) {
+
+		return new Indicator("STDDEV(" + period + ")", 1, false) {
+
+			@Override
+			protected RetCode compute(Core core, int n, double[] high, double[] low, double[] close,
+					MInteger begin, MInteger length, double[][] outputs) {
+				return core.stdDev(0, n - 1, close, period, 1.0, begin, length, outputs[0]);
+			}
+		};
+	}
+
+	/**
+	 * @param fastPeriod Period of the fast moving average
+	 * @param slowPeriod Period of the slow moving average
+	 * @param signalPeriod Period of the signal line
+	 * @return MACD of the close prices: the MACD line, the signal line and the histogram
+	 */
+	public static Indicator macd(final int fastPeriod, final int slowPeriod, final int signalPeriod) {
+
+		return new Indicator("MACD(" + fastPeriod + "," + slowPeriod + "," + signalPeriod + ")", 3, false) {
+
+			@Override
+			protected RetCode compute(Core core, int n, double[] high, double[] low, double[] close,
+					MInteger begin, MInteger length, double[][] outputs) {
+				return core.macd(0, n - 1, close, fastPeriod, slowPeriod, signalPeriod, begin, length,
+						outputs[0], outputs[1], outputs[2]);
+			}
+		};
+	}
+
+	/**
+	 * @param period Number of observations of the middle band
+	 * @param deviations Distance of the bands from the middle band in standard deviations
+	 * @return Bollinger bands of the close prices: the upper, middle and lower band
+	 */
+	public static Indicator bbands(final int period, final double deviations) {
+
+		return new Indicator("BBANDS(" + period + "," + deviations + ")", 3, false) {
+
+			@Override
+			protected RetCode compute(Core core, int n, double[] high, double[] low, double[] close,
+					MInteger begin, MInteger length, double[][] outputs) {
+				return core.bbands(0, n - 1, close, period, deviations, deviations, MAType.Sma, begin, length,
+						outputs[0], outputs[1], outputs[2]);
+			}
+		};
+	}
+
+	/**
+	 * @param period Number of observations
+	 * @return Average true range, needs high and low prices
+	 */
+	public static Indicator atr(final int period) {
+
+		return new Indicator("ATR(" + period + ")", 1, true) {
+
+			@Override
+			protected RetCode compute(Core core, int n, double[] high, double[] low, double[] close,
+					MInteger begin, MInteger length, double[][] outputs) {
+				return core.atr(0, n - 1, high, low, close, period, begin, length, outputs[0]);
+			}
+		};
+	}
+
+	/**
+	 * @param period Number of observations
+	 * @return Average directional index, needs high and low prices
+	 */
+	public static Indicator adx(final int period) {
+
+		return new Indicator("ADX(" + period + ")", 1, true) {
+
+			@Override
+			protected RetCode compute(Core core, int n, double[] high, double[] low, double[] close,
+					MInteger begin, MInteger length, double[][] outputs) {
+				return core.adx(0, n - 1, high, low, close, period, begin, length, outputs[0]);
+			}
+		};
+	}
+
+	/**
+	 * @param period Number of observations
+	 * @return Williams' %R, needs high and low prices
+	 */
+	public static Indicator willR(final int period) {
+
+		return new Indicator("WILLR(" + period + ")", 1, true) {
+
+			@Override
+			protected RetCode compute(Core core, int n, double[] high, double[] low, double[] close,
+					MInteger begin, MInteger length, double[][] outputs) {
+				return core.willR(0, n - 1, high, low, close, period, begin, length, outputs[0]);
+			}
+		};
+	}
+
+}
@@ -169,6 +169,24 @@ public class SymmetricLabelizer implements Labelizer {
     
 	
 	
+    /**
+     * Returns the coefficients of the symmetric filter, 
+     * computed by computeSymmetricFilter
+     * 
+     * @return Coefficients 0,...,L of the symmetric filter
+     */
+    public double[] getSymmetricFilter() {
+    	return symmetricaCoeffs;
+    }
+	
+    /**
+     * Returns the symmetric filter length L
+     * @return L
+     */
+    public int getFilterLength() {
+    	return L;
+    }
+    
 	@Override
 	public LabelType getLabelType() {
 		return labelType;
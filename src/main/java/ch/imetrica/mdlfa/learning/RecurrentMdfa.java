@@ -1,5 +1,8 @@
 package ch.imetrica.mdlfa.learning;
 
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
 import org.deeplearning4j.eval.Evaluation;
 import org.deeplearning4j.nn.api.OptimizationAlgorithm;
 import org.deeplearning4j.nn.conf.GradientNormalization;
@@ -14,8 +17,7 @@ import org.deeplearning4j.optimize.listeners.ScoreIterationListener;
 import org.nd4j.linalg.activations.Activation;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.DataSet;
-import org.nd4j.linalg.dataset.api.preprocessor.DataNormalization;
-import org.nd4j.linalg.dataset.api.preprocessor.NormalizerStandardize;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
 import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.learning.config.IUpdater;
 import org.nd4j.linalg.learning.config.Nesterovs;
@@ -24,8 +26,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import ch.imetrica.mdfa.mdfa.MDFABase;
+import ch.imetrica.mdlfa.dataiterator.MDFABatchBufferPool;
 import ch.imetrica.mdlfa.dataiterator.MDFADataSetIterator;
+import ch.imetrica.mdlfa.dataiterator.MDFAFeatureSnapshot;
+import ch.imetrica.mdlfa.dataiterator.MDFAFeatureStore;
+import ch.imetrica.mdlfa.dataiterator.MDFAPrefetchIterator;
+import ch.imetrica.mdlfa.dataiterator.MDFAWalkForwardValidation;
+import ch.imetrica.mdlfa.dataiterator.MDFAWalkForwardValidation.Fold;
 import ch.imetrica.mdlfa.features.MDFAFeatureExtraction;
+import ch.imetrica.mdlfa.features.TALibFeatureStage;
 import ch.imetrica.mdlfa.util.TimeSeriesFile;
 
 /**
@@ -50,6 +59,10 @@ public class RecurrentMdfa {
 	private MDFADataSetIterator trainData;
 	private MDFADataSetIterator testData;
 	private MultiLayerNetwork mdfaLSTMNetwork;
+	private int prefetchBufferSize = 4;
+	private boolean recycleBatchBuffers = false;
+	private MDFAFeatureSnapshot featureSnapshot;
+	private TALibFeatureStage indicators;
 	
 	private static final Logger log = LoggerFactory.getLogger(RecurrentMdfa.class);
 
@@ -67,14 +80,17 @@ public class RecurrentMdfa {
 			                             int totalTestExamples,
 			                             int timeStepLength) throws Exception {
 		
-		setTrainData(new MDFADataSetIterator(file, fileInfo,
-				featureExtractor.getFeatureExtractors(),
+		MDFAFeatureStore<int[]> featureStore = (featureSnapshot != null) 
+				? featureSnapshot.classificationStore(file, fileInfo, featureExtractor.getFeatureExtractors(), indicators)
+				: MDFAFeatureStore.buildClassificationStore(file, fileInfo, featureExtractor.getFeatureExtractors(), 
+						indicators);
+		
+		setTrainData(new MDFADataSetIterator(featureStore,
                 miniBatchSize, 
                 totalTrainExamples, 
                 timeStepLength));
 		
-		setTestData(new MDFADataSetIterator(file, fileInfo,
-				featureExtractor.getFeatureExtractors(),
+		setTestData(new MDFADataSetIterator(featureStore,
                 miniBatchSize, 
                 totalTestExamples, 
                 timeStepLength));
@@ -82,13 +98,25 @@ public class RecurrentMdfa {
 		return this;
 	}
 	
+	/**
+	 * Standardizes the features with the mean and variance of the 
+	 * training range only, and the test data with the same statistics. 
+	 * The shared feature store is not modified: the train and test 
+	 * iterators are replaced by views on a standardized copy, so they 
+	 * are configured after this. walkForward then fits the statistics 
+	 * of every fold on its own training range. 
+	 */
 	public void normalizeData() {
 		
-    	DataNormalization normalizer = new NormalizerStandardize();
-        normalizer.fit(trainData);              
-        trainData.reset();
-        trainData.setPreProcessor(normalizer);
-        testData.setPreProcessor(normalizer);
+		MDFAFeatureStore<int[]> featureStore = trainData.getFeatureStore();
+		MDFAFeatureStore<int[]> train = featureStore.standardize(trainData.getFromIndex(), trainData.getToIndex());
+		MDFAFeatureStore<int[]> test = (testData.getFeatureStore() == featureStore) ? train 
+				: testData.getFeatureStore().standardize(train.getFeatureStatistics(), null);
+		
+		setTrainData(new MDFADataSetIterator(train, trainData.getFromIndex(), trainData.getToIndex(), 
+				trainData.getMiniBatchSize(), trainData.getTotalExamples(), trainData.getTimeStepLength()));
+		setTestData(new MDFADataSetIterator(test, testData.getFromIndex(), testData.getToIndex(), 
+				testData.getMiniBatchSize(), testData.getTotalExamples(), testData.getTimeStepLength()));
 	}
 	
 	
@@ -110,7 +138,8 @@ public class RecurrentMdfa {
 	public void buildNetworkLayers(int nHiddenLayers, int nHidden, NeuralNetConfiguration.ListBuilder listBuilder) {
 		
 		
-		int numInput = featureExtractor.getNumberOfFeatures();
+		int numInput = (trainData != null) ? trainData.getNumberOfFeatures() 
+				                           : featureExtractor.getNumberOfFeatures();
 		
 		listBuilder.layer(0, new GravesLSTM.Builder()
 	            .nIn(numInput).nOut(nHidden)
@@ -150,18 +179,21 @@ public class RecurrentMdfa {
 
 	public void train(int nEpochs) {
 		
+		DataSetIterator trainIterator = prefetch(trainData);
+		DataSetIterator testIterator = prefetch(testData);
+		
 		String str = "Test set evaluation at epoch %d: Accuracy = %.2f, F1 = %.2f";
         for (int i = 0; i < nEpochs; i++) {
         	
-        	mdfaLSTMNetwork.fit(trainData);
+        	mdfaLSTMNetwork.fit(trainIterator);
 
             //Evaluate on the test set:
-            Evaluation evaluation = mdfaLSTMNetwork.evaluate(testData);
+            Evaluation evaluation = mdfaLSTMNetwork.evaluate(testIterator);
             log.info(String.format(str, i, evaluation.accuracy(), evaluation.f1()));
             System.out.println(String.format(str, i, evaluation.accuracy(), evaluation.f1()));
 
-            testData.reset();
-            trainData.reset();
+            testIterator.reset();
+            trainIterator.reset();
         }
 
         log.info("----- Example Complete -----");
@@ -171,6 +203,132 @@ public class RecurrentMdfa {
 	}
 	
 
+	/**
+	 * Walk-forward validation of the network configuration on the 
+	 * feature store of the training data. Every fold trains a new 
+	 * network with the configuration of buildNetworkLayers on views 
+	 * of the shared store, so the features are built only once, and 
+	 * the folds are trained concurrently on the given pool. 
+	 * 
+	 * After normalizeData, every fold standardizes a copy of the 
+	 * store with the statistics of its own training range, so no fold 
+	 * is standardized with statistics of its test block. 
+	 * 
+	 * @param validation Splits of the feature store into folds
+	 * @param nEpochs Number of epochs trained in every fold
+	 * @param pool Pool running the folds, for example ForkJoinPool.commonPool()
+	 * @return Evaluation on the test block of every fold, in the order of the folds
+	 * @throws Exception The first failure of any fold
+	 */
+	public List<Evaluation> walkForward(MDFAWalkForwardValidation validation, 
+			                            final int nEpochs, 
+			                            ForkJoinPool pool) throws Exception {
+		
+		final MDFAFeatureStore<int[]> featureStore = trainData.getFeatureStore();
+		final MultiLayerConfiguration conf = mdfaLSTMNetwork.getLayerWiseConfigurations();
+		final int miniBatchSize = trainData.getMiniBatchSize();
+		final int timeStepLength = trainData.getTimeStepLength();
+		
+		return validation.run(new MDFAWalkForwardValidation.FoldTask<Evaluation>() {
+
+			@Override
+			public Evaluation run(Fold fold) throws Exception {
+				
+				MultiLayerNetwork network = new MultiLayerNetwork(conf.clone());
+				network.init();
+				
+				/* standardizing is affine, refitting a standardized store equals fitting the raw one */
+				MDFAFeatureStore<int[]> foldStore = featureStore.isStandardized() 
+						? featureStore.standardize(fold.getTrainFrom(), fold.getTrainTo()) : featureStore;
+				
+				DataSetIterator trainIterator = prefetch(new MDFADataSetIterator(foldStore, 
+						fold.getTrainFrom(), fold.getTrainTo(), miniBatchSize, 
+						fold.getTrainTo() - fold.getTrainFrom(), timeStepLength));
+				DataSetIterator testIterator = prefetch(new MDFADataSetIterator(foldStore, 
+						fold.getTestFrom(), fold.getTestTo(), miniBatchSize, 
+						fold.getTestTo() - fold.getTestFrom(), timeStepLength));
+				
+				for(int i = 0; i < nEpochs; i++) {
+					network.fit(trainIterator);
+					trainIterator.reset();
+				}
+				
+				Evaluation evaluation = network.evaluate(testIterator);
+				log.info(String.format("%s: Accuracy = %.2f, F1 = %.2f", fold, evaluation.accuracy(), evaluation.f1()));
+				return evaluation;
+			}
+		}, pool);
+	}
+
+	/**
+	 * Wraps the iterator in an MDFAPrefetchIterator so that the next 
+	 * minibatches are assembled while the network is fitting
+	 */
+	private DataSetIterator prefetch(MDFADataSetIterator iterator) {
+		
+		/* queued, fitted and assembled minibatches must not share a buffer */
+		if(recycleBatchBuffers) {
+			iterator.setBatchBufferPool(new MDFABatchBufferPool(MDFABatchBufferPool.buffersForPrefetch(prefetchBufferSize)));
+		}
+		if(prefetchBufferSize > 0) {
+			return new MDFAPrefetchIterator(iterator, prefetchBufferSize);
+		}
+		return iterator;
+	}
+	
+	/**
+	 * Sets the number of minibatches assembled ahead of training 
+	 * and evaluation. A size of 0 turns prefetching off. 
+	 * 
+	 * @param prefetchBufferSize Number of prefetched minibatches
+	 * @return this
+	 */
+	public RecurrentMdfa setPrefetchBufferSize(int prefetchBufferSize) {
+		this.prefetchBufferSize = prefetchBufferSize;
+		return this;
+	}
+	
+	/**
+	 * Recycles a fixed set of minibatch buffers during training 
+	 * instead of allocating new arrays for every minibatch
+	 * 
+	 * @param recycleBatchBuffers true to use an MDFABatchBufferPool
+	 * @return this
+	 */
+	public RecurrentMdfa setRecycleBatchBuffers(boolean recycleBatchBuffers) {
+		this.recycleBatchBuffers = recycleBatchBuffers;
+		return this;
+	}
+	
+	/**
+	 * Keeps binary snapshots of the built feature stores in the given 
+	 * directory, so that setTrainingTestData reads the features of 
+	 * previously seen files and feature extractors instead of 
+	 * building them again. Must be set before setTrainingTestData.
+	 * 
+	 * @param directory Snapshot directory, or null to always build the features
+	 * @return this
+	 */
+	public RecurrentMdfa setSnapshotDirectory(String directory) {
+		this.featureSnapshot = (directory != null) ? new MDFAFeatureSnapshot(directory) : null;
+		return this;
+	}
+	
+	/**
+	 * Adds the outputs of a TA-Lib indicator stage to the MDFA features 
+	 * of the store built by setTrainingTestData, and to the key of its 
+	 * snapshot when a snapshot directory is set. The input layer of 
+	 * buildNetworkLayers grows by the number of indicator outputs, so 
+	 * both must be called after this.
+	 * 
+	 * @param indicators Indicator stage, or null for MDFA features only
+	 * @return this
+	 */
+	public RecurrentMdfa setIndicators(TALibFeatureStage indicators) {
+		this.indicators = indicators;
+		return this;
+	}
+
 	public MDFADataSetIterator getTrainData() {
 		return trainData;
 	}
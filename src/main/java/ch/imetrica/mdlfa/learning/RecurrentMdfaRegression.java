@@ -32,9 +32,8 @@ import org.jfree.data.xy.XYSeriesCollection;
 import org.nd4j.linalg.activations.Activation;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.DataSet;
-import org.nd4j.linalg.dataset.api.preprocessor.DataNormalization;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
 import org.nd4j.linalg.dataset.api.preprocessor.NormalizerMinMaxScaler;
-import org.nd4j.linalg.dataset.api.preprocessor.NormalizerStandardize;
 import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.learning.config.IUpdater;
 import org.nd4j.linalg.learning.config.Nesterovs;
@@ -43,9 +42,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import ch.imetrica.mdfa.mdfa.MDFABase;
+import ch.imetrica.mdlfa.dataiterator.MDFABatchBufferPool;
 import ch.imetrica.mdlfa.dataiterator.MDFADataSetIterator;
+import ch.imetrica.mdlfa.dataiterator.MDFAFeatureSnapshot;
+import ch.imetrica.mdlfa.dataiterator.MDFAFeatureStore;
+import ch.imetrica.mdlfa.dataiterator.MDFAPrefetchIterator;
 import ch.imetrica.mdlfa.dataiterator.MDFARegressionDataSetIterator;
 import ch.imetrica.mdlfa.features.MDFAFeatureExtraction;
+import ch.imetrica.mdlfa.features.TALibFeatureStage;
 import ch.imetrica.mdlfa.util.TimeSeriesFile;
 
 /**
@@ -74,7 +78,10 @@ public class RecurrentMdfaRegression {
 	private MDFARegressionDataSetIterator trainData;
 	private MDFARegressionDataSetIterator testData;
 	private MultiLayerNetwork mdfaLSTMNetwork;
-	private DataNormalization normalizer;
+	private int prefetchBufferSize = 4;
+	private boolean recycleBatchBuffers = false;
+	private MDFAFeatureSnapshot featureSnapshot;
+	private TALibFeatureStage indicators;
 	
 	UIServer uiServer;
 	
@@ -97,14 +104,17 @@ public class RecurrentMdfaRegression {
 			                             int totalTestExamples,
 			                             int timeStepLength) throws Exception {
 		
-		setTrainData(new MDFARegressionDataSetIterator(file, fileInfo,
-				featureExtractor.getFeatureExtractors(),
+		MDFAFeatureStore<Double> featureStore = (featureSnapshot != null) 
+				? featureSnapshot.regressionStore(file, fileInfo, featureExtractor.getFeatureExtractors(), indicators)
+				: MDFAFeatureStore.buildRegressionStore(file, fileInfo, featureExtractor.getFeatureExtractors(), 
+						null, indicators);
+		
+		setTrainData(new MDFARegressionDataSetIterator(featureStore,
                 miniBatchSize, 
                 totalTrainExamples, 
                 timeStepLength));
 		
-		setTestData(new MDFARegressionDataSetIterator(file, fileInfo,
-				featureExtractor.getFeatureExtractors(),
+		setTestData(new MDFARegressionDataSetIterator(featureStore,
                 miniBatchSize, 
                 totalTestExamples, 
                 timeStepLength));
@@ -112,15 +122,26 @@ public class RecurrentMdfaRegression {
 		return this;
 	}
 	
+	/**
+	 * Standardizes features and labels with the mean and variance of 
+	 * the training range only, and the test data with the same 
+	 * statistics. The shared feature store is not modified: the train 
+	 * and test iterators are replaced by views on a standardized copy, 
+	 * so they are configured after this. Predictions are mapped back 
+	 * to the original scale with 
+	 * getFeatureStore().getLabelStatistics().revert
+	 */
 	public void normalizeData() {
 		
-    	normalizer = new NormalizerStandardize();
-    	normalizer.fitLabel(true);
-        normalizer.fit(trainData);              
-        trainData.reset();
-        trainData.setPreProcessor(normalizer);
-        testData.setPreProcessor(normalizer);
-              
+		MDFAFeatureStore<Double> featureStore = trainData.getFeatureStore();
+		MDFAFeatureStore<Double> train = featureStore.standardize(trainData.getFromIndex(), trainData.getToIndex());
+		MDFAFeatureStore<Double> test = (testData.getFeatureStore() == featureStore) ? train 
+				: testData.getFeatureStore().standardize(train.getFeatureStatistics(), train.getLabelStatistics());
+		
+		setTrainData(new MDFARegressionDataSetIterator(train, trainData.getFromIndex(), trainData.getToIndex(), 
+				trainData.getMiniBatchSize(), trainData.getTotalExamples(), trainData.getTimeStepLength()));
+		setTestData(new MDFARegressionDataSetIterator(test, testData.getFromIndex(), testData.getToIndex(), 
+				testData.getMiniBatchSize(), testData.getTotalExamples(), testData.getTimeStepLength()));
 	}
 	
 	
@@ -142,7 +163,9 @@ public class RecurrentMdfaRegression {
 	public void buildNetworkLayers(int nHiddenLayers, int nHidden, NeuralNetConfiguration.ListBuilder listBuilder) {
 		
 		
-		int numInput = featureExtractor.getNumberOfFeatures() + 1;
+		/* the target series and every feature column of the store, once the data is set */
+		int numInput = ((trainData != null) ? trainData.getNumberOfFeatures() 
+				                            : featureExtractor.getNumberOfFeatures()) + 1;
 		int numOutput = 1;
 		
 		listBuilder.layer(0, new GravesLSTM.Builder()
@@ -190,20 +213,22 @@ public class RecurrentMdfaRegression {
 	
 	public void train(int nEpochs) {
 		
-		String str = "Test set evaluation at epoch %d: Accuracy = %.2f, F1 = %.2f";
+		DataSetIterator trainIterator = prefetch(trainData);
+		DataSetIterator testIterator = prefetch(testData);
+		
         for (int i = 0; i < nEpochs; i++) {
         	
-        	mdfaLSTMNetwork.fit(trainData);
+        	mdfaLSTMNetwork.fit(trainIterator);
 
-            testData.reset();
-            trainData.reset();
+            testIterator.reset();
+            trainIterator.reset();
         	
         	//Run regression evaluation on our single column input
             RegressionEvaluation evaluation = new RegressionEvaluation(1);
             
-            while(testData.hasNext()) {
+            while(testIterator.hasNext()) {
             	
-            	DataSet testMe = testData.next();
+            	DataSet testMe = testIterator.next();
                 INDArray features = testMe.getFeatureMatrix();
                 INDArray lables = testMe.getLabels();
                 INDArray predicted = mdfaLSTMNetwork.output(features, false);
@@ -211,14 +236,83 @@ public class RecurrentMdfaRegression {
             }
             System.out.println("Epoch: " + i + " " + evaluation.stats());
             
-            testData.reset();
-            trainData.reset();
+            testIterator.reset();
+            trainIterator.reset();
         }
 
         log.info("----- Example Complete -----");
         System.out.println("----- Example Complete -----");
 	}
 	
+	/**
+	 * Wraps the iterator in an MDFAPrefetchIterator so that the next 
+	 * minibatches are assembled while the network is fitting
+	 */
+	private DataSetIterator prefetch(MDFARegressionDataSetIterator iterator) {
+		
+		/* queued, fitted and assembled minibatches must not share a buffer */
+		if(recycleBatchBuffers) {
+			iterator.setBatchBufferPool(new MDFABatchBufferPool(MDFABatchBufferPool.buffersForPrefetch(prefetchBufferSize)));
+		}
+		if(prefetchBufferSize > 0) {
+			return new MDFAPrefetchIterator(iterator, prefetchBufferSize);
+		}
+		return iterator;
+	}
+	
+	/**
+	 * Sets the number of minibatches assembled ahead of training 
+	 * and evaluation. A size of 0 turns prefetching off. 
+	 * 
+	 * @param prefetchBufferSize Number of prefetched minibatches
+	 * @return this
+	 */
+	public RecurrentMdfaRegression setPrefetchBufferSize(int prefetchBufferSize) {
+		this.prefetchBufferSize = prefetchBufferSize;
+		return this;
+	}
+	
+	/**
+	 * Recycles a fixed set of minibatch buffers during training 
+	 * instead of allocating new arrays for every minibatch
+	 * 
+	 * @param recycleBatchBuffers true to use an MDFABatchBufferPool
+	 * @return this
+	 */
+	public RecurrentMdfaRegression setRecycleBatchBuffers(boolean recycleBatchBuffers) {
+		this.recycleBatchBuffers = recycleBatchBuffers;
+		return this;
+	}
+	
+	/**
+	 * Keeps binary snapshots of the built feature stores in the given 
+	 * directory, so that setTrainingTestData reads the features of 
+	 * previously seen files and feature extractors instead of 
+	 * building them again. Must be set before setTrainingTestData.
+	 * 
+	 * @param directory Snapshot directory, or null to always build the features
+	 * @return this
+	 */
+	public RecurrentMdfaRegression setSnapshotDirectory(String directory) {
+		this.featureSnapshot = (directory != null) ? new MDFAFeatureSnapshot(directory) : null;
+		return this;
+	}
+	
+	/**
+	 * Adds the outputs of a TA-Lib indicator stage to the MDFA features 
+	 * of the store built by setTrainingTestData, and to the key of its 
+	 * snapshot when a snapshot directory is set. The input layer of 
+	 * buildNetworkLayers grows by the number of indicator outputs, so 
+	 * both must be called after this.
+	 * 
+	 * @param indicators Indicator stage, or null for MDFA features only
+	 * @return this
+	 */
+	public RecurrentMdfaRegression setIndicators(TALibFeatureStage indicators) {
+		this.indicators = indicators;
+		return this;
+	}
+	
 
 	public void plotData() {
 		
@@ -316,16 +410,16 @@ public class RecurrentMdfaRegression {
     		DataSet trainSample = trainData.next();
     		INDArray predicted = mdfaLSTMNetwork.rnnTimeStep(trainSample.getFeatureMatrix());
     		INDArray output = trainSample.getLabels();
-    		String[][] nextDates = trainData.getNextDates();
+    		int offset = trainData.getNextTimestampOffset(0);
     		
 //    		normalizer.revertLabels(predicted);
 //    		normalizer.revertLabels(output);
     		
-    		System.out.println(nextDates[0].length + " " + predicted.shape()[0] + " " + predicted.shape()[1] + " " + predicted.shape()[2]);
+    		System.out.println(trainData.getTimeStepLength() + " " + predicted.shape()[0] + " " + predicted.shape()[1] + " " + predicted.shape()[2]);
     		
     		int nRows = predicted.shape()[2];
     		for (int i = 0; i < nRows; i++) {
-                System.out.println(nextDates[0][i] + ", " + output.getDouble(i) + " " + predicted.getDouble(i));
+                System.out.println(trainData.getFeatureStore().getDate(offset + i) + ", " + output.getDouble(i) + " " + predicted.getDouble(i));
             }
     		System.out.println("Next set..\n");
     	}
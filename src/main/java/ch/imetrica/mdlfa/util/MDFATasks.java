@@ -0,0 +1,86 @@
+package ch.imetrica.mdlfa.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Runs concurrent tasks and rethrows their failures as thrown by the
+ * task, rather than wrapped in an ExecutionException.
+ *
+ * invokeAll waits for every task and returns the results in the order
+ * of the tasks, or throws the failure of the first failed task in that
+ * order. Errors are left wrapped in their ExecutionException.
+ * invokeAllUnchecked is meant for hot paths whose tasks only fail
+ * with runtime exceptions, such as the sweeps of a tick.
+ *
+ */
+public final class MDFATasks {
+
+	private MDFATasks() {
+	}
+
+	/**
+	 * @param pool Runs the tasks
+	 * @param tasks The tasks
+	 * @return The results in the order of the tasks
+	 * @throws Exception The first failure of any task
+	 */
+	public static <V> List<V> invokeAll(ExecutorService pool, List<? extends Callable<V>> tasks) throws Exception {
+
+		List<V> results = new ArrayList<V>(tasks.size());
+		for(Future<V> result : pool.invokeAll(tasks)) {
+			results.add(get(result));
+		}
+		return results;
+	}
+
+	/**
+	 * Runs tasks without results, rethrowing a runtime exception of a
+	 * task as is and wrapping any other failure in an
+	 * IllegalStateException
+	 *
+	 * @param pool Runs the tasks
+	 * @param tasks The tasks
+	 * @throws InterruptedException If interrupted while waiting for the tasks
+	 */
+	public static void invokeAllUnchecked(ExecutorService pool, List<? extends Callable<Void>> tasks)
+			throws InterruptedException {
+
+		for(Future<Void> result : pool.invokeAll(tasks)) {
+			try {
+				result.get();
+			}
+			catch(ExecutionException e) {
+				if(e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException)e.getCause();
+				}
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Waits for a submitted task
+	 *
+	 * @param result Future of the task
+	 * @return The result of the task
+	 * @throws Exception The failure of the task
+	 */
+	public static <V> V get(Future<V> result) throws Exception {
+
+		try {
+			return result.get();
+		}
+		catch(ExecutionException e) {
+			if(e.getCause() instanceof Exception) {
+				throw (Exception)e.getCause();
+			}
+			throw e;
+		}
+	}
+
+}
@@ -1,10 +1,14 @@
 package ch.imetrica.mdlfa.util;
 
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
 public class TimeSeriesFile {
 
 	private String dateTimeFormat; 
 	private String dateTimeIndexName;
 	private String priceColumnName;
+	private DateTimeFormatter dateTimeFormatter;
 	
 	public TimeSeriesFile(String dateTimeFormat, 
 			              String dateTimeIndexName, 
@@ -22,6 +26,7 @@ public class TimeSeriesFile {
 
 	public void setDateTimeFormat(String dateTimeFormat) {
 		this.dateTimeFormat = dateTimeFormat;
+		this.dateTimeFormatter = DateTimeFormat.forPattern(dateTimeFormat).withZoneUTC();
 	}
 
 	public String getDateTimeIndexName() {
@@ -39,7 +44,28 @@ public class TimeSeriesFile {
 	public void setPriceColumnName(String priceColumnName) {
 		this.priceColumnName = priceColumnName;
 	}
+
+	/**
+	 * Converts a date time in the format of this file to milliseconds
+	 * since the epoch, read as UTC. The format is a Joda-Time pattern, 
+	 * as for the MDFA toolkit. Dates without a time of day are taken 
+	 * at midnight.
+	 * 
+	 * @param dateTime Date time in the format of this file
+	 * @return Milliseconds since 1970-01-01T00:00Z
+	 */
+	public long toEpochMillis(String dateTime) {
+		return dateTimeFormatter.parseMillis(dateTime);
+	}
 	
-	
+	/**
+	 * Formats milliseconds since the epoch in the format of this file
+	 * 
+	 * @param epochMillis Milliseconds since 1970-01-01T00:00Z
+	 * @return Date time in the format of this file
+	 */
+	public String formatEpochMillis(long epochMillis) {
+		return dateTimeFormatter.print(epochMillis);
+	}
 	
 }
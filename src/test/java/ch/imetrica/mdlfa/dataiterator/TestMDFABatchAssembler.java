@@ -0,0 +1,242 @@
+package ch.imetrica.mdlfa.dataiterator;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.factory.Nd4j;
+
+public class TestMDFABatchAssembler {
+
+	final double eps = .00001;
+
+	final int nObs = 2000;
+	final int nFeatures = 7;
+
+	double[][] features;
+	double[][] oneHot;
+	double[][] signal;
+	boolean[] labelled;
+
+
+	private void createColumns() {
+
+		Random rng = new Random(42);
+
+		features = new double[nFeatures][nObs];
+		oneHot = new double[2][nObs];
+		signal = new double[1][nObs];
+		labelled = new boolean[nObs];
+
+		/* last 40 observations have no label, as with the symmetric labelizer */
+		for(int j = 0; j < nObs; j++) {
+
+			labelled[j] = j < nObs - 40;
+			if(labelled[j]) {
+				for(int k = 0; k < nFeatures; k++) {
+					features[k][j] = rng.nextGaussian();
+				}
+				int up = rng.nextBoolean() ? 0 : 1;
+				oneHot[up][j] = 1.0;
+				signal[0][j] = rng.nextGaussian();
+			}
+		}
+	}
+
+	/* The original per-element path of MDFADataSetIterator.next */
+	private DataSet scalarClassificationBatch(int start, int miniBatchSize, int timeStepLength) {
+
+		INDArray input = Nd4j.zeros(new int[]{ miniBatchSize, nFeatures, timeStepLength } );
+		INDArray inputMask = Nd4j.ones( new int[]{ miniBatchSize, timeStepLength } );
+		INDArray labels = Nd4j.zeros(new int[]{ miniBatchSize, 2, timeStepLength } );
+		INDArray labelsMask = Nd4j.zeros(new int[]{ miniBatchSize, timeStepLength } );
+
+		for(int i = 0; i < miniBatchSize; i++) {
+			for(int t = 0; t < timeStepLength; t++) {
+
+				int index = start + i + t;
+				if(labelled[index]) {
+					for(int k = 0; k < nFeatures; k++) {
+						input.putScalar(i, k, t, features[k][index]);
+					}
+					labels.putScalar(new int[]{ i, 0, t }, oneHot[0][index]);
+					labels.putScalar(new int[]{ i, 1, t }, oneHot[1][index]);
+				}
+			}
+			labelsMask.putScalar(new int[]{ i, timeStepLength -1 }, 1);
+		}
+		return new DataSet( input, labels, inputMask, labelsMask );
+	}
+
+	/* The original per-element path of MDFARegressionDataSetIterator.next */
+	private DataSet scalarRegressionBatch(int start, int miniBatchSize, int timeStepLength) {
+
+		INDArray input = Nd4j.zeros(new int[]{ miniBatchSize, nFeatures, timeStepLength }, 'f' );
+		INDArray labels = Nd4j.zeros(new int[]{ miniBatchSize, 1, timeStepLength }, 'f'  );
+
+		for(int i = 0; i < miniBatchSize; i++) {
+			for(int t = 0; t < timeStepLength; t++) {
+
+				int index = start + i + t;
+				if(labelled[index]) {
+					for(int k = 0; k < nFeatures; k++) {
+						input.putScalar(i, k, t, features[k][index]);
+					}
+					labels.putScalar(new int[]{ i, 0, t }, signal[0][index]);
+				}
+			}
+		}
+		return new DataSet( input, labels );
+	}
+
+	private void assertSameArray(INDArray expected, INDArray actual) {
+
+		assertArrayEquals(expected.shape(), actual.shape());
+		assertEquals(expected.ordering(), actual.ordering());
+		assertArrayEquals(expected.dup().data().asDouble(), actual.dup().data().asDouble(), eps);
+	}
+
+
+	@Test
+	public void testClassificationBatchMatchesScalarPath() {
+
+		createColumns();
+		MDFABatchAssembler assembler = new MDFABatchAssembler(features, oneHot, labelled);
+
+		int batchSize = 100;
+		int timeSteps = 60;
+
+		/* includes the last windows, which run into the unlabelled tail */
+		for(int start : new int[]{0, 500, nObs - batchSize - timeSteps}) {
+
+			DataSet expected = scalarClassificationBatch(start, batchSize, timeSteps);
+			DataSet actual = assembler.classificationBatch(start, batchSize, timeSteps);
+
+			assertSameArray(expected.getFeatureMatrix(), actual.getFeatureMatrix());
+			assertSameArray(expected.getLabels(), actual.getLabels());
+			assertSameArray(expected.getFeaturesMaskArray(), actual.getFeaturesMaskArray());
+			assertSameArray(expected.getLabelsMaskArray(), actual.getLabelsMaskArray());
+		}
+	}
+
+	@Test
+	public void testRegressionBatchMatchesScalarPath() {
+
+		createColumns();
+		MDFABatchAssembler assembler = new MDFABatchAssembler(features, signal, labelled);
+
+		int batchSize = 100;
+		int timeSteps = 60;
+
+		for(int start : new int[]{0, 500, nObs - batchSize - timeSteps}) {
+
+			DataSet expected = scalarRegressionBatch(start, batchSize, timeSteps);
+			DataSet actual = assembler.regressionBatch(start, batchSize, timeSteps);
+
+			assertSameArray(expected.getFeatureMatrix(), actual.getFeatureMatrix());
+			assertSameArray(expected.getLabels(), actual.getLabels());
+		}
+	}
+
+	@Test
+	public void testUnlabelledObservationsHaveZeroFeatures() {
+
+		createColumns();
+
+		/* values at unlabelled observations are never part of a batch */
+		for(int k = 0; k < nFeatures; k++) {
+			for(int j = nObs - 40; j < nObs; j++) {
+				features[k][j] = 1.0;
+			}
+		}
+		MDFABatchAssembler classification = new MDFABatchAssembler(features, oneHot, labelled);
+		MDFABatchAssembler regression = new MDFABatchAssembler(features, signal, labelled);
+
+		int batchSize = 20;
+		int timeSteps = 30;
+		int start = nObs - batchSize - timeSteps;
+
+		INDArray input = classification.classificationBatch(start, batchSize, timeSteps).getFeatureMatrix();
+		INDArray regressionInput = regression.regressionBatch(start, batchSize, timeSteps).getFeatureMatrix();
+		INDArray sampledInput = regression.regressionBatch(new int[]{ start }, 0, 1, timeSteps).getFeatureMatrix();
+
+		for(int t = 0; t < timeSteps; t++) {
+			for(int k = 0; k < nFeatures; k++) {
+
+				double expected = labelled[start + t] ? features[k][start + t] : 0.0;
+				assertEquals(expected, input.getDouble(0, k, t), eps);
+				assertEquals(expected, regressionInput.getDouble(0, k, t), eps);
+				assertEquals(expected, sampledInput.getDouble(0, k, t), eps);
+			}
+		}
+		assertEquals(0.0, input.getDouble(batchSize - 1, 0, timeSteps - 1), eps);
+	}
+
+	@Test
+	public void testWindowEngineViewsMatchAssembler() {
+
+		createColumns();
+		MDFABatchAssembler classification = new MDFABatchAssembler(features, oneHot, labelled);
+		MDFABatchAssembler regression = new MDFABatchAssembler(features, signal, labelled);
+		MDFAWindowEngine classificationViews = new MDFAWindowEngine(classification);
+		MDFAWindowEngine regressionViews = new MDFAWindowEngine(regression);
+
+		int batchSize = 100;
+		int timeSteps = 60;
+
+		for(int start : new int[]{0, 777, nObs - batchSize - timeSteps}) {
+
+			DataSet expected = classification.classificationBatch(start, batchSize, timeSteps);
+			DataSet actual = classificationViews.classificationBatch(start, batchSize, timeSteps);
+
+			assertSameArray(expected.getFeatureMatrix(), actual.getFeatureMatrix());
+			assertSameArray(expected.getLabels(), actual.getLabels());
+			assertSameArray(expected.getFeaturesMaskArray(), actual.getFeaturesMaskArray());
+			assertSameArray(expected.getLabelsMaskArray(), actual.getLabelsMaskArray());
+
+			expected = regression.regressionBatch(start, batchSize, timeSteps);
+			actual = regressionViews.regressionBatch(start, batchSize, timeSteps);
+
+			assertSameArray(expected.getFeatureMatrix(), actual.getFeatureMatrix());
+			assertSameArray(expected.getLabels(), actual.getLabels());
+		}
+	}
+
+	@Test
+	public void testInterleavedBatchMatchesPerStoreBatches() {
+
+		createColumns();
+		MDFABatchAssembler first = new MDFABatchAssembler(features, oneHot, labelled);
+
+		/* second store: the same columns shifted by 100 observations */
+		double[][] shiftedFeatures = new double[nFeatures][];
+		for(int k = 0; k < nFeatures; k++) {
+			shiftedFeatures[k] = Arrays.copyOfRange(features[k], 100, nObs);
+		}
+		double[][] shiftedLabels = { Arrays.copyOfRange(oneHot[0], 100, nObs),
+				                     Arrays.copyOfRange(oneHot[1], 100, nObs) };
+		MDFABatchAssembler second = new MDFABatchAssembler(shiftedFeatures, shiftedLabels,
+				Arrays.copyOfRange(labelled, 100, nObs));
+
+		int timeSteps = 60;
+		int[] sources = { 0, 1, 0, 1 };
+		int[] starts = { 10, 10, 250, 1800 };
+
+		DataSet mixed = MDFABatchAssembler.classificationBatch(new MDFABatchAssembler[]{ first, second },
+				                                               sources, starts, 0, 4, timeSteps);
+
+		/* window s of the second store is window s + 100 of the first */
+		DataSet expected = first.classificationBatch(new int[]{ 10, 110, 250, 1900 }, 0, 4, timeSteps);
+
+		assertSameArray(expected.getFeatureMatrix(), mixed.getFeatureMatrix());
+		assertSameArray(expected.getLabels(), mixed.getLabels());
+		assertSameArray(expected.getFeaturesMaskArray(), mixed.getFeaturesMaskArray());
+		assertSameArray(expected.getLabelsMaskArray(), mixed.getLabelsMaskArray());
+	}
+
+}
@@ -0,0 +1,115 @@
+package ch.imetrica.mdlfa.dataiterator;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+
+public class TestMDFABatchBufferPool {
+
+	final double eps = .00001;
+
+	final int nObs = 1500;
+	final int nFeatures = 4;
+
+	double[][] features;
+	double[][] oneHot;
+	double[][] signal;
+	boolean[] labelled;
+
+
+	private void createColumns() {
+
+		Random rng = new Random(7);
+
+		features = new double[nFeatures][nObs];
+		oneHot = new double[2][nObs];
+		signal = new double[1][nObs];
+		labelled = new boolean[nObs];
+
+		for(int j = 0; j < nObs; j++) {
+
+			/* features are non-zero even where unlabelled, the batches must zero them */
+			for(int k = 0; k < nFeatures; k++) {
+				features[k][j] = rng.nextGaussian();
+			}
+			labelled[j] = j > 20 && j < nObs - 40;
+			if(labelled[j]) {
+				oneHot[rng.nextBoolean() ? 0 : 1][j] = 1.0;
+				signal[0][j] = rng.nextGaussian();
+			}
+		}
+	}
+
+	private void assertSameDataSet(DataSet expected, DataSet actual) {
+
+		assertSameArray(expected.getFeatureMatrix(), actual.getFeatureMatrix());
+		assertSameArray(expected.getLabels(), actual.getLabels());
+		if(expected.getLabelsMaskArray() != null) {
+			assertSameArray(expected.getFeaturesMaskArray(), actual.getFeaturesMaskArray());
+			assertSameArray(expected.getLabelsMaskArray(), actual.getLabelsMaskArray());
+		}
+	}
+
+	private void assertSameArray(INDArray expected, INDArray actual) {
+
+		assertArrayEquals(expected.shape(), actual.shape());
+		assertEquals(expected.ordering(), actual.ordering());
+		assertArrayEquals(expected.dup().data().asDouble(), actual.dup().data().asDouble(), eps);
+	}
+
+
+	@Test
+	public void testRecycledBatchesMatchAssembler() {
+
+		createColumns();
+		MDFABatchAssembler classification = new MDFABatchAssembler(features, oneHot, labelled);
+		MDFABatchAssembler regression = new MDFABatchAssembler(features, signal, labelled);
+		MDFABatchBufferPool pool = new MDFABatchBufferPool(4);
+
+		int batchSize = 50;
+		int timeSteps = 30;
+		int[] starts = { 0, 900, 3, 1400, 17, 600 };
+
+		/* several rounds through the ring, each buffer is overwritten with new windows */
+		for(int start = 0; start + batchSize + timeSteps <= nObs; start += 130) {
+
+			assertSameDataSet(classification.classificationBatch(start, batchSize, timeSteps),
+					          pool.classificationBatch(classification, start, batchSize, timeSteps));
+			assertSameDataSet(regression.regressionBatch(start, batchSize, timeSteps),
+					          pool.regressionBatch(regression, start, batchSize, timeSteps));
+			assertSameDataSet(classification.classificationBatch(starts, 1, 4, timeSteps),
+					          pool.classificationBatch(classification, starts, 1, 4, timeSteps));
+			assertSameDataSet(regression.regressionBatch(starts, 2, 4, timeSteps),
+					          pool.regressionBatch(regression, starts, 2, 4, timeSteps));
+		}
+	}
+
+	@Test
+	public void testBuffersAreReused() {
+
+		createColumns();
+		MDFABatchAssembler assembler = new MDFABatchAssembler(features, oneHot, labelled);
+		MDFABatchBufferPool pool = new MDFABatchBufferPool(2);
+
+		DataSet first = pool.classificationBatch(assembler, 100, 20, 10);
+		DataSet second = pool.classificationBatch(assembler, 120, 20, 10);
+		DataSet third = pool.classificationBatch(assembler, 140, 20, 10);
+
+		assertNotSame(first, second);
+		assertSame(first, third);
+		assertSame(first.getFeatureMatrix(), third.getFeatureMatrix());
+
+		/* a smaller final minibatch reallocates its buffer */
+		DataSet last = pool.classificationBatch(assembler, 160, 5, 10);
+		assertArrayEquals(new int[]{ 5, nFeatures, 10 }, last.getFeatureMatrix().shape());
+		assertSameDataSet(assembler.classificationBatch(160, 5, 10), last);
+	}
+
+}
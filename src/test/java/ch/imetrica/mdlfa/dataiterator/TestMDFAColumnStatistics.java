@@ -0,0 +1,148 @@
+package ch.imetrica.mdlfa.dataiterator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.imetrica.mdfa.mdfa.MDFABase;
+import ch.imetrica.mdlfa.util.TimeSeriesFile;
+
+public class TestMDFAColumnStatistics {
+
+	final double eps = .00000001;
+
+	final int nObs = 5000;
+
+
+	@Test
+	public void testWelfordMatchesTwoPass() {
+
+		Random rng = new Random(11);
+		double[][] columns = new double[2][nObs];
+		boolean[] labelled = new boolean[nObs];
+
+		MDFAColumnStatistics statistics = new MDFAColumnStatistics(2);
+		for(int j = 0; j < nObs; j++) {
+
+			/* large offset, where the naive sum of squares loses precision */
+			columns[0][j] = 1e6 + rng.nextGaussian();
+			columns[1][j] = 3.0 * rng.nextGaussian() - 2.0;
+			labelled[j] = j % 7 != 0;
+			if(labelled[j]) {
+				statistics.add(0, columns[0][j]);
+				statistics.add(1, columns[1][j]);
+			}
+		}
+
+		for(int k = 0; k < 2; k++) {
+
+			double mean = 0;
+			int n = 0;
+			for(int j = 0; j < nObs; j++) {
+				if(labelled[j]) { mean += columns[k][j]; n++; }
+			}
+			mean /= n;
+
+			double variance = 0;
+			for(int j = 0; j < nObs; j++) {
+				if(labelled[j]) { variance += (columns[k][j] - mean)*(columns[k][j] - mean); }
+			}
+			variance /= n;
+
+			assertEquals(n, statistics.getCount(k));
+			assertEquals(mean, statistics.getMean(k), 1e-6);
+			assertEquals(variance, statistics.getVariance(k), 1e-6);
+		}
+	}
+
+	@Test
+	public void testStandardizeAndRevert() {
+
+		Random rng = new Random(5);
+		double[][] columns = new double[1][nObs];
+		double[] raw = new double[nObs];
+		boolean[] labelled = new boolean[nObs];
+
+		MDFAColumnStatistics statistics = new MDFAColumnStatistics(1);
+		for(int j = 0; j < nObs; j++) {
+
+			columns[0][j] = raw[j] = 5.0 + 2.0 * rng.nextGaussian();
+			labelled[j] = j >= 40;
+			if(labelled[j]) {
+				statistics.add(0, raw[j]);
+			}
+		}
+
+		columns = statistics.standardize(columns, labelled);
+
+		MDFAColumnStatistics standardized = new MDFAColumnStatistics(1);
+		for(int j = 0; j < nObs; j++) {
+			if(labelled[j]) {
+				standardized.add(0, columns[0][j]);
+				assertEquals(raw[j], statistics.revert(0, columns[0][j]), eps);
+			}
+			else {
+				assertEquals(0.0, columns[0][j], eps);
+			}
+		}
+		assertEquals(0.0, standardized.getMean(0), eps);
+		assertEquals(1.0, standardized.getVariance(0), eps);
+	}
+
+	@Test
+	public void testConstantColumnIsOnlyCentered() {
+
+		MDFAColumnStatistics statistics = new MDFAColumnStatistics(1);
+		double[][] columns = { { 3.0, 3.0, 3.0 } };
+		for(double x : columns[0]) {
+			statistics.add(0, x);
+		}
+
+		double[][] standardized = statistics.standardize(columns, new boolean[]{ true, true, true });
+		assertEquals(0.0, standardized[0][1], eps);
+		assertEquals(3.0, columns[0][1], eps);
+	}
+
+	@Test
+	public void testFitOnTrainingRangeOnly() {
+
+		int nObs = 100;
+		double[][] features = new double[1][nObs];
+		double[][] signal = new double[1][nObs];
+		boolean[] labelled = new boolean[nObs];
+		for(int j = 0; j < nObs; j++) {
+
+			/* the test range from 60 on has a different level */
+			features[0][j] = (j < 60) ? j % 2 : 100.0 + j % 2;
+			signal[0][j] = (j < 60) ? 2.0 * (j % 2) : -50.0;
+			labelled[j] = j != 10;
+		}
+
+		MDFAFeatureStore<Double> store = MDFAFeatureStore.fromColumns(new MDFABase[1], 
+				new MDFABatchAssembler(features, signal, labelled), new long[nObs], 
+				new TimeSeriesFile("yyyy-MM-dd", "Index", "Open"), nObs, nObs, true, null, null);
+		MDFAFeatureStore<Double> standardized = store.standardize(0, 60);
+
+		MDFAColumnStatistics featureStatistics = standardized.getFeatureStatistics();
+		assertEquals(59, featureStatistics.getCount(0));
+		assertEquals(30.0 / 59.0, featureStatistics.getMean(0), eps);
+		assertEquals(30.0 / 59.0, standardized.getLabelStatistics().getMean(0) / 2.0, eps);
+
+		/* the test range is standardized with the statistics of the training range */
+		double[][] columns = standardized.getBatchAssembler().getFeatureColumns();
+		assertEquals((100.0 - featureStatistics.getMean(0)) / featureStatistics.getStd(0), columns[0][80], eps);
+		assertEquals(0.0, columns[0][10], eps);
+		assertEquals(-50.0, standardized.getLabelStatistics().revert(0, 
+				standardized.getBatchAssembler().getLabelColumns()[0][80]), eps);
+
+		/* the shared store is left unchanged */
+		assertFalse(store.isStandardized());
+		assertEquals(100.0, store.getBatchAssembler().getFeatureColumns()[0][80], eps);
+		assertTrue(standardized.isStandardized());
+	}
+
+}
@@ -234,4 +234,94 @@ public class TestMDFADataSetIterator {
 
 	
 
+	@Test
+	public void testFeatureStoreViews() throws Exception {
+		
+		String[] dataFiles = new String[1];
+		dataFiles[0] = "src/test/resources/testSeries1.csv";
+
+		TimeSeriesFile fileInfo = new TimeSeriesFile("yyyy-MM-dd", "Index", "Open");
+		
+		MDFABase[] anyMDFAs = new MDFABase[2];
+		
+		anyMDFAs[0] = (new MDFABase()).setLowpassCutoff(Math.PI/4.0)
+				.setSmooth(.3)
+				.setSeriesLength(400)
+				.setFilterLength(5);
+		
+		anyMDFAs[1] = (new MDFABase()).setLowpassCutoff(Math.PI/10.0)
+				.setBandPassCutoff(Math.PI/15.0)
+				.setSmooth(.1)
+				.setSeriesLength(400)
+				.setFilterLength(5);
+		
+		MDFAFeatureStore<int[]> store = MDFAFeatureStore.buildClassificationStore(dataFiles, fileInfo, anyMDFAs);
+		
+		MDFADataSetIterator all = new MDFADataSetIterator(store, 5, 100, 20);
+		MDFADataSetIterator view = new MDFADataSetIterator(store, 50, store.getUsableLength(), 5, 100, 20);
+		
+		assertTrue(store.getFXSeries() == view.getFXSeries());
+		
+		DataSet expected = all.batch(50, 5);
+		DataSet actual = view.next();
+		
+		assertEquals(expected.getFeatureMatrix(), actual.getFeatureMatrix());
+		assertEquals(expected.getLabels(), actual.getLabels());
+		
+		int nAll = 0;
+		while(all.hasNext()) { all.next(); nAll++; }
+		int nView = 1;
+		while(view.hasNext()) { view.next(); nView++; }
+		assertEquals(nAll - 10, nView);
+	}
+
+
+	@Test
+	public void testStreamingMatchesEager() throws Exception {
+		
+		String[] dataFiles = new String[1];
+		dataFiles[0] = "src/test/resources/testSeries1.csv";
+
+		TimeSeriesFile fileInfo = new TimeSeriesFile("yyyy-MM-dd", "Index", "Open");
+		
+		MDFABase[] anyMDFAs = new MDFABase[2];
+		
+		anyMDFAs[0] = (new MDFABase()).setLowpassCutoff(Math.PI/4.0)
+				.setSmooth(.3)
+				.setSeriesLength(400)
+				.setFilterLength(5);
+		
+		anyMDFAs[1] = (new MDFABase()).setLowpassCutoff(Math.PI/10.0)
+				.setBandPassCutoff(Math.PI/15.0)
+				.setSmooth(.1)
+				.setSeriesLength(400)
+				.setFilterLength(5);
+		
+		MDFADataSetIterator eager = new MDFADataSetIterator(dataFiles, fileInfo, anyMDFAs, 5, 100, 20);
+		
+		/* smallest possible budget, forces the buffers to be refilled several times */
+		MDFAStreamingDataSetIterator streaming = new MDFAStreamingDataSetIterator(dataFiles, 
+				                                         fileInfo, anyMDFAs, 5, 100, 20, 0);
+		
+		for(int epoch = 0; epoch < 2; epoch++) {
+			
+			int nBatches = 0;
+			while(eager.hasNext()) {
+				
+				assertTrue(streaming.hasNext());
+				DataSet expected = eager.next();
+				DataSet actual = streaming.next();
+				
+				assertEquals(expected.getFeatureMatrix(), actual.getFeatureMatrix());
+				assertEquals(expected.getLabels(), actual.getLabels());
+				nBatches++;
+			}
+			assertFalse(streaming.hasNext());
+			assertTrue(nBatches > 0);
+			
+			eager.reset();
+			streaming.reset();
+		}
+	}
+
 }
@@ -0,0 +1,145 @@
+package ch.imetrica.mdlfa.dataiterator;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nd4j.linalg.dataset.DataSet;
+
+import ch.imetrica.mdfa.mdfa.MDFABase;
+import ch.imetrica.mdlfa.features.TALibFeatureStage;
+import ch.imetrica.mdlfa.util.TimeSeriesFile;
+
+public class TestMDFAFeatureSnapshot {
+
+	final double eps = .00000001;
+
+	final int nObs = 800;
+	final int nFeatures = 4;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+
+	private MDFAFeatureStore<Double> createStore(MDFABase[] anyMDFAs) {
+
+		Random rng = new Random(3);
+		double[][] features = new double[nFeatures][nObs];
+		double[][] signal = new double[1][nObs];
+		boolean[] labelled = new boolean[nObs];
+		long[] timestamps = new long[nObs];
+
+		for(int j = 0; j < nObs; j++) {
+
+			timestamps[j] = 1483228800000L + 60000L * j;
+			labelled[j] = j >= 10 && j < nObs - 10;
+			if(labelled[j]) {
+				for(int k = 0; k < nFeatures; k++) {
+					features[k][j] = rng.nextGaussian();
+				}
+				signal[0][j] = rng.nextGaussian();
+			}
+		}
+
+		return MDFAFeatureStore.fromColumns(anyMDFAs, new MDFABatchAssembler(features, signal, labelled),
+				timestamps, new TimeSeriesFile("yyyy-MM-dd HH:mm", "Index", "Open"), nObs, nObs - 10, true, null, null);
+	}
+
+	@Test
+	public void testSnapshotRoundTrip() throws Exception {
+
+		MDFABase[] anyMDFAs = { new MDFABase().setFilterLength(5).setSeriesLength(400) };
+		MDFAFeatureStore<Double> store = createStore(anyMDFAs);
+
+		File file = new File(folder.getRoot(), "snapshots/store.mdfa");
+		MDFAFeatureSnapshot.write(store, file);
+		assertTrue(file.isFile());
+
+		MDFAFeatureStore<Double> read = MDFAFeatureSnapshot.read(file, anyMDFAs);
+
+		assertNull(read.getFXSeries());
+		assertEquals(store.size(), read.size());
+		assertEquals(store.getUsableLength(), read.getUsableLength());
+		assertArrayEquals(store.getTimestamps(), read.getTimestamps());
+		assertEquals("2017-01-01 00:01", read.getDate(1));
+
+		for(int k = 0; k < nFeatures; k++) {
+			assertArrayEquals(store.getBatchAssembler().getFeatureColumns()[k],
+					          read.getBatchAssembler().getFeatureColumns()[k], eps);
+		}
+		assertArrayEquals(store.getBatchAssembler().getLabelColumns()[0],
+				          read.getBatchAssembler().getLabelColumns()[0], eps);
+		assertTrue(read.isRegression());
+		assertFalse(read.isStandardized());
+		assertNull(read.getFeatureStatistics());
+
+		DataSet expected = store.getBatchAssembler().regressionBatch(0, 20, 30);
+		DataSet actual = read.getBatchAssembler().regressionBatch(0, 20, 30);
+		assertEquals(expected.getFeatureMatrix(), actual.getFeatureMatrix());
+		assertEquals(expected.getLabels(), actual.getLabels());
+
+		/* standardization works on a store read from a snapshot */
+		MDFAFeatureStore<Double> standardized = read.standardize(0, 400);
+		assertEquals(0.0, standardized.getBatchAssembler().getFeatureColumns()[0][0], eps);
+
+		/* and a standardized store keeps its statistics */
+		File standardizedFile = new File(folder.getRoot(), "snapshots/standardized.mdfa");
+		MDFAFeatureSnapshot.write(standardized, standardizedFile);
+		MDFAFeatureStore<Double> readStandardized = MDFAFeatureSnapshot.read(standardizedFile, anyMDFAs);
+		assertTrue(readStandardized.isStandardized());
+		for(int k = 0; k < nFeatures; k++) {
+			assertEquals(standardized.getFeatureStatistics().getMean(k), readStandardized.getFeatureStatistics().getMean(k), eps);
+			assertEquals(standardized.getFeatureStatistics().getVariance(k), readStandardized.getFeatureStatistics().getVariance(k), eps);
+		}
+		assertEquals(standardized.getLabelStatistics().getMean(0), readStandardized.getLabelStatistics().getMean(0), eps);
+	}
+
+	@Test
+	public void testCacheKey() throws Exception {
+
+		File csv = folder.newFile("series.csv");
+		try(FileWriter out = new FileWriter(csv)) {
+			out.write("Index,Open\n2017-01-02,1.0\n2017-01-03,1.1\n");
+		}
+		String[] files = { csv.getPath() };
+		TimeSeriesFile fileInfo = new TimeSeriesFile("yyyy-MM-dd", "Index", "Open");
+
+		MDFABase[] anyMDFAs = { new MDFABase().setLowpassCutoff(Math.PI/4.0).setFilterLength(5) };
+		MDFABase[] sameMDFAs = { new MDFABase().setLowpassCutoff(Math.PI/4.0).setFilterLength(5) };
+		MDFABase[] otherMDFAs = { new MDFABase().setLowpassCutoff(Math.PI/4.0).setFilterLength(6) };
+
+		String key = MDFAFeatureSnapshot.cacheKey("regression", files, fileInfo, anyMDFAs, 0.7, 36, null);
+
+		assertEquals(key, MDFAFeatureSnapshot.cacheKey("regression", files, fileInfo, sameMDFAs, 0.7, 36, null));
+		assertNotEquals(key, MDFAFeatureSnapshot.cacheKey("classification", files, fileInfo, anyMDFAs, 0.7, 36, null));
+		assertNotEquals(key, MDFAFeatureSnapshot.cacheKey("regression", files, fileInfo, otherMDFAs, 0.7, 36, null));
+		assertNotEquals(key, MDFAFeatureSnapshot.cacheKey("regression", files, fileInfo, anyMDFAs, 1.0, 36, null));
+		assertNotEquals(key, MDFAFeatureSnapshot.cacheKey("regression", files, fileInfo, anyMDFAs, 0.7, 24, null));
+
+		TALibFeatureStage indicators = new TALibFeatureStage().addIndicator(TALibFeatureStage.rsi(14));
+		String indicatorKey = MDFAFeatureSnapshot.cacheKey("regression", files, fileInfo, anyMDFAs, 0.7, 36, indicators);
+		assertNotEquals(key, indicatorKey);
+		assertEquals(indicatorKey, MDFAFeatureSnapshot.cacheKey("regression", files, fileInfo, anyMDFAs, 0.7, 36,
+				new TALibFeatureStage().addIndicator(TALibFeatureStage.rsi(14))));
+		assertNotEquals(indicatorKey, MDFAFeatureSnapshot.cacheKey("regression", files, fileInfo, anyMDFAs, 0.7, 36,
+				new TALibFeatureStage().addIndicator(TALibFeatureStage.rsi(21))));
+		assertNotEquals(indicatorKey, MDFAFeatureSnapshot.cacheKey("regression", files, fileInfo, anyMDFAs, 0.7, 36,
+				new TALibFeatureStage().addIndicator(TALibFeatureStage.rsi(14)).addIndicator(TALibFeatureStage.sma(10))));
+
+		try(FileWriter out = new FileWriter(csv, true)) {
+			out.write("2017-01-04,1.2\n");
+		}
+		assertNotEquals(key, MDFAFeatureSnapshot.cacheKey("regression", files, fileInfo, anyMDFAs, 0.7, 36, null));
+	}
+
+}
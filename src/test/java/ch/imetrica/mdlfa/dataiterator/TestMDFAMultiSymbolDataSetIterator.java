@@ -0,0 +1,190 @@
+package ch.imetrica.mdlfa.dataiterator;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+
+import ch.imetrica.mdfa.mdfa.MDFABase;
+import ch.imetrica.mdlfa.util.TimeSeriesFile;
+
+public class TestMDFAMultiSymbolDataSetIterator {
+
+	final double eps = .00000001;
+
+	final int nFeatures = 3;
+
+	final int timeStepLength = 5;
+
+
+	/* feature k of symbol s at observation j is 1000*s + j + k/8, the label alternates */
+	private MDFAFeatureStore<int[]> createStore(int symbol, int nObs) {
+
+		double[][] features = new double[nFeatures][nObs];
+		double[][] oneHot = new double[2][nObs];
+		boolean[] labelled = new boolean[nObs];
+		long[] timestamps = new long[nObs];
+
+		for(int j = 0; j < nObs; j++) {
+
+			for(int k = 0; k < nFeatures; k++) {
+				features[k][j] = 1000 * symbol + j + k / 8.0;
+			}
+			oneHot[j % 2][j] = 1.0;
+			labelled[j] = true;
+			timestamps[j] = 1483228800000L + 86400000L * j;
+		}
+
+		return MDFAFeatureStore.fromColumns(new MDFABase[nFeatures], new MDFABatchAssembler(features, oneHot, labelled),
+				timestamps, new TimeSeriesFile("yyyy-MM-dd", "Index", "Open"), nObs, nObs,
+				false, null, null);
+	}
+
+	private MDFAMultiSymbolDataSetIterator createIterator(int miniBatchSize) {
+
+		List<MDFAFeatureStore<int[]>> stores = new ArrayList<MDFAFeatureStore<int[]>>();
+		stores.add(createStore(0, 30));
+		stores.add(createStore(1, 20));
+		return new MDFAMultiSymbolDataSetIterator(stores, miniBatchSize, 0, timeStepLength);
+	}
+
+	/* symbol and start of every example, in the order of the minibatches */
+	private List<double[]> examples(MDFAMultiSymbolDataSetIterator iterator, List<Integer> batchSizes) {
+
+		List<double[]> examples = new ArrayList<double[]>();
+		while(iterator.hasNext()) {
+
+			DataSet batch = iterator.next();
+			INDArray input = batch.getFeatureMatrix();
+			INDArray labels = batch.getLabels();
+			int count = input.size(0);
+			batchSizes.add(count);
+
+			for(int i = 0; i < count; i++) {
+
+				double first = input.getDouble(i, 0, 0);
+				int symbol = (int)(first / 1000);
+				int start = (int)Math.round(first - 1000 * symbol);
+
+				/* every example is one window of one symbol, features and labels aligned */
+				for(int t = 0; t < timeStepLength; t++) {
+					for(int k = 0; k < nFeatures; k++) {
+						assertEquals(1000 * symbol + start + t + k / 8.0, input.getDouble(i, k, t), eps);
+					}
+					assertEquals(((start + t) % 2 == 0) ? 1.0 : 0.0, labels.getDouble(i, 0, t), eps);
+				}
+				examples.add(new double[]{ symbol, start });
+			}
+		}
+		return examples;
+	}
+
+	@Test
+	public void testWindowsInterleavedAcrossSymbols() {
+
+		MDFAMultiSymbolDataSetIterator iterator = createIterator(8);
+		assertEquals(2, iterator.getNumberOfSymbols());
+		assertEquals(nFeatures, iterator.inputColumns());
+
+		List<Integer> batchSizes = new ArrayList<Integer>();
+		List<double[]> examples = examples(iterator, batchSizes);
+
+		/* 26 windows of symbol 0 and 16 of symbol 1, one of each per round while both have windows */
+		assertEquals(26 + 16, examples.size());
+		for(int w = 0; w < 32; w++) {
+			assertArrayEquals(new double[]{ w % 2, w / 2 }, examples.get(w), eps);
+		}
+		for(int w = 32; w < examples.size(); w++) {
+			assertArrayEquals(new double[]{ 0, w - 16 }, examples.get(w), eps);
+		}
+
+		/* the last minibatch holds the remaining windows */
+		assertEquals(Arrays.asList(8, 8, 8, 8, 8, 2), batchSizes);
+	}
+
+	@Test
+	public void testResetRestartsEpoch() {
+
+		MDFAMultiSymbolDataSetIterator iterator = createIterator(10);
+		List<double[]> first = examples(iterator, new ArrayList<Integer>());
+		assertFalse(iterator.hasNext());
+
+		iterator.reset();
+		assertEquals(0, iterator.cursor());
+		assertTrue(iterator.hasNext());
+
+		List<double[]> second = examples(iterator, new ArrayList<Integer>());
+		assertEquals(first.size(), second.size());
+		for(int w = 0; w < first.size(); w++) {
+			assertArrayEquals(first.get(w), second.get(w), eps);
+		}
+
+		/* with a shuffling sampler every epoch still covers all windows once */
+		iterator.setWindowSampler(new MDFAWindowSampler().setShuffle(7));
+		List<double[]> shuffled = examples(iterator, new ArrayList<Integer>());
+		assertEquals(first.size(), shuffled.size());
+		assertEquals(sorted(first), sorted(shuffled));
+	}
+
+	private static List<String> sorted(List<double[]> examples) {
+
+		List<String> keys = new ArrayList<String>();
+		for(double[] example : examples) {
+			keys.add((int)example[0] + ":" + (int)example[1]);
+		}
+		Collections.sort(keys);
+		return keys;
+	}
+
+	@Test
+	public void testBuildStoresPerSymbolInOrder() throws Exception {
+
+		String[] symbolPaths = { "src/test/resources/testSeriesLong.csv", "src/test/resources/testSeries1.csv" };
+		TimeSeriesFile fileInfo = new TimeSeriesFile("yyyy-MM-dd", "Index", "Open");
+
+		MDFABase[] anyMDFAs = new MDFABase[2];
+		anyMDFAs[0] = (new MDFABase()).setLowpassCutoff(Math.PI/4.0)
+				.setSmooth(.3)
+				.setSeriesLength(300)
+				.setFilterLength(5);
+		anyMDFAs[1] = (new MDFABase()).setLowpassCutoff(Math.PI/10.0)
+				.setBandPassCutoff(Math.PI/15.0)
+				.setSmooth(.1)
+				.setSeriesLength(300)
+				.setFilterLength(5);
+
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			List<MDFAFeatureStore<int[]>> stores = MDFAFeatureStore.buildClassificationStores(symbolPaths, fileInfo, anyMDFAs, pool);
+			assertEquals(symbolPaths.length, stores.size());
+
+			for(int s = 0; s < symbolPaths.length; s++) {
+
+				MDFAFeatureStore<int[]> expected = MDFAFeatureStore.buildClassificationStore(
+						new String[]{ symbolPaths[s] }, fileInfo, anyMDFAs);
+				MDFAFeatureStore<int[]> actual = stores.get(s);
+
+				assertEquals(expected.size(), actual.size());
+				assertArrayEquals(expected.getTimestamps(), actual.getTimestamps());
+				for(int k = 0; k < anyMDFAs.length; k++) {
+					assertArrayEquals(expected.getBatchAssembler().getFeatureColumns()[k],
+							          actual.getBatchAssembler().getFeatureColumns()[k], eps);
+				}
+			}
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+}
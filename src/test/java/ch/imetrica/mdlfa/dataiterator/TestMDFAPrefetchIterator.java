@@ -0,0 +1,143 @@
+package ch.imetrica.mdlfa.dataiterator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.DataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+
+public class TestMDFAPrefetchIterator {
+
+	final double eps = .00000001;
+
+	/* Each batch holds its own cursor as the only feature value */
+	private static class CursorSource implements DataSetIterator, MDFABatchSource {
+
+		private static final long serialVersionUID = 1L;
+		private final int nExamples;
+		private int cursor = 0;
+
+		CursorSource(int nExamples) {
+			this.nExamples = nExamples;
+		}
+
+		@Override
+		public boolean hasBatch(int cursor, int miniBatchSize) {
+			return cursor + miniBatchSize <= nExamples;
+		}
+
+		@Override
+		public DataSet batch(int cursor, int miniBatchSize) {
+			return new DataSet(Nd4j.valueArrayOf(new int[]{miniBatchSize, 1, 1}, cursor),
+					Nd4j.zeros(new int[]{miniBatchSize, 1, 1}));
+		}
+
+		public boolean hasNext() { return hasBatch(cursor, 10); }
+		public DataSet next() { return next(10); }
+		public DataSet next(int num) { cursor += num; return batch(cursor - num, num); }
+		public int totalExamples() { return nExamples; }
+		public int inputColumns() { return 1; }
+		public int totalOutcomes() { return 1; }
+		public boolean resetSupported() { return true; }
+		public boolean asyncSupported() { return false; }
+		public void reset() { cursor = 0; }
+		public int batch() { return 10; }
+		public int cursor() { return cursor; }
+		public int numExamples() { return nExamples; }
+		public void setPreProcessor(DataSetPreProcessor preProcessor) {}
+		public DataSetPreProcessor getPreProcessor() { return null; }
+		public List<String> getLabels() { return null; }
+	}
+
+
+	@Test
+	public void testEpochAndReset() {
+
+		CursorSource source = new CursorSource(1000);
+		MDFAPrefetchIterator prefetch = new MDFAPrefetchIterator(source, 3);
+
+		for(int epoch = 0; epoch < 3; epoch++) {
+
+			int expected = 0;
+			while(prefetch.hasNext()) {
+				DataSet batch = prefetch.next();
+				assertEquals(expected, batch.getFeatureMatrix().getDouble(0), eps);
+				expected += 10;
+			}
+			assertEquals(1000, expected);
+			assertEquals(1000, prefetch.cursor());
+			prefetch.reset();
+		}
+
+		/* the wrapped iterator is never moved by the producer */
+		assertEquals(0, source.cursor());
+	}
+
+	@Test
+	public void testResetInTheMiddleOfAnEpoch() {
+
+		MDFAPrefetchIterator prefetch = new MDFAPrefetchIterator(new CursorSource(1000), 2);
+
+		for(int i = 0; i < 5; i++) {
+			prefetch.next();
+		}
+		prefetch.reset();
+
+		assertEquals(0, prefetch.cursor());
+		assertTrue(prefetch.hasNext());
+		assertEquals(0, prefetch.next().getFeatureMatrix().getDouble(0), eps);
+		prefetch.shutdown();
+	}
+
+	@Test
+	public void testNextWithOtherSize() {
+
+		MDFAPrefetchIterator prefetch = new MDFAPrefetchIterator(new CursorSource(100), 2);
+
+		assertEquals(0, prefetch.next().getFeatureMatrix().getDouble(0), eps);
+		DataSet odd = prefetch.next(7);
+		assertEquals(7, odd.getFeatureMatrix().size(0));
+		assertEquals(10, odd.getFeatureMatrix().getDouble(0), eps);
+		assertEquals(17, prefetch.cursor());
+
+		/* prefetching continues behind the odd minibatch */
+		int expected = 17;
+		while(prefetch.hasNext()) {
+			assertEquals(expected, prefetch.next(10).getFeatureMatrix().getDouble(0), eps);
+			expected += 10;
+		}
+		assertEquals(97, expected);
+		assertEquals(3, prefetch.next(3).getFeatureMatrix().size(0));
+		prefetch.shutdown();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testProducerFailureReachesConsumer() {
+
+		CursorSource failing = new CursorSource(1000) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public DataSet batch(int cursor, int miniBatchSize) {
+				if(cursor == 50) {
+					throw new IndexOutOfBoundsException();
+				}
+				return super.batch(cursor, miniBatchSize);
+			}
+		};
+
+		MDFAPrefetchIterator prefetch = new MDFAPrefetchIterator(failing, 2);
+		while(prefetch.hasNext()) {
+			assertFalse(prefetch.cursor() > 50);
+			prefetch.next();
+		}
+	}
+
+}
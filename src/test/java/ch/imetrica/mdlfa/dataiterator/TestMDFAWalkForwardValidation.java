@@ -0,0 +1,99 @@
+package ch.imetrica.mdlfa.dataiterator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import ch.imetrica.mdlfa.dataiterator.MDFAWalkForwardValidation.Fold;
+
+public class TestMDFAWalkForwardValidation {
+
+	final int usableLength = 1103;
+	final int nFolds = 10;
+	final int embargo = 25;
+
+
+	@Test
+	public void testAnchoredFolds() {
+
+		List<Fold> folds = new MDFAWalkForwardValidation(usableLength, nFolds).setEmbargo(embargo).getFolds();
+		assertEquals(nFolds, folds.size());
+
+		int blockLength = usableLength / (nFolds + 1);
+		for(int k = 0; k < nFolds; k++) {
+
+			Fold fold = folds.get(k);
+			assertEquals(k, fold.getIndex());
+			assertEquals(0, fold.getTrainFrom());
+			assertEquals(fold.getTestFrom() - embargo, fold.getTrainTo());
+			assertEquals(blockLength, fold.getTestTo() - fold.getTestFrom());
+			if(k > 0) {
+				assertEquals(folds.get(k - 1).getTestTo(), fold.getTestFrom());
+			}
+		}
+		assertEquals(usableLength, folds.get(nFolds - 1).getTestTo());
+	}
+
+	@Test
+	public void testRollingFolds() {
+
+		List<Fold> folds = new MDFAWalkForwardValidation(usableLength, nFolds)
+				.setEmbargo(embargo).setTrainingWindow(200).getFolds();
+
+		for(Fold fold : folds) {
+			assertTrue(fold.getTrainTo() - fold.getTrainFrom() <= 200);
+			assertEquals(fold.getTestFrom() - embargo, fold.getTrainTo());
+		}
+		assertEquals(200, folds.get(nFolds - 1).getTrainTo() - folds.get(nFolds - 1).getTrainFrom());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testEmbargoLongerThanBlock() {
+		new MDFAWalkForwardValidation(100, 9).setEmbargo(10).getFolds();
+	}
+
+	@Test
+	public void testFoldsRunConcurrently() throws Exception {
+
+		MDFAWalkForwardValidation validation = new MDFAWalkForwardValidation(usableLength, nFolds).setEmbargo(embargo);
+		ForkJoinPool pool = new ForkJoinPool(4);
+
+		try {
+			List<String> results = validation.run(new MDFAWalkForwardValidation.FoldTask<String>() {
+
+				@Override
+				public String run(Fold fold) throws Exception {
+					return fold.toString();
+				}
+			}, pool);
+
+			List<Fold> folds = validation.getFolds();
+			for(int k = 0; k < nFolds; k++) {
+				assertEquals(folds.get(k).toString(), results.get(k));
+			}
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testFailureOfFoldIsRethrown() throws Exception {
+
+		new MDFAWalkForwardValidation(usableLength, nFolds).run(new MDFAWalkForwardValidation.FoldTask<Integer>() {
+
+			@Override
+			public Integer run(Fold fold) throws Exception {
+				if(fold.getIndex() == 3) {
+					throw new IllegalArgumentException("fold failed");
+				}
+				return fold.getIndex();
+			}
+		}, ForkJoinPool.commonPool());
+	}
+
+}
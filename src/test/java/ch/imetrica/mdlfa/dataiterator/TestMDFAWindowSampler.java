@@ -0,0 +1,191 @@
+package ch.imetrica.mdlfa.dataiterator;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.nd4j.linalg.dataset.DataSet;
+
+import ch.imetrica.mdfa.mdfa.MDFABase;
+import ch.imetrica.mdlfa.util.TimeSeriesFile;
+
+public class TestMDFAWindowSampler {
+
+	final double eps = .00001;
+	
+	/* 200 observations, unlabelled at 50 and in the tail from 180 */
+	private boolean[] createLabelled() {
+		
+		boolean[] labelled = new boolean[200];
+		for(int j = 0; j < labelled.length; j++) {
+			labelled[j] = (j != 50) && (j < 180);
+		}
+		return labelled;
+	}
+	
+	@Test
+	public void testValidWindowIndex() {
+		
+		boolean[] labelled = createLabelled();
+		int[] starts = new MDFAWindowSampler().indexValidWindows(labelled, 0, 200, 10);
+		
+		for(int s : starts) {
+			for(int t = 0; t < 10; t++) {
+				assertTrue(labelled[s + t]);
+			}
+		}
+		/* 0..40, 51..170 */
+		assertEquals(41 + 120, starts.length);
+		assertEquals(40, starts[40]);
+		assertEquals(51, starts[41]);
+		assertEquals(170, starts[starts.length - 1]);
+	}
+	
+	@Test
+	public void testStrideAndRange() {
+		
+		int[] starts = new MDFAWindowSampler().setStride(5)
+				.indexValidWindows(createLabelled(), 100, 150, 10);
+		
+		assertArrayEquals(new int[]{100, 105, 110, 115, 120, 125, 130, 135, 140}, starts);
+	}
+	
+	@Test
+	public void testSeededShuffleAndCap() {
+		
+		boolean[] labelled = createLabelled();
+		
+		MDFAWindowSampler first = new MDFAWindowSampler().setShuffle(123);
+		MDFAWindowSampler second = new MDFAWindowSampler().setShuffle(123);
+		int[] valid = first.indexValidWindows(labelled, 0, 200, 10);
+		
+		int[] epoch1 = first.sampleEpoch(valid, 0);
+		int[] epoch2 = first.sampleEpoch(valid, 0);
+		
+		assertArrayEquals(epoch1, second.sampleEpoch(valid, 0));
+		assertFalse(Arrays.equals(epoch1, epoch2));
+		
+		int[] sorted = epoch1.clone();
+		Arrays.sort(sorted);
+		assertArrayEquals(valid, sorted);
+		
+		assertEquals(25, first.sampleEpoch(valid, 25).length);
+		assertEquals(valid.length, first.sampleEpoch(valid, 100000).length);
+	}
+	
+	@Test
+	public void testGatheredBatchMatchesConsecutiveBatch() {
+		
+		boolean[] labelled = createLabelled();
+		double[][] features = new double[3][200];
+		double[][] labels = new double[1][200];
+		for(int j = 0; j < 200; j++) {
+			features[0][j] = j; 
+			features[1][j] = -j; 
+			features[2][j] = j*j;
+			labels[0][j] = Math.sin(j);
+		}
+		
+		MDFABatchAssembler assembler = new MDFABatchAssembler(features, labels, labelled);
+		int[] starts = {7, 8, 9, 10, 11};
+		
+		DataSet consecutive = assembler.regressionBatch(7, 5, 20);
+		DataSet gathered = assembler.regressionBatch(starts, 0, 5, 20);
+		assertEquals(consecutive.getFeatureMatrix(), gathered.getFeatureMatrix());
+		assertEquals(consecutive.getLabels(), gathered.getLabels());
+		
+		DataSet shuffled = assembler.classificationBatch(new int[]{0, 120, 3}, 1, 2, 20);
+		assertEquals(120.0, shuffled.getFeatureMatrix().getDouble(0, 0, 0), eps);
+		assertEquals(-3.0, shuffled.getFeatureMatrix().getDouble(1, 1, 0), eps);
+		assertEquals(22.0*22.0, shuffled.getFeatureMatrix().getDouble(1, 2, 19), eps);
+	}
+	
+	@Test
+	public void testIsConsecutive() {
+		
+		assertTrue(MDFAWindowSampler.isConsecutive(new int[]{3, 5, 6, 7, 8}, 1, 4));
+		assertTrue(MDFAWindowSampler.isConsecutive(new int[]{9}, 0, 1));
+		assertFalse(MDFAWindowSampler.isConsecutive(new int[]{5, 9, 6, 8}, 0, 4));
+		assertFalse(MDFAWindowSampler.isConsecutive(new int[]{3, 5, 6, 7, 8}, 0, 5));
+	}
+	
+	/* a shuffled sampler whose epochs start with a slice spanning the run 5..8 without being one */
+	private MDFAWindowSampler createSpanningSampler(long seed) {
+		
+		return new MDFAWindowSampler() {
+			
+			@Override
+			public int[] sampleEpoch(int[] validStarts, int maxExamples) {
+				
+				int[] epoch = super.sampleEpoch(validStarts, maxExamples);
+				int[] spanning = {5, 9, 6, 8};
+				for(int i = 0; i < spanning.length; i++) {
+					for(int j = i; j < epoch.length; j++) {
+						if(epoch[j] == spanning[i]) {
+							epoch[j] = epoch[i];
+							epoch[i] = spanning[i];
+						}
+					}
+				}
+				return epoch;
+			}
+		}.setShuffle(seed);
+	}
+	
+	@Test
+	public void testShuffledZeroCopyMatchesGather() {
+		
+		int nObs = 200;
+		double[][] features = new double[2][nObs];
+		double[][] labels = new double[1][nObs];
+		boolean[] labelled = createLabelled();
+		long[] timestamps = new long[nObs];
+		for(int j = 0; j < nObs; j++) {
+			features[0][j] = j;
+			features[1][j] = -j / 2.0;
+			labels[0][j] = Math.sin(j);
+			timestamps[j] = 1483228800000L + 86400000L * j;
+		}
+		
+		MDFAFeatureStore<Double> store = MDFAFeatureStore.fromColumns(new MDFABase[2], 
+				new MDFABatchAssembler(features, labels, labelled), timestamps, 
+				new TimeSeriesFile("yyyy-MM-dd", "Index", "Open"), nObs, nObs,
+				true, null, null);
+		
+		MDFARegressionDataSetIterator zeroCopy = new MDFARegressionDataSetIterator(store, 4, 0, 10);
+		zeroCopy.setZeroCopyWindows(true);
+		zeroCopy.setWindowSampler(createSpanningSampler(17));
+		
+		MDFARegressionDataSetIterator gather = new MDFARegressionDataSetIterator(store, 4, 0, 10);
+		gather.setWindowSampler(createSpanningSampler(17));
+		
+		for(int epoch = 0; epoch < 3; epoch++) {
+			
+			DataSet first = zeroCopy.next();
+			assertEquals(9.0, first.getFeatureMatrix().getDouble(1, 0, 0), eps);
+			assertEquals(8.0, first.getFeatureMatrix().getDouble(3, 0, 0), eps);
+			
+			DataSet expected = gather.next();
+			assertEquals(expected.getFeatureMatrix(), first.getFeatureMatrix());
+			assertEquals(expected.getLabels(), first.getLabels());
+			
+			while(gather.hasNext()) {
+				
+				assertTrue(zeroCopy.hasNext());
+				expected = gather.next();
+				DataSet actual = zeroCopy.next();
+				assertEquals(expected.getFeatureMatrix(), actual.getFeatureMatrix());
+				assertEquals(expected.getLabels(), actual.getLabels());
+			}
+			assertFalse(zeroCopy.hasNext());
+			
+			zeroCopy.reset();
+			gather.reset();
+		}
+	}
+}
+
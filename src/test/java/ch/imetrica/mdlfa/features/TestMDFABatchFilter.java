@@ -0,0 +1,150 @@
+package ch.imetrica.mdlfa.features;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.imetrica.mdfa.mdfa.MDFABase;
+
+public class TestMDFABatchFilter {
+
+	final double eps = .0000001;
+
+
+	private double[][] createCoefficients(Random rng, int nFilters, int filterLength) {
+
+		double[][] coefficients = new double[nFilters][filterLength];
+		for(int k = 0; k < nFilters; k++) {
+			for(int l = 0; l < filterLength; l++) {
+				coefficients[k][l] = rng.nextGaussian() / filterLength;
+			}
+		}
+		return coefficients;
+	}
+
+	private double[] createSeries(Random rng, int nObs) {
+
+		double[] x = new double[nObs];
+		for(int t = 0; t < nObs; t++) {
+			x[t] = rng.nextGaussian();
+		}
+		return x;
+	}
+
+	/* plain convolution, one observation at a time */
+	private void filterReference(double[] x, double[][] coefficients, double[][] features) {
+
+		for(int k = 0; k < coefficients.length; k++) {
+			for(int t = 0; t < x.length; t++) {
+
+				double sum = 0;
+				for(int l = 0; l < coefficients[k].length && t - l >= 0; l++) {
+					sum += coefficients[k][l] * x[t - l];
+				}
+				features[k][t] = sum;
+			}
+		}
+	}
+
+	@Test
+	public void testDirectKernelMatchesReference() {
+
+		Random rng = new Random(53);
+
+		/* filter lengths around the unrolling, histories shorter and longer than a tile */
+		int[] filterLengths = { 1, 2, 3, 4, 5, 7, 8, 31 };
+		int[] nObs = { 3, 511, 512, 1300 };
+		for(int filterLength : filterLengths) {
+			for(int n : nObs) {
+
+				double[][] coefficients = createCoefficients(rng, 6, filterLength);
+				double[] x = createSeries(rng, n);
+
+				double[][] expected = new double[6][n];
+				filterReference(x, coefficients, expected);
+
+				/* the bank is written behind a target column, as in a regression store */
+				double[][] features = new double[7][n];
+				MDFABatchFilter.filterDirect(x, x.length, coefficients, features, 1);
+				for(int k = 0; k < 6; k++) {
+					assertArrayEquals(expected[k], features[k + 1], eps);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testFftMatchesDirect() {
+
+		Random rng = new Random(41);
+
+		/* odd and even banks, filter lengths around the block size, histories shorter and longer than a block */
+		int[][] cases = { { 6, 40, 5000 }, { 5, 40, 5000 }, { 1, 33, 200 }, { 3, 100, 20 }, { 7, 64, 4096 } };
+		for(int[] c : cases) {
+
+			double[][] coefficients = createCoefficients(rng, c[0], c[1]);
+			double[] x = createSeries(rng, c[2]);
+
+			double[][] direct = new double[c[0]][c[2]];
+			double[][] fft = new double[c[0]][c[2]];
+			filterReference(x, coefficients, direct);
+			MDFABatchFilter.filterFft(x, x.length, coefficients, c[1], fft, 0);
+
+			for(int k = 0; k < c[0]; k++) {
+				assertArrayEquals(direct[k], fft[k], eps);
+			}
+		}
+	}
+
+	@Test
+	public void testMixedFilterLengths() {
+
+		Random rng = new Random(43);
+		double[][] coefficients = { createCoefficients(rng, 1, 40)[0], createCoefficients(rng, 1, 5)[0],
+				                    createCoefficients(rng, 1, 12)[0] };
+		double[] x = createSeries(rng, 1000);
+
+		double[][] direct = new double[3][x.length];
+		filterReference(x, coefficients, direct);
+		double[][] features = new MDFABatchFilter().filter(x, coefficients);
+
+		for(int k = 0; k < 3; k++) {
+			assertArrayEquals(direct[k], features[k], eps);
+		}
+	}
+
+	@Test
+	public void testMatchesStreamingEngine() {
+
+		Random rng = new Random(47);
+		double[][] coefficients = createCoefficients(rng, 4, 40);
+		double[] x = createSeries(rng, 700);
+
+		double[][] features = new MDFABatchFilter().filter(x, coefficients);
+		MDFAStreamingFeatureEngine engine = new MDFAStreamingFeatureEngine(new MDFABase[4], coefficients);
+		for(int t = 0; t < x.length; t++) {
+
+			double[] tick = engine.tick(x[t]);
+			for(int k = 0; k < 4; k++) {
+				assertEquals(tick[k], features[k][t], eps);
+			}
+		}
+	}
+
+	@Test
+	public void testPathChosenByFilterLength() {
+
+		MDFABatchFilter filter = new MDFABatchFilter();
+		assertFalse(filter.usesFft(5));
+		assertTrue(filter.usesFft(40));
+
+		filter.setFftThreshold(64);
+		assertFalse(filter.usesFft(40));
+	}
+
+}
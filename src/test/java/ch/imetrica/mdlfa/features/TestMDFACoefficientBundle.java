@@ -0,0 +1,85 @@
+package ch.imetrica.mdlfa.features;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ch.imetrica.mdfa.mdfa.MDFABase;
+
+public class TestMDFACoefficientBundle {
+
+	final double eps = .00000001;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+
+	@Test
+	public void testBundleRoundTrip() throws Exception {
+
+		MDFABase[] anyMDFAs = new MDFAFeatureExtraction().getFeatureExtractors();
+		anyMDFAs[5].setHybridForecast(.5);
+
+		Random rng = new Random(59);
+		double[][] coefficients = new double[anyMDFAs.length][];
+		for(int k = 0; k < anyMDFAs.length; k++) {
+			coefficients[k] = new double[5 + k];
+			for(int l = 0; l < coefficients[k].length; l++) {
+				coefficients[k][l] = rng.nextGaussian();
+			}
+		}
+
+		File file = new File(folder.getRoot(), "bundles/default.mdfab");
+		new MDFACoefficientBundle(anyMDFAs, coefficients, .7, 36, "yyyy-MM-dd").write(file);
+		MDFACoefficientBundle bundle = MDFACoefficientBundle.read(file);
+
+		assertEquals(.7, bundle.getTargetWeight(), eps);
+		assertEquals(36, bundle.getWhiteNoisePrefilters());
+		assertEquals("yyyy-MM-dd", bundle.getDateTimeFormat());
+
+		MDFABase[] read = bundle.getFeatureExtractors();
+		assertEquals(anyMDFAs.length, read.length);
+		for(int k = 0; k < anyMDFAs.length; k++) {
+
+			assertEquals(anyMDFAs[k].getLowPassCutoff(), read[k].getLowPassCutoff(), eps);
+			assertEquals(anyMDFAs[k].getBandPassCutoff(), read[k].getBandPassCutoff(), eps);
+			assertEquals(anyMDFAs[k].getSmooth(), read[k].getSmooth(), eps);
+			assertEquals(anyMDFAs[k].getDecayStart(), read[k].getDecayStart(), eps);
+			assertEquals(anyMDFAs[k].getDecayStrength(), read[k].getDecayStrength(), eps);
+			assertEquals(anyMDFAs[k].getLag(), read[k].getLag(), eps);
+			assertEquals(anyMDFAs[k].getLambda(), read[k].getLambda(), eps);
+			assertEquals(anyMDFAs[k].getAlpha(), read[k].getAlpha(), eps);
+			assertEquals(anyMDFAs[k].getHybridForecast(), read[k].getHybridForecast(), eps);
+			assertEquals(anyMDFAs[k].getI1(), read[k].getI1());
+			assertEquals(anyMDFAs[k].getSeriesLength(), read[k].getSeriesLength());
+			assertEquals(anyMDFAs[k].getFilterLength(), read[k].getFilterLength());
+			assertArrayEquals(coefficients[k], bundle.getCoefficients()[k], eps);
+		}
+
+		MDFAFeatureExtraction extraction = new MDFAFeatureExtraction(bundle);
+		assertEquals(anyMDFAs.length, extraction.getNumberOfFeatures());
+		assertArrayEquals(coefficients[2], extraction.getCoefficients()[2], eps);
+
+		double[] features = bundle.createStreamingEngine().tick(2.0);
+		assertEquals(2.0 * coefficients[0][0], features[0], eps);
+	}
+
+	@Test(expected = IOException.class)
+	public void testRejectsOtherFiles() throws Exception {
+
+		File file = folder.newFile("other.bin");
+		try(FileOutputStream out = new FileOutputStream(file)) {
+			out.write(new byte[64]);
+		}
+		MDFACoefficientBundle.read(file);
+	}
+
+}
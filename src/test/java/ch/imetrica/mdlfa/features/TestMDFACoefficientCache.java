@@ -0,0 +1,121 @@
+package ch.imetrica.mdlfa.features;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.junit.Test;
+
+import ch.imetrica.mdfa.mdfa.MDFABase;
+import ch.imetrica.mdfa.series.TimeSeriesEntry;
+
+public class TestMDFACoefficientCache {
+
+	final double eps = .00000001;
+
+	final double targetWeight = .7;
+	final int prefilters = MDFAFilterBank.WHITE_NOISE_PREFILTERS;
+	final String dateFormat = "yyyy-MM-dd HH:mm";
+
+
+	private List<TimeSeriesEntry<double[]>> createWindow(double offset) {
+
+		List<TimeSeriesEntry<double[]>> window = new ArrayList<TimeSeriesEntry<double[]>>();
+		for(int i = 0; i < 100; i++) {
+			window.add(new TimeSeriesEntry<double[]>(String.format("2017-01-01 %02d:%02d", i / 60, i % 60),
+					new double[]{ offset + Math.sin(i / 10.0) }));
+		}
+		return window;
+	}
+
+	private MDFABase createMDFA(double cutoff) {
+		return new MDFABase().setLowpassCutoff(cutoff).setSmooth(.2).setLag(-1.0).setSeriesLength(100).setFilterLength(5);
+	}
+
+	@Test
+	public void testFingerprint() {
+
+		assertEquals(MDFACoefficientCache.fingerprint(createWindow(1.0)),
+				     MDFACoefficientCache.fingerprint(createWindow(1.0)));
+		assertNotEquals(MDFACoefficientCache.fingerprint(createWindow(1.0)),
+				        MDFACoefficientCache.fingerprint(createWindow(1.0 + 1e-12)));
+	}
+
+	@Test
+	public void testKeyedByParametersAndData() {
+
+		MDFACoefficientCache cache = new MDFACoefficientCache(10);
+		long fingerprint = MDFACoefficientCache.fingerprint(createWindow(1.0));
+		double[] coefficients = { .1, .2, .3, .2, .1 };
+
+		cache.put(createMDFA(Math.PI/6.0), targetWeight, prefilters, dateFormat, fingerprint, coefficients);
+
+		/* equal parameters in a different object hit */
+		assertArrayEquals(coefficients, cache.get(createMDFA(Math.PI/6.0), targetWeight, prefilters, dateFormat, fingerprint), eps);
+
+		assertNull(cache.get(createMDFA(Math.PI/6.0).setDecayStrength(.1), targetWeight, prefilters, dateFormat, fingerprint));
+		assertNull(cache.get(createMDFA(Math.PI/6.0).setFilterLength(6), targetWeight, prefilters, dateFormat, fingerprint));
+		assertNull(cache.get(createMDFA(Math.PI/6.0), targetWeight, prefilters, dateFormat, MDFACoefficientCache.fingerprint(createWindow(2.0))));
+
+		/* banks that build their series differently never share coefficients */
+		assertNull(cache.get(createMDFA(Math.PI/6.0), 1.0, prefilters, dateFormat, fingerprint));
+		assertNull(cache.get(createMDFA(Math.PI/6.0), targetWeight, 0, dateFormat, fingerprint));
+		assertNull(cache.get(createMDFA(Math.PI/6.0), targetWeight, prefilters, "yyyy-MM-dd", fingerprint));
+
+		assertEquals(1, cache.getHits());
+		assertEquals(6, cache.getMisses());
+		assertEquals(1.0/7.0, cache.getHitRate(), eps);
+
+		/* cached coefficients are copies */
+		cache.get(createMDFA(Math.PI/6.0), targetWeight, prefilters, dateFormat, fingerprint)[0] = 100.0;
+		assertEquals(.1, cache.get(createMDFA(Math.PI/6.0), targetWeight, prefilters, dateFormat, fingerprint)[0], eps);
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEviction() {
+
+		MDFACoefficientCache cache = new MDFACoefficientCache(2);
+		long fingerprint = 42L;
+
+		cache.put(createMDFA(1.0), targetWeight, prefilters, dateFormat, fingerprint, new double[]{ 1.0 });
+		cache.put(createMDFA(2.0), targetWeight, prefilters, dateFormat, fingerprint, new double[]{ 2.0 });
+
+		/* touching the first entry makes the second the eldest */
+		cache.get(createMDFA(1.0), targetWeight, prefilters, dateFormat, fingerprint);
+		cache.put(createMDFA(3.0), targetWeight, prefilters, dateFormat, fingerprint, new double[]{ 3.0 });
+
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictions());
+		assertNull(cache.get(createMDFA(2.0), targetWeight, prefilters, dateFormat, fingerprint));
+		assertEquals(1.0, cache.get(createMDFA(1.0), targetWeight, prefilters, dateFormat, fingerprint)[0], eps);
+		assertEquals(3.0, cache.get(createMDFA(3.0), targetWeight, prefilters, dateFormat, fingerprint)[0], eps);
+	}
+
+	@Test
+	public void testGetOrSolveSolvesOnce() throws Exception {
+
+		MDFACoefficientCache cache = new MDFACoefficientCache(4);
+		final int[] solves = { 0 };
+		Callable<double[]> solver = new Callable<double[]>() {
+
+			@Override
+			public double[] call() throws Exception {
+				solves[0]++;
+				return new double[]{ .5, .5 };
+			}
+		};
+
+		for(int trial = 0; trial < 5; trial++) {
+			assertArrayEquals(new double[]{ .5, .5 }, cache.getOrSolve(createMDFA(Math.PI/4.0), targetWeight, prefilters, dateFormat, 7L, solver), eps);
+		}
+		assertEquals(1, solves[0]);
+		assertEquals(4, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+}
@@ -0,0 +1,227 @@
+package ch.imetrica.mdlfa.features;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import ch.imetrica.mdfa.mdfa.MDFABase;
+import ch.imetrica.mdfa.series.TimeSeriesEntry;
+
+public class TestMDFACoefficientScheduler {
+
+	final double eps = .00000001;
+
+	final int seriesLength = 50;
+
+
+	/* a single coefficient, the mean of the window, so estimates can be checked */
+	private MDFACoefficientScheduler.Estimator meanEstimator() {
+
+		return new MDFACoefficientScheduler.Estimator() {
+
+			@Override
+			public double[][] estimate(List<TimeSeriesEntry<double[]>> window, MDFASpectrum spectrum) throws Exception {
+
+				double mean = 0;
+				for(TimeSeriesEntry<double[]> observation : window) {
+					mean += observation.getValue()[0];
+				}
+				return new double[][] { { mean / window.size() } };
+			}
+		};
+	}
+
+	private TimeSeriesEntry<double[]> observation(int t) {
+		return new TimeSeriesEntry<double[]>("t" + t, new double[]{ t });
+	}
+
+	@Test
+	public void testEstimatesOnRollingWindow() {
+
+		double[][] initial = { { 1.0 } };
+		MDFACoefficientScheduler scheduler = new MDFACoefficientScheduler(meanEstimator(), seriesLength, initial, null);
+
+		for(int t = 0; t < seriesLength - 1; t++) {
+			scheduler.addObservation(observation(t));
+		}
+		assertFalse(scheduler.reestimate());
+		assertSame(initial, scheduler.getCoefficients());
+
+		for(int t = seriesLength - 1; t < 120; t++) {
+			scheduler.addObservation(observation(t));
+		}
+		assertTrue(scheduler.reestimate());
+
+		/* window holds observations 70 to 119 */
+		assertEquals((70 + 119) / 2.0, scheduler.getCoefficients()[0][0], eps);
+		assertEquals(1, scheduler.getEstimates());
+	}
+
+	@Test
+	public void testFailedEstimateKeepsCoefficients() {
+
+		double[][] initial = { { 1.0 } };
+		MDFACoefficientScheduler scheduler = new MDFACoefficientScheduler(new MDFACoefficientScheduler.Estimator() {
+
+			@Override
+			public double[][] estimate(List<TimeSeriesEntry<double[]>> window, MDFASpectrum spectrum) throws Exception {
+				throw new IllegalStateException("solve failed");
+			}
+		}, 1, initial, null);
+
+		scheduler.addObservation(observation(0));
+		assertFalse(scheduler.reestimate());
+		assertSame(initial, scheduler.getCoefficients());
+		assertEquals("solve failed", scheduler.getLastFailure().getMessage());
+	}
+
+	@Test
+	public void testBackgroundSwapIntoEngine() throws Exception {
+
+		final CountDownLatch estimated = new CountDownLatch(3);
+		final MDFACoefficientScheduler.Estimator mean = meanEstimator();
+		MDFACoefficientScheduler.Estimator counting = new MDFACoefficientScheduler.Estimator() {
+
+			@Override
+			public double[][] estimate(List<TimeSeriesEntry<double[]>> window, MDFASpectrum spectrum) throws Exception {
+				double[][] estimate = mean.estimate(window, spectrum);
+				estimated.countDown();
+				return estimate;
+			}
+		};
+
+		double[][] initial = { { 0.0 } };
+		ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+		MDFACoefficientScheduler scheduler = new MDFACoefficientScheduler(counting, seriesLength, initial, executor);
+		MDFAStreamingFeatureEngine engine = new MDFAStreamingFeatureEngine(new MDFABase[1], initial);
+
+		for(int t = 0; t < seriesLength; t++) {
+			scheduler.addObservation(observation(t));
+		}
+		scheduler.start(1, TimeUnit.MILLISECONDS);
+
+		/* the tick thread keeps adding observations while the estimates run */
+		int t = seriesLength;
+		while(!estimated.await(1, TimeUnit.MILLISECONDS)) {
+
+			scheduler.addObservation(observation(t++));
+			engine.updateCoefficients(scheduler.getCoefficients());
+			engine.tick(1.0);
+		}
+		scheduler.stop();
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+
+		assertTrue(scheduler.getEstimates() >= 3);
+		assertNull(scheduler.getLastFailure());
+
+		double[][] latest = scheduler.getCoefficients();
+		engine.updateCoefficients(latest);
+		assertFalse(engine.updateCoefficients(latest));
+		assertEquals(latest[0][0], engine.tick(1.0)[0], eps);
+		assertTrue(latest[0][0] > 0);
+	}
+
+	private double target(int t) {
+		return Math.sin(t / 3.0) + .01 * t;
+	}
+
+	@Test
+	public void testTracksSpectrumOfWindow() {
+
+		MDFABase[] anyMDFAs = { new MDFABase().setLowpassCutoff(Math.PI/6.0) };
+		double[][] initial = { { .2, .2, .2, .2, .2 } };
+		final MDFASpectrum[] given = new MDFASpectrum[1];
+		MDFACoefficientScheduler scheduler = new MDFACoefficientScheduler(new MDFACoefficientScheduler.Estimator() {
+
+			@Override
+			public double[][] estimate(List<TimeSeriesEntry<double[]>> window, MDFASpectrum spectrum) throws Exception {
+				given[0] = spectrum;
+				return new double[][] { { .5, .5 } };
+			}
+		}, seriesLength, initial, null).trackSpectrum();
+
+		for(int t = 0; t < seriesLength - 1; t++) {
+			scheduler.addObservation(observation(t), target(t));
+		}
+		assertNull(scheduler.getMeanSquaredErrors(anyMDFAs));
+
+		for(int t = seriesLength - 1; t < 3000; t++) {
+			scheduler.addObservation(observation(t), target(t));
+		}
+
+		/* the tracked spectrum is the one of the last seriesLength target values */
+		double[] last = new double[seriesLength];
+		for(int i = 0; i < seriesLength; i++) {
+			last[i] = target(3000 - seriesLength + i);
+		}
+		MDFASpectrum expected = new MDFASpectrum(last);
+		assertEquals(expected.meanSquaredError(anyMDFAs[0], initial[0]),
+				     scheduler.getMeanSquaredErrors(anyMDFAs)[0], 1e-9);
+
+		/* the estimator gets the spectrum of the window it solves on */
+		assertTrue(scheduler.reestimate());
+		assertArrayEquals(expected.getReal(), given[0].getReal(), 1e-9);
+		assertArrayEquals(expected.getImag(), given[0].getImag(), 1e-9);
+		assertEquals(expected.meanSquaredError(anyMDFAs[0], new double[]{ .5, .5 }),
+				     scheduler.getMeanSquaredErrors(anyMDFAs)[0], 1e-12);
+	}
+
+	@Test
+	public void testSlidingSpectrumGivenOnEveryBar() {
+
+		final MDFASpectrum[] given = new MDFASpectrum[1];
+		MDFACoefficientScheduler scheduler = new MDFACoefficientScheduler(new MDFACoefficientScheduler.Estimator() {
+
+			@Override
+			public double[][] estimate(List<TimeSeriesEntry<double[]>> window, MDFASpectrum spectrum) throws Exception {
+				given[0] = spectrum;
+				return new double[][] { { 1.0 } };
+			}
+		}, seriesLength, null, null).trackSpectrum().setSpectrumRecomputeInterval(7);
+
+		/* re-estimate on every bar, the drift is corrected on every seventh update */
+		for(int t = 0; t < 20 * seriesLength; t++) {
+
+			scheduler.addObservation(observation(t), 1e4 + target(t));
+			if(t < seriesLength - 1) {
+				continue;
+			}
+			assertTrue(scheduler.reestimate());
+
+			double[] last = new double[seriesLength];
+			for(int i = 0; i < seriesLength; i++) {
+				last[i] = 1e4 + target(t - seriesLength + 1 + i);
+			}
+			MDFASpectrum expected = new MDFASpectrum(last);
+			assertArrayEquals(expected.getReal(), given[0].getReal(), 1e-6);
+			assertArrayEquals(expected.getImag(), given[0].getImag(), 1e-6);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSpectrumRecomputeIntervalAtLeastOne() {
+		new MDFACoefficientScheduler(meanEstimator(), seriesLength, null, null).setSpectrumRecomputeInterval(0);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testTrackedSpectrumNeedsTargetValues() {
+
+		MDFACoefficientScheduler scheduler = new MDFACoefficientScheduler(meanEstimator(), seriesLength, null, null)
+				.trackSpectrum();
+		scheduler.addObservation(observation(0));
+	}
+
+}
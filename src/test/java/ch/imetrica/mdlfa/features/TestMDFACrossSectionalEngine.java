@@ -0,0 +1,93 @@
+package ch.imetrica.mdlfa.features;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import ch.imetrica.mdfa.mdfa.MDFABase;
+
+public class TestMDFACrossSectionalEngine {
+
+	final double eps = .00000001;
+
+	final int nSymbols = 37;
+
+
+	private double[][] createCoefficients(Random rng, int nFilters) {
+
+		double[][] coefficients = new double[nFilters][];
+		for(int k = 0; k < nFilters; k++) {
+			coefficients[k] = new double[3 + k];
+			for(int l = 0; l < coefficients[k].length; l++) {
+				coefficients[k][l] = rng.nextGaussian();
+			}
+		}
+		return coefficients;
+	}
+
+	private void assertMatchesStreamingEngines(MDFACrossSectionalEngine engine, double[][] coefficients, Random rng) throws Exception {
+
+		MDFABase[] anyMDFAs = engine.getFeatureExtractors();
+		MDFAStreamingFeatureEngine[] streams = new MDFAStreamingFeatureEngine[nSymbols];
+		for(int s = 0; s < nSymbols; s++) {
+			streams[s] = new MDFAStreamingFeatureEngine(anyMDFAs, coefficients);
+		}
+
+		double[] values = new double[nSymbols];
+		for(int t = 0; t < 50; t++) {
+
+			for(int s = 0; s < nSymbols; s++) {
+				values[s] = rng.nextGaussian();
+			}
+			engine.tick(values);
+			assertEquals(t + 1 >= engine.getFilterLength(), engine.isWarm());
+
+			for(int s = 0; s < nSymbols; s++) {
+
+				double[] expected = streams[s].tick(values[s]);
+				for(int k = 0; k < anyMDFAs.length; k++) {
+					assertEquals(expected[k], engine.getFeature(s, k), eps);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testMatchesStreamingEnginePerSymbol() throws Exception {
+
+		Random rng = new Random(73);
+		double[][] coefficients = createCoefficients(rng, 4);
+		MDFACrossSectionalEngine engine = new MDFACrossSectionalEngine(new MDFABase[4], coefficients, nSymbols);
+
+		assertMatchesStreamingEngines(engine, coefficients, rng);
+
+		engine.reset();
+		assertFalse(engine.isWarm());
+		assertEquals(0, engine.getTicks());
+		assertMatchesStreamingEngines(engine, coefficients, rng);
+	}
+
+	@Test
+	public void testConcurrentRanges() throws Exception {
+
+		Random rng = new Random(79);
+		double[][] coefficients = createCoefficients(rng, 5);
+		ExecutorService pool = Executors.newFixedThreadPool(3);
+		try {
+			MDFACrossSectionalEngine engine = new MDFACrossSectionalEngine(new MDFABase[5], coefficients, nSymbols)
+					.setPool(pool, 4);
+			assertMatchesStreamingEngines(engine, coefficients, rng);
+			assertTrue(engine.isWarm());
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,105 @@
+package ch.imetrica.mdlfa.features;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestMDFAFeaturePyramid {
+
+	final double eps = .00000001;
+
+	final int[] factors = { 1, 3, 6 };
+
+
+	/* features of one level from the base series, block sums filtered directly */
+	private double[][] naiveLevel(double[] x, int factor, double[][] coefficients) {
+
+		int bars = x.length / factor;
+		double[] coarse = new double[bars];
+		for(int b = 0; b < bars; b++) {
+			for(int j = 0; j < factor; j++) {
+				coarse[b] += x[b * factor + j];
+			}
+		}
+
+		double[][] features = new double[coefficients.length][x.length];
+		for(int k = 0; k < coefficients.length; k++) {
+			for(int t = 0; t < x.length; t++) {
+
+				int b = (t + 1) / factor - 1;
+				double sum = 0;
+				for(int l = 0; l <= b && l < coefficients[k].length; l++) {
+					sum += coefficients[k][l] * coarse[b - l];
+				}
+				features[k][t] = sum;
+			}
+		}
+		return features;
+	}
+
+	@Test
+	public void testMatchesFilteringEveryResolution() {
+
+		Random rng = new Random(83);
+		double[][][] coefficients = new double[factors.length][][];
+		for(int i = 0; i < factors.length; i++) {
+
+			coefficients[i] = new double[2 + i][5];
+			for(double[] coefficientSet : coefficients[i]) {
+				for(int l = 0; l < coefficientSet.length; l++) {
+					coefficientSet[l] = rng.nextGaussian();
+				}
+			}
+		}
+		MDFAFeaturePyramid pyramid = new MDFAFeaturePyramid(factors, coefficients);
+		assertEquals(2 + 3 + 4, pyramid.getNumberOfFeatures());
+
+		/* the second, shorter series reuses the buffers of the first */
+		for(int n : new int[]{ 200, 101 }) {
+
+			double[] x = new double[n];
+			for(int t = 0; t < n; t++) {
+				x[t] = .01 * rng.nextGaussian();
+			}
+
+			double[][] features = new double[1 + pyramid.getNumberOfFeatures()][n];
+			pyramid.compute(x, features, 1);
+
+			int column = 1;
+			for(int i = 0; i < factors.length; i++) {
+
+				double[][] expected = naiveLevel(x, factors[i], coefficients[i]);
+				for(int k = 0; k < expected.length; k++) {
+					for(int t = 0; t < n; t++) {
+						assertEquals(expected[k][t], features[column + k][t], eps);
+					}
+				}
+				column += expected.length;
+			}
+		}
+	}
+
+	@Test
+	public void testSharedBankOnEveryLevel() {
+
+		double[][] coefficients = { { 1.0 } };
+		double[] x = { 1, 2, 3, 4, 5, 6, 7 };
+		double[][] features = new MDFAFeaturePyramid(new int[]{ 2, 4 }, coefficients).compute(x);
+
+		assertEquals(2, features.length);
+		double[] level0 = { 0, 3, 3, 7, 7, 11, 11 };
+		double[] level1 = { 0, 0, 0, 10, 10, 10, 10 };
+		for(int t = 0; t < x.length; t++) {
+			assertEquals(level0[t], features[0][t], eps);
+			assertEquals(level1[t], features[1][t], eps);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsFactorsThatDoNotNest() {
+		new MDFAFeaturePyramid(new int[]{ 2, 5 }, new double[][]{ { 1.0 } });
+	}
+
+}
@@ -0,0 +1,146 @@
+package ch.imetrica.mdlfa.features;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+public class TestMDFARollingCorrelation {
+
+	final double eps = .000001;
+
+	final int nSymbols = 11;
+
+	final int windowLength = 20;
+
+
+	/* sample covariance of symbols i and j over steps [from, to) */
+	private double naiveCovariance(double[][] values, int from, int to, int i, int j) {
+
+		int m = to - from;
+		double meanI = 0;
+		double meanJ = 0;
+		for(int t = from; t < to; t++) {
+			meanI += values[t][i] / m;
+			meanJ += values[t][j] / m;
+		}
+		double sum = 0;
+		for(int t = from; t < to; t++) {
+			sum += (values[t][i] - meanI) * (values[t][j] - meanJ);
+		}
+		return sum / (m - 1);
+	}
+
+	private void assertMatchesWindow(MDFARollingCorrelation correlation, Random rng, int nSteps) throws Exception {
+
+		double[][] values = new double[nSteps][nSymbols];
+		for(int t = 0; t < nSteps; t++) {
+
+			/* a common factor makes the symbols correlated */
+			double common = rng.nextGaussian();
+			for(int i = 0; i < nSymbols; i++) {
+				values[t][i] = 100 + common + (1 + .1 * i) * rng.nextGaussian();
+			}
+			correlation.update(values[t]);
+			assertEquals(t + 1 >= windowLength, correlation.isWarm());
+
+			int from = Math.max(0, t + 1 - windowLength);
+			if(t - from < 1) {
+				continue;
+			}
+			for(int i = 0; i < nSymbols; i++) {
+				for(int j = 0; j < nSymbols; j++) {
+
+					double covariance = naiveCovariance(values, from, t + 1, i, j);
+					double expected = covariance / Math.sqrt(naiveCovariance(values, from, t + 1, i, i)
+							* naiveCovariance(values, from, t + 1, j, j));
+					assertEquals(covariance, correlation.getCovariance(i, j), eps);
+					assertEquals(expected, correlation.getCorrelation(i, j), eps);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testMatchesWindowComputation() throws Exception {
+
+		MDFARollingCorrelation correlation = new MDFARollingCorrelation(nSymbols, windowLength);
+		assertEquals(nSymbols * (nSymbols - 1) / 2, correlation.getNumberOfPairs());
+		assertEquals(windowLength, correlation.getRecomputeInterval());
+		assertMatchesWindow(correlation, new Random(103), 90);
+	}
+
+	@Test
+	public void testConcurrentStripes() throws Exception {
+
+		ExecutorService pool = Executors.newFixedThreadPool(3);
+		try {
+			MDFARollingCorrelation correlation = new MDFARollingCorrelation(nSymbols, windowLength)
+					.setPool(pool, 4)
+					.setRecomputeInterval(7);
+			assertMatchesWindow(correlation, new Random(107), 90);
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testPrecisionAtPriceLevel() throws Exception {
+
+		/* without recomputation, raw sums of products at this level would cancel */
+		MDFARollingCorrelation correlation = new MDFARollingCorrelation(nSymbols, windowLength)
+				.setRecomputeInterval(Integer.MAX_VALUE);
+
+		Random rng = new Random(109);
+		int nSteps = 5000;
+		double[][] values = new double[nSteps][nSymbols];
+		for(int t = 0; t < nSteps; t++) {
+
+			double common = rng.nextGaussian();
+			for(int i = 0; i < nSymbols; i++) {
+				values[t][i] = 1e6 + common + (1 + .1 * i) * rng.nextGaussian();
+			}
+			correlation.update(values[t]);
+		}
+
+		for(int i = 0; i < nSymbols; i++) {
+			for(int j = i + 1; j < nSymbols; j++) {
+
+				double covariance = naiveCovariance(values, nSteps - windowLength, nSteps, i, j);
+				double expected = covariance / Math.sqrt(naiveCovariance(values, nSteps - windowLength, nSteps, i, i)
+						* naiveCovariance(values, nSteps - windowLength, nSteps, j, j));
+				assertEquals(covariance, correlation.getCovariance(i, j), eps);
+				assertEquals(expected, correlation.getCorrelation(i, j), eps);
+			}
+		}
+	}
+
+	@Test
+	public void testPackedPairsAndRowOffset() throws Exception {
+
+		MDFARollingCorrelation correlation = new MDFARollingCorrelation(3, 4);
+		double[] features = new double[6];
+		for(int t = 0; t < 4; t++) {
+
+			/* second row of a two-filter cross-sectional output: x, -x and 2x + t^2 */
+			features[3] = t;
+			features[4] = -t;
+			features[5] = 2 * t + t * t;
+			correlation.update(features, 3);
+		}
+		assertTrue(correlation.isWarm());
+
+		double[] correlations = correlation.getCorrelations();
+		assertEquals(-1.0, correlations[0], eps);
+		assertEquals(correlation.getCorrelation(0, 2), correlations[1], eps);
+		assertEquals(-correlations[1], correlations[2], eps);
+		assertEquals(1.0, correlation.getCorrelation(1, 1), eps);
+		assertTrue(correlations[1] > 0 && correlations[1] < 1);
+	}
+
+}
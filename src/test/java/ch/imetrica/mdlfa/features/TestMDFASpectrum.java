@@ -0,0 +1,159 @@
+package ch.imetrica.mdlfa.features;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.imetrica.mdfa.mdfa.MDFABase;
+
+public class TestMDFASpectrum {
+
+	final double eps = .00000001;
+
+	final int seriesLength = 400;
+
+
+	private double[] createSeries(Random rng) {
+
+		double[] x = new double[seriesLength];
+		for(int t = 0; t < seriesLength; t++) {
+			x[t] = Math.sin(2.0 * Math.PI * 20 * t / seriesLength) + .1 * rng.nextGaussian();
+		}
+		return x;
+	}
+
+	@Test
+	public void testTransformMatchesDefinition() {
+
+		double[] x = createSeries(new Random(61));
+		MDFASpectrum spectrum = new MDFASpectrum(x);
+		double[] real = spectrum.getReal();
+		double[] imag = spectrum.getImag();
+
+		assertEquals(seriesLength / 2 + 1, spectrum.getNumberOfFrequencies());
+		for(int j = 0; j < spectrum.getNumberOfFrequencies(); j++) {
+
+			double omega = 2.0 * Math.PI * j / seriesLength;
+			double re = 0;
+			double im = 0;
+			for(int t = 0; t < seriesLength; t++) {
+				re += x[t] * Math.cos(omega * t);
+				im -= x[t] * Math.sin(omega * t);
+			}
+			assertEquals(re, real[j], 1e-9);
+			assertEquals(im, imag[j], 1e-9);
+		}
+
+		MDFASpectrum copy = new MDFASpectrum(spectrum);
+		assertArrayEquals(real, copy.getReal(), 0.0);
+		assertArrayEquals(imag, copy.getImag(), 0.0);
+
+		/* the sinusoid dominates its frequency bin */
+		double[] periodogram = spectrum.getPeriodogram();
+		int peak = 0;
+		for(int j = 1; j < periodogram.length; j++) {
+			if(periodogram[j] > periodogram[peak]) {
+				peak = j;
+			}
+		}
+		assertEquals(20, peak);
+	}
+
+	@Test
+	public void testMeanSquaredError() {
+
+		double[] x = createSeries(new Random(67));
+		MDFASpectrum spectrum = new MDFASpectrum(x);
+		double[] periodogram = spectrum.getPeriodogram();
+
+		/* the identity filter is the ideal allpass */
+		MDFABase allpass = new MDFABase().setLowpassCutoff(Math.PI);
+		assertEquals(0.0, spectrum.meanSquaredError(allpass, new double[]{ 1.0 }), eps);
+
+		/* the zero filter misses all of the passband */
+		MDFABase lowpass = new MDFABase().setLowpassCutoff(Math.PI/6.0);
+		double expected = 0;
+		for(int j = 0; j < periodogram.length; j++) {
+			if(2.0 * Math.PI * j / seriesLength <= Math.PI/6.0) {
+				expected += periodogram[j];
+			}
+		}
+		expected *= 2.0 * Math.PI / seriesLength;
+		assertEquals(expected, spectrum.meanSquaredError(lowpass, new double[5]), eps);
+
+		double[] errors = spectrum.meanSquaredErrors(new MDFABase[]{ allpass, lowpass }, new double[][]{ { 1.0 }, new double[5] });
+		assertEquals(0.0, errors[0], eps);
+		assertEquals(expected, errors[1], eps);
+	}
+
+	@Test
+	public void testSlidingSpectrumMatchesTransform() {
+
+		Random rng = new Random(71);
+		double[] x = new double[seriesLength + 3000];
+		for(int t = 0; t < x.length; t++) {
+			x[t] = rng.nextGaussian();
+		}
+
+		/* no recomputation over all updates, then with the default interval */
+		MDFASlidingSpectrum drifting = new MDFASlidingSpectrum(Arrays.copyOf(x, seriesLength))
+				.setRecomputeInterval(Integer.MAX_VALUE);
+		MDFASlidingSpectrum corrected = new MDFASlidingSpectrum(Arrays.copyOf(x, seriesLength));
+		assertEquals(seriesLength, corrected.getRecomputeInterval());
+
+		for(int t = seriesLength; t < x.length; t++) {
+
+			drifting.update(x[t]);
+			corrected.update(x[t]);
+		}
+		assertEquals(3000, corrected.getUpdates());
+
+		double[] last = Arrays.copyOfRange(x, x.length - seriesLength, x.length);
+		assertArrayEquals(last, corrected.getWindow(), 0.0);
+
+		MDFASpectrum expected = new MDFASpectrum(last);
+		assertArrayEquals(expected.getReal(), drifting.getReal(), 1e-6);
+		assertArrayEquals(expected.getImag(), drifting.getImag(), 1e-6);
+		assertArrayEquals(expected.getPeriodogram(), corrected.getPeriodogram(), 1e-9);
+
+		drifting.recompute();
+		assertArrayEquals(expected.getReal(), drifting.getReal(), 1e-9);
+		assertArrayEquals(expected.getImag(), drifting.getImag(), 1e-9);
+	}
+
+	@Test
+	public void testResynchronizeReplaysMissedUpdates() {
+
+		Random rng = new Random(73);
+		MDFASlidingSpectrum sliding = new MDFASlidingSpectrum(createSeries(rng)).setRecomputeInterval(0);
+		for(int t = 0; t < 5000; t++) {
+			sliding.update(100.0 + rng.nextGaussian());
+		}
+
+		/* a copy is transformed elsewhere while 30 more updates arrive */
+		double[] copy = sliding.getWindow();
+		long updatesAtCopy = sliding.getUpdates();
+		MDFASpectrum exact = new MDFASpectrum(copy);
+		for(int t = 0; t < 30; t++) {
+			sliding.update(100.0 + rng.nextGaussian());
+		}
+
+		assertTrue(sliding.resynchronize(exact, copy, updatesAtCopy));
+		MDFASpectrum expected = new MDFASpectrum(sliding.getWindow());
+		assertArrayEquals(expected.getReal(), sliding.getReal(), 1e-9);
+		assertArrayEquals(expected.getImag(), sliding.getImag(), 1e-9);
+
+		/* a copy older than the window is not used */
+		for(int t = 0; t < seriesLength; t++) {
+			sliding.update(rng.nextGaussian());
+		}
+		assertFalse(sliding.resynchronize(exact, copy, updatesAtCopy));
+	}
+
+}
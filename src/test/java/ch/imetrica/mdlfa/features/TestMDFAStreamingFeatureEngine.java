@@ -0,0 +1,134 @@
+package ch.imetrica.mdlfa.features;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ch.imetrica.mdfa.mdfa.MDFABase;
+
+public class TestMDFAStreamingFeatureEngine {
+
+	final double eps = .00000001;
+
+	final int nObs = 3000;
+
+
+	private double[][] createCoefficients(Random rng, int... lengths) {
+
+		double[][] coefficients = new double[lengths.length][];
+		for(int k = 0; k < lengths.length; k++) {
+			coefficients[k] = new double[lengths[k]];
+			for(int l = 0; l < lengths[k]; l++) {
+				coefficients[k][l] = rng.nextGaussian();
+			}
+		}
+		return coefficients;
+	}
+
+	private MDFABase[] createBank(int nFilters) {
+
+		MDFABase[] anyMDFAs = new MDFABase[nFilters];
+		for(int k = 0; k < nFilters; k++) {
+			anyMDFAs[k] = new MDFABase().setLowpassCutoff(Math.PI/(4.0 + k)).setFilterLength(5);
+		}
+		return anyMDFAs;
+	}
+
+	/* direct convolution over the whole history, missing observations as zeros */
+	private double filter(double[] coefficients, double[] x, int t) {
+
+		double sum = 0;
+		for(int l = 0; l < coefficients.length && t - l >= 0; l++) {
+			sum += coefficients[l] * x[t - l];
+		}
+		return sum;
+	}
+
+	@Test
+	public void testTicksMatchDirectConvolution() {
+
+		Random rng = new Random(17);
+		double[][] coefficients = createCoefficients(rng, 5, 40, 12);
+		MDFAStreamingFeatureEngine engine = new MDFAStreamingFeatureEngine(createBank(3), coefficients);
+
+		assertEquals(40, engine.getFilterLength());
+
+		double[] x = new double[nObs];
+		for(int t = 0; t < nObs; t++) {
+
+			x[t] = rng.nextGaussian();
+			double[] features = engine.tick(x[t]);
+			assertEquals(t + 1 >= 40, engine.isWarm());
+
+			for(int k = 0; k < coefficients.length; k++) {
+				assertEquals(filter(coefficients[k], x, t), features[k], eps);
+			}
+		}
+	}
+
+	@Test
+	public void testCoefficientSwapKeepsHistory() {
+
+		Random rng = new Random(23);
+		double[][] first = createCoefficients(rng, 8, 8);
+		double[][] second = createCoefficients(rng, 8, 6);
+		MDFAStreamingFeatureEngine engine = new MDFAStreamingFeatureEngine(createBank(2), first);
+
+		double[] x = new double[100];
+		for(int t = 0; t < 50; t++) {
+			x[t] = rng.nextGaussian();
+			engine.tick(x[t]);
+		}
+
+		engine.setCoefficients(second);
+		for(int t = 50; t < 100; t++) {
+
+			x[t] = rng.nextGaussian();
+			double[] features = engine.tick(x[t]);
+			assertEquals(filter(second[0], x, t), features[0], eps);
+			assertEquals(filter(second[1], x, t), features[1], eps);
+		}
+
+		engine.reset();
+		assertFalse(engine.isWarm());
+		assertEquals(second[0][0] * 2.0, engine.tick(2.0)[0], eps);
+	}
+
+	@Test
+	public void testTicksDoNotAllocate() {
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		if(!threads.isThreadAllocatedMemorySupported()) {
+			return;
+		}
+
+		Random rng = new Random(31);
+		MDFAStreamingFeatureEngine engine = new MDFAStreamingFeatureEngine(createBank(6),
+				createCoefficients(rng, 40, 40, 40, 40, 40, 40));
+
+		double[] x = new double[nObs];
+		for(int t = 0; t < nObs; t++) {
+			x[t] = rng.nextGaussian();
+		}
+		for(int t = 0; t < nObs; t++) {
+			engine.tick(x[t]);
+		}
+
+		long threadId = Thread.currentThread().getId();
+		long before = threads.getThreadAllocatedBytes(threadId);
+		double sum = 0;
+		for(int t = 0; t < nObs; t++) {
+			sum += engine.tick(x[t])[0];
+		}
+		long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+		assertTrue(!Double.isNaN(sum));
+		assertTrue("Allocated " + allocated + " bytes", allocated < 1024);
+	}
+
+}
@@ -0,0 +1,110 @@
+package ch.imetrica.mdlfa.features;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+public class TestTALibFeatureStage {
+
+	final double eps = .00000001;
+
+	final int n = 300;
+
+
+	private double[] createPrices(Random rng) {
+
+		double[] close = new double[n];
+		double price = 100;
+		for(int t = 0; t < n; t++) {
+			price *= Math.exp(.01 * rng.nextGaussian());
+			close[t] = price;
+		}
+		return close;
+	}
+
+	@Test
+	public void testIndicatorColumns() {
+
+		double[] close = createPrices(new Random(89));
+		TALibFeatureStage stage = new TALibFeatureStage().addIndicator(TALibFeatureStage.sma(10))
+				                                         .addIndicator(TALibFeatureStage.macd(12, 26, 9))
+				                                         .addIndicator(TALibFeatureStage.mom(5));
+
+		assertEquals(5, stage.getNumberOfFeatures());
+		assertEquals(Arrays.asList("SMA(10)", "MACD(12,26,9)[0]", "MACD(12,26,9)[1]", "MACD(12,26,9)[2]", "MOM(5)"),
+				stage.getFeatureNames());
+
+		double[][] features = new double[7][n];
+		for(double[] column : features) {
+			Arrays.fill(column, Double.NaN);
+		}
+		stage.compute(close, features, 2);
+
+		/* outputs start after the lookback, zero before */
+		for(int t = 0; t < n; t++) {
+
+			double sma = 0;
+			if(t >= 9) {
+				for(int l = 0; l < 10; l++) {
+					sma += close[t - l] / 10;
+				}
+			}
+			assertEquals(sma, features[2][t], eps);
+			assertEquals((t >= 5) ? close[t] - close[t - 5] : 0, features[6][t], eps);
+		}
+		assertEquals(Double.NaN, features[0][0], 0.0);
+		assertEquals(Double.NaN, features[1][n - 1], 0.0);
+	}
+
+	@Test
+	public void testComputeAlongsideMdfaFilters() throws Exception {
+
+		Random rng = new Random(97);
+		double[] close = createPrices(rng);
+		double[] x = new double[n];
+		for(int t = 1; t < n; t++) {
+			x[t] = Math.log(close[t] / close[t - 1]);
+		}
+		double[][] coefficients = new double[3][5];
+		for(double[] coefficientSet : coefficients) {
+			for(int l = 0; l < coefficientSet.length; l++) {
+				coefficientSet[l] = rng.nextGaussian();
+			}
+		}
+
+		TALibFeatureStage stage = new TALibFeatureStage().addIndicator(TALibFeatureStage.ema(20))
+				                                         .addIndicator(TALibFeatureStage.bbands(20, 2.0));
+		MDFABatchFilter batchFilter = new MDFABatchFilter();
+
+		double[][] expected = new double[1 + 3 + 4][n];
+		batchFilter.filter(x, coefficients, expected, 1);
+		stage.compute(close, expected, 4);
+
+		double[][] features = new double[1 + 3 + 4][n];
+		ExecutorService pool = Executors.newFixedThreadPool(3);
+		try {
+			stage.computeAlongside(batchFilter, x, coefficients, null, null, close, features, 1, pool);
+		}
+		finally {
+			pool.shutdown();
+		}
+
+		for(int k = 0; k < features.length; k++) {
+			assertArrayEquals(expected[k], features[k], 0.0);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testHighLowIndicatorNeedsPrices() {
+
+		double[] close = createPrices(new Random(101));
+		new TALibFeatureStage().addIndicator(TALibFeatureStage.atr(14)).compute(close, new double[1][n], 0);
+	}
+
+}